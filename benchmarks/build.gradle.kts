@@ -0,0 +1,30 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+group = "tools.redstone.abstracraft"
+version = "1.0.0"
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation(project(mapOf("path" to ":core")))
+    implementation(testFixtures(project(":core")))
+    implementation("org.ow2.asm:asm:9.5")
+    implementation("org.ow2.asm:asm-tree:9.5")
+
+    // generate the benchmark classes with the same ASM version as the project uses
+    jmh("org.ow2.asm:asm:9.5")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    // report the allocation rate next to the timings
+    profilers.add("gc")
+    // run a subset with: ./gradlew -Pbenchmarks :benchmarks:jmh -Pjmh.includes=IsImplemented
+    if (project.hasProperty("jmh.includes"))
+        includes.add(project.property("jmh.includes").toString())
+}
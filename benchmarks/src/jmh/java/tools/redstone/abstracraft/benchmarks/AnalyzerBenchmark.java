@@ -0,0 +1,55 @@
+package tools.redstone.abstracraft.benchmarks;
+
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.*;
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the analysis and transformation of generated classes
+ * of different sizes, with a fresh manager for every class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyzerBenchmark {
+
+    static final String CLASS_NAME = "tools/redstone/abstracraft/benchmarks/Generated";
+
+    @Param({ "10", "100", "1000" })
+    int methodCount;
+
+    byte[] bytes;
+    AbstractionManager manager;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        bytes = Workloads.generateClass(CLASS_NAME, methodCount);
+    }
+
+    // the manager caches the analysis of every method,
+    // the setup cost is small compared to the analysis
+    @Setup(Level.Invocation)
+    public void createManager() {
+        manager = Workloads.createManager(name -> name.equals(CLASS_NAME.replace('/', '.')));
+    }
+
+    @Benchmark
+    public ClassDependencyAnalyzer analyzeAndTransform() {
+        ClassDependencyAnalyzer analyzer = new ClassDependencyAnalyzer(manager, new ClassReader(bytes));
+        for (var hook : Workloads.hooks())
+            analyzer.addHook(hook);
+        return analyzer.analyzeAndTransform();
+    }
+
+    @Benchmark
+    public byte[] transformClass() {
+        return manager.transformClass(CLASS_NAME, bytes);
+    }
+
+}
@@ -0,0 +1,54 @@
+package tools.redstone.abstracraft.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tools.redstone.abstracraft.core.AbstractionManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of finding a class through the transforming class
+ * loader, the first time with a fresh manager and once it is loaded.
+ */
+@Fork(1)
+public class FindClassBenchmark {
+
+    @State(Scope.Thread)
+    public static class Cold {
+        AbstractionManager manager;
+
+        @Setup(Level.Invocation)
+        public void createManager() {
+            manager = Workloads.createManager(name -> name.equals(Workloads.PLAIN_WORKLOAD));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Warm {
+        AbstractionManager manager;
+
+        @Setup(Level.Trial)
+        public void createManager() {
+            manager = Workloads.createManager(name -> name.equals(Workloads.PLAIN_WORKLOAD));
+            manager.findClass(Workloads.PLAIN_WORKLOAD);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 100)
+    public Class<?> cold(Cold state) {
+        return state.manager.findClass(Workloads.PLAIN_WORKLOAD);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public Class<?> warm(Warm state) {
+        return state.manager.findClass(Workloads.PLAIN_WORKLOAD);
+    }
+
+}
@@ -0,0 +1,56 @@
+package tools.redstone.abstracraft.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup of implementation states once they are cached,
+ * by reference which is interned first and by reference ID.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IsImplementedBenchmark {
+
+    AbstractionManager manager;
+    ReferenceInfo a;
+    ReferenceInfo b;
+    List<ReferenceInfo> both;
+    int aId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        manager = Workloads.createManager(name -> false);
+        a = ReferenceInfo.forMethodInfo(Workloads.Abc.class.getName(), "a", "()I", false);
+        b = ReferenceInfo.forMethodInfo(Workloads.Abc.class.getName(), "b", "()I", false);
+        both = List.of(a, b);
+        aId = manager.getReferenceTable().intern(a);
+
+        // fill the cache
+        manager.isImplemented(a);
+        manager.isImplemented(b);
+    }
+
+    @Benchmark
+    public boolean byReference() {
+        return manager.isImplemented(a);
+    }
+
+    @Benchmark
+    public boolean byId() {
+        return manager.isImplemented(aId);
+    }
+
+    @Benchmark
+    public boolean areAllImplemented() {
+        return manager.areAllImplemented(both);
+    }
+
+}
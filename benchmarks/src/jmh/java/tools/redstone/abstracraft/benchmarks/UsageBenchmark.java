@@ -0,0 +1,57 @@
+package tools.redstone.abstracraft.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tools.redstone.abstracraft.core.AbstractionManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares code using {@link tools.redstone.abstracraft.core.usage.Usage} after
+ * transformation, in each of the transformation modes, with the equivalent
+ * hand-written code. Run with the GC profiler to see the lambda allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsageBenchmark {
+
+    @State(Scope.Thread)
+    public static class Transformed {
+        @Param({ "static", "inline", "guarded" })
+        String mode;
+
+        Workloads.Workload workload;
+        Workloads.Abc abc = new Workloads.AbcImpl();
+        long i;
+
+        // every mode runs in it's own fork, as the
+        // workload can only be transformed once per JVM
+        @Setup(Level.Trial)
+        public void setup() throws ReflectiveOperationException {
+            AbstractionManager manager = Workloads.createManager(name -> name.equals(Workloads.USAGE_WORKLOAD))
+                    .setInlineOptionalBlocks(mode.equals("inline"))
+                    .setGuardedOptionalBlocks(mode.equals("guarded"));
+            workload = (Workloads.Workload) manager.findClass(Workloads.USAGE_WORKLOAD).getConstructor().newInstance();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class HandWritten {
+        Workloads.Workload workload = new Workloads.HandWrittenWorkload();
+        Workloads.Abc abc = new Workloads.AbcImpl();
+        long i;
+    }
+
+    @Benchmark
+    public long transformed(Transformed state) {
+        return state.workload.run(state.abc, state.i++);
+    }
+
+    @Benchmark
+    public long handWritten(HandWritten state) {
+        return state.workload.run(state.abc, state.i++);
+    }
+
+}
@@ -0,0 +1,63 @@
+package tools.redstone.abstracraft.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transformation of a whole synthetic modpack, with a fresh
+ * manager for every run so nothing is shared between runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorkloadBenchmark {
+
+    @Param({ "100", "1000" })
+    int classCount;
+
+    @Param({ "0", "0.05" })
+    double recursionRatio;
+
+    @Param({ "true", "false" })
+    boolean preserveFrames;
+
+    SyntheticWorkload workload;
+    Map<String, byte[]> classBytes;
+    AbstractionManager manager;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        workload = SyntheticWorkload.generate(new SyntheticWorkload.Options()
+                .seed(1)
+                .classCount(classCount)
+                .recursionRatio(recursionRatio));
+        classBytes = workload.getClassBytes();
+    }
+
+    @Setup(Level.Iteration)
+    public void createManager() {
+        ClassLoader loader = workload.createLoader(getClass().getClassLoader());
+        manager = new AbstractionManager(loader)
+                .setClassAuditPredicate(workload::isTransformedClass)
+                .setPreserveFrames(preserveFrames);
+        for (var hook : Workloads.hooks())
+            manager.addAnalysisHook(hook);
+        workload.registerImpls(manager, loader);
+    }
+
+    @Benchmark
+    public void transformAll(Blackhole blackhole) {
+        for (String name : workload.getClassNames()) {
+            blackhole.consume(manager.transformClass(name, classBytes.get(name)));
+        }
+    }
+
+}
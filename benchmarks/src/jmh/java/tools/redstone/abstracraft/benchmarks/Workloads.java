@@ -0,0 +1,133 @@
+package tools.redstone.abstracraft.benchmarks;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The abstractions, subjects and generated classes shared by the benchmarks.
+ *
+ * Subjects are only ever referenced by name, so they are not loaded
+ * by the application class loader before being transformed.
+ *
+ * @author orbyfied
+ */
+public class Workloads {
+
+    public interface Abc extends Abstraction {
+        default int a() { return unimplemented(); }
+        default int b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public int a() {
+            return 1;
+        }
+    }
+
+    public interface Workload {
+        long run(Abc abc, long i);
+    }
+
+    /** Uses the abstraction through the usage methods. */
+    public static class UsageWorkload implements Workload {
+        @Override
+        public long run(Abc abc, long i) {
+            long live = Usage.optionally(() -> abc.a() + i).orElse(0L);
+            long dead = Usage.optionally(() -> abc.b() + i).orElse(0L);
+            long oneOf = Usage.requireAtLeastOne(() -> abc.b() + i, () -> abc.a() + i);
+            return live + dead + oneOf;
+        }
+    }
+
+    /** What {@link UsageWorkload} would look like if written against the known implementation. */
+    public static class HandWrittenWorkload implements Workload {
+        @Override
+        public long run(Abc abc, long i) {
+            long live = abc.a() + i;
+            long dead = 0L;
+            long oneOf = abc.a() + i;
+            return live + dead + oneOf;
+        }
+    }
+
+    /** Calls the abstraction without referencing itself, so the analysis never loads it. */
+    public static class PlainWorkload implements Workload {
+        @Override
+        public long run(Abc abc, long i) {
+            return abc.a() + i;
+        }
+    }
+
+    public static final String USAGE_WORKLOAD = Workloads.class.getName() + "$UsageWorkload";
+    public static final String PLAIN_WORKLOAD = Workloads.class.getName() + "$PlainWorkload";
+
+    static final String NAME_Abc = Type.getInternalName(Abc.class);
+
+    /** The hooks every benchmark manager is configured with. */
+    public static List<DependencyAnalysisHook> hooks() {
+        return List.of(
+                AbstractionManager.checkDependenciesForInterface(Abstraction.class, true),
+                AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+    }
+
+    /**
+     * Create a manager which audits the classes matching the
+     * given predicate, with {@link AbcImpl} registered.
+     */
+    public static AbstractionManager createManager(Predicate<String> auditPredicate) {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(auditPredicate);
+        for (var hook : hooks())
+            manager.addAnalysisHook(hook);
+        manager.registerImpl(AbcImpl.class);
+        return manager;
+    }
+
+    /**
+     * Generate a class with the given amount of static methods, each calling
+     * both abstraction methods and the previous method, which results in a
+     * chain of references through the whole class.
+     *
+     * @param name The internal name of the class.
+     * @param methodCount The amount of methods.
+     * @return The class bytes.
+     */
+    public static byte[] generateClass(String name, int methodCount) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+
+        String desc = "(L" + NAME_Abc + ";)I";
+        for (int i = 0; i < methodCount; i++) {
+            MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m" + i, desc, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, NAME_Abc, "a", "()I", true);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, NAME_Abc, "b", "()I", true);
+            mv.visitInsn(Opcodes.IADD);
+            if (i > 0) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, "m" + (i - 1), desc, false);
+                mv.visitInsn(Opcodes.IADD);
+            }
+
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+}
@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("java-test-fixtures")
 }
 
 group = "tools.redstone.abstracraft"
@@ -14,10 +15,22 @@ dependencies {
     implementation("org.ow2.asm:asm-tree:9.4")
     implementation("org.ow2.asm:asm-util:9.5")
 
+    // the synthetic workload generator, shared with the benchmarks
+    testFixturesImplementation("org.ow2.asm:asm:9.5")
+
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+tasks.jar {
+    manifest {
+        attributes(
+            "Premain-Class" to "tools.redstone.abstracraft.core.agent.AbstracraftAgent",
+            "Agent-Class" to "tools.redstone.abstracraft.core.agent.AbstracraftAgent",
+            "Can-Redefine-Classes" to "true"
+        )
+    }
+}
@@ -4,17 +4,43 @@ import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 import tools.redstone.abstracraft.core.analysis.*;
+import tools.redstone.abstracraft.core.cache.ClassTransformCache;
+import tools.redstone.abstracraft.core.metrics.AbstractionMetrics;
+import tools.redstone.abstracraft.core.metrics.TransformEvent;
 import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.InternalBootstraps;
+import tools.redstone.abstracraft.core.usage.Usage;
 import tools.redstone.abstracraft.core.util.ASMUtil;
+import tools.redstone.abstracraft.core.util.ClassFileSource;
+import tools.redstone.abstracraft.core.util.ClasspathIndex;
+import tools.redstone.abstracraft.core.util.PagedArray;
+import tools.redstone.abstracraft.core.util.PagedIntArray;
 import tools.redstone.abstracraft.core.util.ReflectUtil;
 
-import java.io.InputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.invoke.SwitchPoint;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Manages all systems related to abstracting.
@@ -23,41 +49,141 @@ import java.util.function.Predicate;
  * Used to check whether a specific behavior is implemented by
  * any given class.
  *
+ * The manager is safe to use from multiple threads. Classes are read,
+ * parsed, written and defined concurrently, while the analysis of the
+ * shared reference graph is serialized through {@link #analysisLock}.
+ *
+ * Implementations can be changed at runtime through {@link #registerImpl(Class)}
+ * and {@link #setImplemented(ReferenceInfo, boolean)}. The manager keeps an index
+ * of the classes which depend on the implementation state of each reference, so
+ * {@link #applyImplementationChanges()} only retransforms the classes affected
+ * by the change, either by redefining them in place when running as an agent or
+ * by defining them in a new generation of the transforming class loader.
+ *
  * @author orbyfied
  */
 public class AbstractionManager {
 
     record DefaultImplAnalysis(Set<ReferenceInfo> unimplementedMethods) { }
 
-    Predicate<String> classAuditPredicate = s -> true;                                                                  // The predicate for abstraction class names.
-    Predicate<ClassDependencyAnalyzer.ReferenceAnalysis> requiredMethodPredicate = m -> m.optionalReferenceNumber <= 0; // The predicate for required methods.
-    final List<DependencyAnalysisHook> analysisHooks = new ArrayList<>();                                               // The global dependency analysis hooks
+    // A weak reference to a class loader which defined transformed classes,
+    // used to evict their analysis once the loader has been unloaded
+    static final class DefiningLoader extends WeakReference<ClassLoader> {
+        final Set<String> classNames = ConcurrentHashMap.newKeySet(); // The classes transformed for this loader
+
+        DefiningLoader(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+        }
+    }
 
-    final Map<Class<?>, Class<?>> implByBaseClass = new HashMap<>();                                                    // The registered implementation classes by base class
-    final Map<ReferenceInfo, Boolean> implementedCache = new HashMap<>();                                               // A cache to store whether a specific method is implemented for fast access
+    static final String NAME_Usage = Type.getInternalName(Usage.class);
+    static final String NAME_Abstraction = Type.getInternalName(Abstraction.class);
 
-    final Map<ReferenceInfo, ClassDependencyAnalyzer.ReferenceAnalysis> refAnalysisMap = new HashMap<>();               // All analyzed methods by their descriptor
-    final Map<String, ClassDependencyAnalyzer> analyzerMap = new HashMap<>();                                           // All analyzers by class name
-    final ClassLoader transformingClassLoader;
+    static final AtomicInteger idCounter = new AtomicInteger();                                             // The counter for manager IDs
+    static final List<Class<?>> TRANSFORMER_CLASSES = List.of(AbstractionManager.class, InternalBootstraps.class, ASMUtil.class); // The transformer classes besides those of the analysis
+    static volatile String transformerHash;                                                                 // The cached hash of the transformer classes, see getTransformerHash()
+    static final Map<Integer, WeakReference<AbstractionManager>> managersById = new ConcurrentHashMap<>(); // All managers by ID, for the bootstrap methods of guarded call sites
+
+    /**
+     * Get the abstraction manager with the given ID, see {@link #getId()}.
+     *
+     * @param id The ID.
+     * @return The manager or null if it does not exist anymore.
+     */
+    public static AbstractionManager getById(int id) {
+        var ref = managersById.get(id);
+        return ref != null ? ref.get() : null;
+    }
+
+    /* Implementation states in the implemented cache */
+    static final int IMPL_UNKNOWN = 0;
+    static final int IMPL_FALSE = 1;
+    static final int IMPL_TRUE = 2;
+
+    volatile Predicate<String> classAuditPredicate = s -> true;                                                         // The predicate for abstraction class names.
+    volatile Predicate<ClassDependencyAnalyzer.ReferenceAnalysis> requiredMethodPredicate = m -> m.optionalReferenceNumber <= 0; // The predicate for required methods.
+    volatile HookDispatch analysisHooks = HookDispatch.EMPTY;                                                           // The global dependency analysis hooks, compiled per event
+
+    final Map<Class<?>, Class<?>> implByBaseClass = new ConcurrentHashMap<>();                                          // The registered implementation classes by base class
+    final ReferenceTable referenceTable = new ReferenceTable();                                                          // The IDs of all references encountered
+    final PagedIntArray implementedCache = new PagedIntArray();                                                         // Whether a reference is implemented by ID for fast access, see IMPL_* constants
+    final Map<ReferenceInfo, Boolean> implementedOverrides = new ConcurrentHashMap<>();                                 // The implementation states set manually through setImplemented
+
+    final PagedArray<ClassDependencyAnalyzer.ReferenceAnalysis> refAnalysisById = new PagedArray<>();                    // All analyzed methods by their reference ID
+    final Map<String, ClassDependencyAnalyzer> analyzerMap = new ConcurrentHashMap<>();                                 // All analyzers by class name
+    final ReentrantLock analysisLock = new ReentrantLock();                                                             // Guards the mutation of the reference analysis graph
+    volatile boolean refHooksRegistered = false;                                                                        // Whether any reference hook was registered, otherwise hook-only events are not propagated
+    final ClassLoader parentLoader;                                                                                     // The parent of the transforming class loader, which defines the abstractions and implementations
+    volatile ClassLoader transformingClassLoader;                                                                       // The current generation of the transforming class loader
+    volatile int loaderGeneration = 0;                                                                                  // The amount of times the transforming class loader was replaced
+    volatile ClassLoader resourceLoader;                                                                                // The loader used to find the bytes of referenced classes
+    final ThreadLocal<ClassLoader> currentResourceLoader = new ThreadLocal<>();                                         // The resource loader for the class currently transformed by this thread
+    final ThreadLocal<Set<Class<?>>> classesResolvedInPlace = ThreadLocal.withInitial(LinkedHashSet::new);              // The classes resolved by the in place transformations on this thread, see takeClassesResolvedInPlace()
 
     final ClassDependencyAnalyzer partialAnalyzer;
+    final ClassFileSource classFileSource = new ClassFileSource(this::getResourceLoader,                                // Reads each class file once, audited classes are kept until they are defined
+            internalName -> classAuditPredicate.test(internalName.replace('/', '.')));
+    final ClassHierarchyIndex hierarchyIndex = new ClassHierarchyIndex(classFileSource);                                // The super types of all classes seen, read from their class files
+    final int id = idCounter.incrementAndGet();                                                                         // The ID of this manager in this JVM
+    final PagedArray<SwitchPoint> switchPoints = new PagedArray<>();                                                    // Invalidated when the implementation state of a reference changes, by reference ID
+
+    volatile ClassTransformCache transformCache;   // The persistent transform cache, null if disabled
+    volatile String hookSetVersion = "";           // The user defined version of the hook set, part of the environment fingerprint
+    volatile String environmentFingerprint;        // The cached environment fingerprint, reset when the environment changes
+    volatile boolean preFilterEnabled = true;      // Whether to skip classes which can not reference any dependencies
+    volatile ClassStructureCache structureCache = ClassStructureCache.shared(); // The structures shared with other managers, null to not share them
+    volatile boolean releaseClassTrees = true;     // Whether to drop the class tree of analyzers once the class is written
+    volatile boolean inlineOptionalBlocks = true;  // Whether to call the lambdas passed to Usage.optionally directly
+    volatile boolean devirtualizeCalls = false;    // Whether to bind abstraction calls to the registered implementation
+    volatile boolean guardedOptionalBlocks = false; // Whether to link optional blocks through call sites which follow runtime state changes
+    volatile boolean preserveFrames = true;         // Whether to keep the stack map frames of methods the transformation did not change
+    volatile AbstractionMetrics metrics;            // The metrics recorded by this manager, null if disabled
+    volatile ObjectName metricsMBeanName;           // The name the metrics MBean is registered under, null if not registered
+
+    final PagedArray<Set<String>> dependentClasses = new PagedArray<>();   // The classes whose transformed bytes depend on the implementation state of a reference, by reference ID
+    final Set<String> pendingRetransform = ConcurrentHashMap.newKeySet();   // The classes affected by implementation changes which were not applied yet
+    final Map<String, byte[]> retainedBytes = new ConcurrentHashMap<>();    // The transformed bytes of classes defined by the transforming class loader, if retained
+    volatile boolean retainTransformedBytes = false;                        // Whether to retain the transformed bytes for new loader generations
+    volatile Instrumentation instrumentation;                               // The instrumentation used to redefine affected classes, null if not running as an agent
+    final Map<String, byte[]> originalBytes = new ConcurrentHashMap<>();    // The original bytes of the classes transformed for other loaders while an instrumentation is set, to redefine them from
+
+    final Map<ClassLoader, DefiningLoader> definingLoaders = Collections.synchronizedMap(new WeakHashMap<>()); // The loaders classes were transformed for, other than the transforming class loader
+    final ReferenceQueue<ClassLoader> unloadedLoaders = new ReferenceQueue<>();                                // Receives the defining loaders which were unloaded
 
     public AbstractionManager() {
-        // create class loader
-        this.transformingClassLoader = ReflectUtil.transformingClassLoader(
+        this(null);
+    }
+
+    /**
+     * Create a manager whose transforming class loader delegates to the given
+     * parent loader, which is also used to find abstractions and implementations.
+     *
+     * @param parentLoader The parent loader, or null for the loader of the manager class.
+     */
+    public AbstractionManager(ClassLoader parentLoader) {
+        this.parentLoader = parentLoader != null ? parentLoader : getClass().getClassLoader();
+        this.transformingClassLoader = createTransformingClassLoader(false);
+        this.resourceLoader = transformingClassLoader;
+
+        this.partialAnalyzer = new ClassDependencyAnalyzer(this, null);
+        managersById.put(id, new WeakReference<>(this));
+    }
+
+    // Create a transforming class loader, new generations are isolated
+    // from audited classes loaded by the parent loaders during analysis
+    private ClassLoader createTransformingClassLoader(boolean isolated) {
+        return ReflectUtil.transformingClassLoader(
                 // name predicate
                 name -> !name.startsWith("java") && classAuditPredicate.test(name),
                 // parent class loader
-                getClass().getClassLoader(),
+                parentLoader,
+                // the class bytes, shared with the analysis
+                name -> {
+                    var file = classFileSource.get(name.replace('.', '/'));
+                    return file != null ? file.bytes() : null;
+                },
                 // transformer
-                ((name, reader, writer) -> {
-                    var analyzer = analyzer(name, true);
-                    if (analyzer.getClassAnalysis() == null || !analyzer.getClassAnalysis().completed)
-                        analyzer.analyzeAndTransform();
-                    analyzer.getClassNode().accept(writer);
-                }), ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, true);
-
-        this.partialAnalyzer = new ClassDependencyAnalyzer(this, null);
+                this::transformClass, true, isolated);
     }
 
     public AbstractionManager setClassAuditPredicate(Predicate<String> classAuditPredicate) {
@@ -78,6 +204,375 @@ public class AbstractionManager {
         return requiredMethodPredicate;
     }
 
+    /**
+     * Set the persistent cache to store transformed classes in,
+     * or null to disable caching.
+     *
+     * @param transformCache The cache.
+     * @return This.
+     */
+    public AbstractionManager setTransformCache(ClassTransformCache transformCache) {
+        this.transformCache = transformCache;
+        return this;
+    }
+
+    public ClassTransformCache getTransformCache() {
+        return transformCache;
+    }
+
+    /**
+     * Set the class loader used to find the bytes of classes referenced by
+     * the classes being transformed, defaults to the transforming class loader.
+     *
+     * @param resourceLoader The class loader.
+     * @return This.
+     */
+    public AbstractionManager setResourceLoader(ClassLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+        return this;
+    }
+
+    /**
+     * Get the class loader used to find the bytes of referenced classes, which is
+     * the loader of the class currently being transformed by this thread if known.
+     *
+     * @return The class loader.
+     */
+    public ClassLoader getResourceLoader() {
+        ClassLoader loader = currentResourceLoader.get();
+        return loader != null ? loader : resourceLoader;
+    }
+
+    /**
+     * Set whether the transforming class loader should define the audited classes
+     * itself even if a parent loader already loaded them, for example because a test
+     * runner loads every class on the class path. Replaces the transforming class
+     * loader, so it should be set before any class is loaded through it.
+     *
+     * @param isolatedLoading Whether to isolate the transforming class loader.
+     * @return This.
+     */
+    public AbstractionManager setIsolatedLoading(boolean isolatedLoading) {
+        ClassLoader prevLoader = transformingClassLoader;
+        ClassLoader loader = createTransformingClassLoader(isolatedLoading);
+        if (resourceLoader == prevLoader)
+            resourceLoader = loader;
+        transformingClassLoader = loader;
+        return this;
+    }
+
+    public ClassLoader getTransformingClassLoader() {
+        return transformingClassLoader;
+    }
+
+    public int getLoaderGeneration() {
+        return loaderGeneration;
+    }
+
+    /**
+     * Set the instrumentation used to redefine the classes affected by
+     * implementation changes in place, see {@link #applyImplementationChanges()}.
+     *
+     * @param instrumentation The instrumentation, or null to use new loader generations.
+     * @return This.
+     */
+    public AbstractionManager setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        return this;
+    }
+
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Set whether the transformed bytes of the classes defined by the transforming
+     * class loader should be kept, so a new loader generation can define the classes
+     * not affected by an implementation change without analyzing them again.
+     * Otherwise all analysis results are dropped when a new generation is created.
+     *
+     * @param retainTransformedBytes Whether to retain the transformed bytes.
+     * @return This.
+     */
+    public AbstractionManager setRetainTransformedBytes(boolean retainTransformedBytes) {
+        this.retainTransformedBytes = retainTransformedBytes;
+        if (!retainTransformedBytes)
+            retainedBytes.clear();
+        return this;
+    }
+
+    public boolean isRetainTransformedBytes() {
+        return retainTransformedBytes;
+    }
+
+    /**
+     * Set whether the constant pool of classes should be checked for relevant
+     * references before analyzing them, see {@link #mayReferenceDependencies(ClassReader)}.
+     *
+     * @param preFilterEnabled Whether to enable the pre-filter.
+     * @return This.
+     */
+    public AbstractionManager setPreFilterEnabled(boolean preFilterEnabled) {
+        this.preFilterEnabled = preFilterEnabled;
+        return this;
+    }
+
+    public boolean isPreFilterEnabled() {
+        return preFilterEnabled;
+    }
+
+    /**
+     * Set whether the class tree of each analyzer should be dropped once the class
+     * has been transformed, keeping only the analysis results. This should only be
+     * disabled for debugging, or if classes with the same name are defined by
+     * multiple class loaders, as the class is analyzed again for each of them otherwise.
+     *
+     * @param releaseClassTrees Whether to release class trees.
+     * @return This.
+     */
+    public AbstractionManager setReleaseClassTrees(boolean releaseClassTrees) {
+        this.releaseClassTrees = releaseClassTrees;
+        return this;
+    }
+
+    public boolean isReleaseClassTrees() {
+        return releaseClassTrees;
+    }
+
+    /**
+     * Set whether the original stack map frames of methods which were not changed
+     * by the transformation should be kept, instead of computing the frames of
+     * every method of every transformed class. Frames are always computed for
+     * the methods which were changed, and for classes older than Java 7.
+     *
+     * @param preserveFrames Whether to preserve unchanged frames.
+     * @return This.
+     */
+    public AbstractionManager setPreserveFrames(boolean preserveFrames) {
+        this.preserveFrames = preserveFrames;
+        return this;
+    }
+
+    public boolean isPreserveFrames() {
+        return preserveFrames;
+    }
+
+    /**
+     * Set whether lambdas passed directly to {@link Usage#optionally(java.util.function.Supplier)}
+     * or {@link Usage#optionally(Runnable)} should be inlined, calling the lambda
+     * body directly or producing the constant empty result, instead of allocating
+     * the lambda and calling through the substitute methods. This also replaces
+     * calls to {@link Usage#requireAtLeastOne(java.util.function.Supplier[])} with
+     * a direct call to the chosen alternative, without creating the array.
+     *
+     * @param inlineOptionalBlocks Whether to inline optional blocks.
+     * @return This.
+     */
+    public AbstractionManager setInlineOptionalBlocks(boolean inlineOptionalBlocks) {
+        this.inlineOptionalBlocks = inlineOptionalBlocks;
+        environmentFingerprint = null;
+        return this;
+    }
+
+    public boolean isInlineOptionalBlocks() {
+        return inlineOptionalBlocks;
+    }
+
+    /**
+     * Set whether calls to abstraction methods should be bound to the single registered
+     * implementation of the abstraction, through an invokedynamic call site guarded by an
+     * instance check. This keeps the calls monomorphic when multiple implementations are
+     * on the class path. Disabled by default.
+     *
+     * @param devirtualizeCalls Whether to devirtualize abstraction calls.
+     * @return This.
+     */
+    public AbstractionManager setDevirtualizeCalls(boolean devirtualizeCalls) {
+        this.devirtualizeCalls = devirtualizeCalls;
+        environmentFingerprint = null;
+        return this;
+    }
+
+    public boolean isDevirtualizeCalls() {
+        return devirtualizeCalls;
+    }
+
+    /**
+     * Set whether calls to {@link Usage#optionally(java.util.function.Supplier)},
+     * {@link Usage#optionally(Runnable)} and {@link Usage#isImplemented(java.util.function.Supplier)}
+     * should be linked through invokedynamic call sites guarded by a {@link SwitchPoint}
+     * per dependency, instead of baking the implementation state into the bytecode.
+     * Changing the state through {@link #setImplemented(ReferenceInfo, boolean)} or
+     * {@link #registerImpl(Class)} then invalidates the guards, which relink the call
+     * sites on their next invocation. Blocks linked this way are not inlined.
+     *
+     * @param guardedOptionalBlocks Whether to guard optional blocks.
+     * @return This.
+     */
+    public AbstractionManager setGuardedOptionalBlocks(boolean guardedOptionalBlocks) {
+        this.guardedOptionalBlocks = guardedOptionalBlocks;
+        environmentFingerprint = null;
+        return this;
+    }
+
+    public boolean isGuardedOptionalBlocks() {
+        return guardedOptionalBlocks;
+    }
+
+    /**
+     * Set whether this manager should record {@link AbstractionMetrics}.
+     * Enabling creates a new empty set of metrics if none is present,
+     * disabling drops them. Flight recorder events for each transformation
+     * ({@link TransformEvent}) are emitted independently of this, whenever
+     * they are enabled in the recording.
+     *
+     * @param enabled Whether to record metrics.
+     * @return This.
+     */
+    public synchronized AbstractionManager setMetricsEnabled(boolean enabled) {
+        if (!enabled) {
+            unregisterMetricsMBean();
+            metrics = null;
+        } else if (metrics == null) {
+            metrics = new AbstractionMetrics();
+        }
+
+        return this;
+    }
+
+    /** Get the metrics recorded by this manager, or null if disabled. */
+    public AbstractionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Whether any reference hook was registered on an analysis of this manager. */
+    public boolean hasRefHooks() {
+        return refHooksRegistered;
+    }
+
+    /** Record that a reference hook was registered, enabling hook-only event propagation. */
+    public void refHookRegistered() {
+        refHooksRegistered = true;
+    }
+
+    /**
+     * Enable the metrics and register them as an MXBean with the platform MBean
+     * server, under {@code tools.redstone.abstracraft:type=AbstractionManager,id=<id>}.
+     * The MBean server keeps the metrics alive until {@link #unregisterMetricsMBean()}.
+     *
+     * @return The name of the MBean.
+     */
+    public synchronized ObjectName registerMetricsMBean() {
+        if (metricsMBeanName != null)
+            return metricsMBeanName;
+
+        try {
+            setMetricsEnabled(true);
+            ObjectName name = new ObjectName("tools.redstone.abstracraft:type=AbstractionManager,id=" + id);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return metricsMBeanName = name;
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register metrics MBean of manager " + id, e);
+        }
+    }
+
+    /** Unregister the metrics MBean if it was registered. */
+    public synchronized void unregisterMetricsMBean() {
+        if (metricsMBeanName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+        } catch (JMException e) {
+            System.err.println("WARNING Failed to unregister metrics MBean " + metricsMBeanName + ": " + e);
+        } finally {
+            metricsMBeanName = null;
+        }
+    }
+
+    /** Get the ID of this manager, which is only valid for the current JVM. */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Set the version of the registered hooks and predicates. This should be
+     * changed whenever their behavior changes, to invalidate cached transformations.
+     *
+     * @param hookSetVersion The version string.
+     * @return This.
+     */
+    public AbstractionManager setHookSetVersion(String hookSetVersion) {
+        this.hookSetVersion = hookSetVersion;
+        this.environmentFingerprint = null;
+        return this;
+    }
+
+    /**
+     * Get the fingerprint of everything which influences the transformation
+     * of classes besides their own bytes: the class files of the transformer
+     * itself, the hook set version, the class files and configuration of the
+     * registered hooks, see {@link DependencyAnalysisHook#fingerprint()}, the
+     * registered implementations and the manual implementation overrides.
+     *
+     * @return The fingerprint.
+     */
+    public String getEnvironmentFingerprint() {
+        String fingerprint = environmentFingerprint;
+        if (fingerprint != null)
+            return fingerprint;
+
+        List<String> parts = new ArrayList<>();
+        parts.add("transformer " + getTransformerHash());
+        parts.add("hookSetVersion " + hookSetVersion);
+        parts.add("inlineOptionalBlocks " + inlineOptionalBlocks);
+        parts.add("devirtualizeCalls " + devirtualizeCalls);
+        if (guardedOptionalBlocks)
+            parts.add("guardedOptionalBlocks " + id); // the call sites refer to this manager by ID
+        for (var hook : analysisHooks.getHooks())
+            parts.add("hook " + hook.getClass().getName() + " " + hashClassFile(hook.getClass()) + " " + hook.fingerprint());
+
+        List<String> implParts = new ArrayList<>();
+        implByBaseClass.forEach((base, impl) -> implParts.add("impl " + base.getName() + " " + impl.getName() + " " +
+                ClassTransformCache.hash(getClassFile(impl).bytes())));
+        Collections.sort(implParts);
+        parts.addAll(implParts);
+
+        List<String> overrideParts = new ArrayList<>();
+        implementedOverrides.forEach((ref, b) -> overrideParts.add("override " + ref + " " + b));
+        Collections.sort(overrideParts);
+        parts.addAll(overrideParts);
+
+        return environmentFingerprint = ClassTransformCache.hash(parts);
+    }
+
+    // Hash the class files of all classes taking part in the transformation, with their nested classes
+    static String getTransformerHash() {
+        String hash = transformerHash;
+        if (hash != null)
+            return hash;
+
+        Map<String, Class<?>> classes = new TreeMap<>();
+        List<Class<?>> transformerClasses = new ArrayList<>(ClassDependencyAnalyzer.ANALYSIS_CLASSES);
+        transformerClasses.addAll(TRANSFORMER_CLASSES);
+        for (Class<?> klass : transformerClasses)
+            for (Class<?> member : klass.getNestMembers())
+                classes.put(member.getName(), member);
+        List<String> parts = new ArrayList<>();
+        classes.forEach((name, klass) -> parts.add(name + " " + hashClassFile(klass)));
+        return transformerHash = ClassTransformCache.hash(parts);
+    }
+
+    // Hash the class file of the given class, or it's name if the class file can not be found
+    static String hashClassFile(Class<?> klass) {
+        try {
+            return ClassTransformCache.hash(ReflectUtil.getBytes(klass));
+        } catch (Exception e) {
+            System.err.println("WARNING Could not read class file of " + klass.getName() + " for the environment fingerprint: " + e);
+            return klass.getName();
+        }
+    }
+
     /**
      * Get the base abstraction class from the given interface.
      *
@@ -114,8 +609,12 @@ public class AbstractionManager {
      */
     public void registerImpl(Class<?> implClass) {
         for (Class<?> kl : getApplicableAbstractionClasses(implClass)) {
-            implByBaseClass.put(kl, implClass);
+            Class<?> prevImpl = implByBaseClass.put(kl, implClass);
+            if (prevImpl != implClass)
+                implementationChanged(kl);
         }
+
+        environmentFingerprint = null;
     }
 
     /**
@@ -128,20 +627,60 @@ public class AbstractionManager {
         return implByBaseClass.get(baseClass);
     }
 
+    /**
+     * Get the implementation calls to the given abstraction method should be
+     * bound to, if devirtualization is enabled and exactly one registered
+     * implementation can be the receiver.
+     *
+     * @param ref The method.
+     * @return The implementation class or null.
+     */
+    public Class<?> getDevirtualizationTarget(ReferenceInfo ref) {
+        if (!devirtualizeCalls || ref.isField() || ref.isStatic() || ref.name().startsWith("<"))
+            return null;
+
+        if (!hierarchyIndex.isSubtypeOf(ref.ownerInternalName(), NAME_Abstraction))
+            return null;
+        Class<?> owner;
+        try {
+            owner = resolveClass(ref.ownerClassName());
+        } catch (Exception e) {
+            return null;
+        }
+
+        Class<?> target = null;
+        for (Class<?> impl : implByBaseClass.values()) {
+            if (impl == owner || !owner.isAssignableFrom(impl))
+                continue;
+            if (target != null && target != impl)
+                return null; // multiple candidates
+            target = impl;
+        }
+
+        return target;
+    }
+
     // Check whether the given ref is implemented
     // without referencing the cache
     private boolean isImplemented0(ReferenceInfo ref) {
         // get abstraction class
-        Class<?> refClass = ReflectUtil.getClass(ref.ownerClassName());
+        Class<?> refClass = resolveClass(ref.ownerClassName());
         if (refClass == null)
             return false;
 
         try {
             // check hooks
-            for (var hook : analysisHooks) {
-                var res = hook.checkImplemented(this, ref, refClass);
-                if (res == null) continue;
-                return res;
+            int calls = 0;
+            try {
+                for (var hook : analysisHooks.get(DependencyAnalysisHook.Event.CHECK_IMPLEMENTED, ref.ownerInternalName())) {
+                    calls++;
+                    var res = hook.checkImplemented(this, ref, refClass);
+                    if (res == null) continue;
+                    return res;
+                }
+            } finally {
+                AbstractionMetrics metrics = this.metrics;
+                if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.CHECK_IMPLEMENTED, calls);
             }
 
             // otherwise just assume it is available
@@ -160,12 +699,29 @@ public class AbstractionManager {
      * @return Whether it is implemented.
      */
     public boolean isImplemented(ReferenceInfo method) {
-        Boolean b = implementedCache.get(method);
-        if (b != null)
-            return b;
+        return isImplemented(referenceTable.intern(method));
+    }
 
-        implementedCache.put(method, b = isImplemented0(method));
-        return b;
+    /**
+     * Check whether the method with the given reference ID
+     * is implemented for it's owning abstraction.
+     *
+     * @param id The reference ID.
+     * @return Whether it is implemented.
+     */
+    public boolean isImplemented(int id) {
+        AbstractionMetrics metrics = this.metrics;
+        int state = implementedCache.get(id);
+        if (state != IMPL_UNKNOWN) {
+            if (metrics != null) metrics.implementedCacheHit();
+            return state == IMPL_TRUE;
+        }
+
+        // dont overwrite a state set concurrently
+        if (metrics != null) metrics.implementedCacheMiss();
+        state = isImplemented0(referenceTable.get(id)) ? IMPL_TRUE : IMPL_FALSE;
+        int prev = implementedCache.setIfAbsent(id, state);
+        return (prev != IMPL_UNKNOWN ? prev : state) == IMPL_TRUE;
     }
 
     /**
@@ -207,7 +763,318 @@ public class AbstractionManager {
      * @param b The status.
      */
     public void setImplemented(ReferenceInfo info, boolean b) {
-        implementedCache.put(info, b);
+        int id = referenceTable.intern(info);
+        int state = b ? IMPL_TRUE : IMPL_FALSE;
+        int prev = implementedCache.get(id);
+        implementedCache.set(id, state);
+        implementedOverrides.put(info, b);
+        environmentFingerprint = null;
+
+        if (prev != state)
+            stateChanged(id);
+    }
+
+    // Recompute the cached implementation state of all references
+    // owned by the given abstraction after it's implementation changed,
+    // and mark the classes depending on changed states for retransformation
+    private void implementationChanged(Class<?> baseClass) {
+        String baseName = Type.getInternalName(baseClass);
+        for (int id = 0, n = referenceTable.size(); id < n; id++) {
+            int state = implementedCache.get(id);
+            if (state == IMPL_UNKNOWN && dependentClasses.get(id) == null)
+                continue; // nothing decided based on this reference yet
+            ReferenceInfo ref = referenceTable.get(id);
+            if (implementedOverrides.containsKey(ref))
+                continue;
+
+            if (!hierarchyIndex.isSubtypeOf(ref.ownerInternalName(), baseName))
+                continue;
+
+            int newState = isImplemented0(ref) ? IMPL_TRUE : IMPL_FALSE;
+            implementedCache.set(id, newState);
+
+            // devirtualized calls are bound to the implementation class
+            if (newState != state)
+                stateChanged(id);
+            else if (devirtualizeCalls)
+                markDependentsChanged(id);
+        }
+    }
+
+    // Called when the implementation state of the given reference changed,
+    // invalidates the guards of linked call sites and marks the dependent classes
+    private void stateChanged(int id) {
+        markDependentsChanged(id);
+
+        SwitchPoint switchPoint = switchPoints.get(id);
+        if (switchPoint != null) {
+            switchPoints.set(id, null);
+            SwitchPoint.invalidateAll(new SwitchPoint[] { switchPoint });
+        }
+    }
+
+    /**
+     * Get the switch point which is invalidated once the implementation state of
+     * the reference with the given ID changes. A new switch point is created for
+     * the reference after every invalidation.
+     *
+     * @param id The reference ID.
+     * @return The switch point.
+     */
+    public SwitchPoint getSwitchPoint(int id) {
+        SwitchPoint switchPoint = switchPoints.get(id);
+        if (switchPoint != null)
+            return switchPoint;
+        switchPoint = new SwitchPoint();
+        SwitchPoint prev = switchPoints.setIfAbsent(id, switchPoint);
+        return prev != null ? prev : switchPoint;
+    }
+
+    // Mark the classes depending on the implementation state
+    // of the given reference for retransformation
+    private void markDependentsChanged(int id) {
+        Set<String> classNames = dependentClasses.get(id);
+        if (classNames != null)
+            pendingRetransform.addAll(classNames);
+    }
+
+    // Record that the transformed bytes of the given class depend
+    // on the implementation state of all of it's dependencies
+    private void indexDependents(String publicName, ClassDependencyAnalyzer.ClassAnalysis classAnalysis) {
+        forEachDependency(classAnalysis, ref -> indexDependent(publicName, ref));
+    }
+
+    // Remove the given class from the dependents of all of it's dependencies
+    private void unindexDependents(String publicName, ClassDependencyAnalyzer.ClassAnalysis classAnalysis) {
+        forEachDependency(classAnalysis, ref -> {
+            int id = referenceTable.find(ref);
+            Set<String> classNames = id != -1 ? dependentClasses.get(id) : null;
+            if (classNames != null)
+                classNames.remove(publicName);
+        });
+    }
+
+    // Call the given consumer with every reference the transformed
+    // bytes of the class with the given analysis depend on
+    private static void forEachDependency(ClassDependencyAnalyzer.ClassAnalysis classAnalysis, Consumer<ReferenceInfo> consumer) {
+        for (MethodDependency dependency : classAnalysis.dependencies)
+            consumer.accept(dependency.info());
+        for (OneOfDependency dependency : classAnalysis.switchDependencies) {
+            for (MethodDependency d : dependency.dependencies()) consumer.accept(d.info());
+            for (MethodDependency d : dependency.optionalDependencies()) consumer.accept(d.info());
+        }
+    }
+
+    private void indexDependent(String publicName, ReferenceInfo ref) {
+        int id = referenceTable.intern(ref);
+        Set<String> classNames = dependentClasses.get(id);
+        if (classNames == null) {
+            Set<String> newSet = ConcurrentHashMap.newKeySet();
+            classNames = dependentClasses.setIfAbsent(id, newSet);
+            if (classNames == null)
+                classNames = newSet;
+        }
+
+        classNames.add(publicName);
+    }
+
+    /**
+     * Get the names of the classes whose transformed bytes depend
+     * on the implementation state of the given reference.
+     *
+     * @param ref The reference.
+     * @return The class names.
+     */
+    public Set<String> getDependentClasses(ReferenceInfo ref) {
+        int id = referenceTable.find(ref);
+        Set<String> classNames = id != -1 ? dependentClasses.get(id) : null;
+        return classNames != null ? Collections.unmodifiableSet(classNames) : Set.of();
+    }
+
+    /**
+     * Get the names of the classes affected by implementation
+     * changes which were not applied yet.
+     *
+     * @return The class names.
+     */
+    public Set<String> getPendingRetransforms() {
+        return Collections.unmodifiableSet(pendingRetransform);
+    }
+
+    /**
+     * Retransform the classes affected by the implementation changes made through
+     * {@link #registerImpl(Class)} or {@link #setImplemented(ReferenceInfo, boolean)}
+     * since the last call. Only the affected classes are analyzed again.
+     *
+     * If an {@link Instrumentation} is set, the loaded affected classes are redefined
+     * in place. Otherwise a new generation of the transforming class loader is created,
+     * see {@link #newLoaderGeneration()}, and the classes have to be obtained through
+     * {@link #findClass(String)} again.
+     *
+     * @return The names of the affected classes.
+     */
+    public Set<String> applyImplementationChanges() {
+        Set<String> classNames = new HashSet<>(pendingRetransform);
+        pendingRetransform.removeAll(classNames);
+        if (classNames.isEmpty())
+            return classNames;
+
+        // the analysis is redone with the new implementation states
+        for (String className : classNames)
+            evictClass(className);
+
+        Instrumentation instrumentation = this.instrumentation;
+        if (instrumentation != null) {
+            redefineClasses(instrumentation, classNames);
+        } else {
+            newLoaderGeneration();
+        }
+
+        return classNames;
+    }
+
+    // Redefine the loaded classes with the given names from their original bytes,
+    // those kept when they were transformed or otherwise their class files
+    private void redefineClasses(Instrumentation instrumentation, Set<String> classNames) {
+        List<ClassDefinition> definitions = new ArrayList<>();
+        for (Class<?> klass : instrumentation.getAllLoadedClasses()) {
+            ClassLoader loader = klass.getClassLoader();
+            if (loader == null || !classNames.contains(klass.getName()))
+                continue;
+
+            try {
+                byte[] bytes = originalBytes.get(klass.getName());
+                if (bytes == null)
+                    bytes = getClassFile(klass).bytes();
+                definitions.add(new ClassDefinition(klass, transformClass(klass.getName(), bytes, loader)));
+            } catch (Exception e) {
+                throw new RuntimeException("Error while retransforming class " + klass.getName(), e);
+            }
+        }
+
+        try {
+            instrumentation.redefineClasses(definitions.toArray(new ClassDefinition[0]));
+        } catch (ClassNotFoundException | UnmodifiableClassException | UnsupportedOperationException e) {
+            throw new RuntimeException("Error while redefining " + definitions.size() + " classes", e);
+        }
+    }
+
+    /**
+     * Replace the transforming class loader with a new generation, which defines
+     * classes with the current implementation states. Classes defined by previous
+     * generations are left untouched and have to be found through
+     * {@link #findClass(String)} again to use the new definitions.
+     *
+     * Unless the transformed bytes are retained, see {@link #setRetainTransformedBytes(boolean)},
+     * every class has to be analyzed again as it's class tree has been released.
+     *
+     * @return The new transforming class loader.
+     */
+    public ClassLoader newLoaderGeneration() {
+        analysisLock.lock();
+        try {
+            if (!retainTransformedBytes && releaseClassTrees) {
+                for (String className : new ArrayList<>(analyzerMap.keySet())) {
+                    evictClass(className);
+                }
+            }
+
+            ClassLoader prevLoader = transformingClassLoader;
+            ClassLoader loader = createTransformingClassLoader(true);
+            if (resourceLoader == prevLoader)
+                resourceLoader = loader;
+            transformingClassLoader = loader;
+            loaderGeneration++;
+            return loader;
+        } finally {
+            analysisLock.unlock();
+        }
+    }
+
+    // Get the original class file of the given loaded class, through the class
+    // file source if it was loaded by a loader whose resources it reads
+    ClassFileSource.ClassFile getClassFile(Class<?> klass) {
+        ClassLoader loader = klass.getClassLoader();
+        if (loader == getResourceLoader() || loader == parentLoader) {
+            var file = classFileSource.get(klass.getName().replace('.', '/'));
+            if (file != null)
+                return file;
+        }
+
+        return ClassFileSource.ClassFile.of(klass.getName().replace('.', '/'), ReflectUtil.getBytes(klass));
+    }
+
+    /**
+     * Check whether the given class was transformed for the loader which defined
+     * it, see {@link #transformClass(String, byte[], ClassLoader)}.
+     *
+     * @param klass The class.
+     * @return Whether it was transformed in place.
+     */
+    public boolean isTransformedInPlace(Class<?> klass) {
+        ClassLoader loader = klass.getClassLoader();
+        DefiningLoader definingLoader = loader != null ? definingLoaders.get(loader) : null;
+        return definingLoader != null && definingLoader.classNames.contains(klass.getName());
+    }
+
+    /**
+     * Get and forget the classes resolved through {@link #resolveClass(String)} by the
+     * in place transformations on this thread since the last call, see
+     * {@link #transformClass(String, byte[], ClassLoader)}. Classes loaded in the middle of a class file transformation are not transformed
+     * by the JVM, so those among them which were not transformed before have to be
+     * redefined once it finished.
+     *
+     * @return The resolved classes.
+     */
+    public List<Class<?>> takeClassesResolvedInPlace() {
+        Set<Class<?>> classes = classesResolvedInPlace.get();
+        List<Class<?>> list = new ArrayList<>(classes);
+        classes.clear();
+        return list;
+    }
+
+    /**
+     * Get the class file source, which reads and shares the class
+     * files of the classes analyzed and defined by this manager.
+     */
+    public ClassFileSource getClassFileSource() {
+        return classFileSource;
+    }
+
+    /**
+     * Set the class path index class files are looked up in before the
+     * resources of the transforming class loader. It has to cover the class
+     * path of the parent loader, as the first class file found is used.
+     *
+     * @param classpathIndex The index or null to disable.
+     * @return This.
+     */
+    public AbstractionManager setClasspathIndex(ClasspathIndex classpathIndex) {
+        classFileSource.setClasspathIndex(classpathIndex);
+        return this;
+    }
+
+    /**
+     * Set the cache the implementation independent structure of each class
+     * is shared through, by default shared with every other manager in this
+     * JVM, so classes analyzed by multiple managers only have to be
+     * specialized for each of them.
+     *
+     * @param structureCache The cache or null to compute it for every class.
+     * @return This.
+     */
+    public AbstractionManager setStructureCache(ClassStructureCache structureCache) {
+        this.structureCache = structureCache;
+        return this;
+    }
+
+    public ClassStructureCache getStructureCache() {
+        return structureCache;
+    }
+
+    /** Whether any hook requires the compute stack, see {@link DependencyAnalysisHook#requiresComputeStack()}. */
+    public boolean isComputeStackRequired() {
+        return analysisHooks.isComputeStackRequired();
     }
 
     /**
@@ -226,7 +1093,8 @@ public class AbstractionManager {
         try {
             className = className.replace('.', '/');
 
-            if (ignoreLoadedClasses && ReflectUtil.findLoadedClass(transformingClassLoader, publicName) != null) {
+            ClassLoader loader = getResourceLoader();
+            if (ignoreLoadedClasses && ReflectUtil.findLoadedClass(loader, publicName) != null) {
                 return null;
             }
 
@@ -234,41 +1102,548 @@ public class AbstractionManager {
                 return null;
             }
 
-            // open resource
-            String classAsPath = className + ".class";
-            try (InputStream stream = transformingClassLoader.getResourceAsStream(classAsPath)) {
-                if (stream == null)
-                    throw new IllegalArgumentException("Could not find resource stream for " + classAsPath);
-                byte[] bytes = stream.readAllBytes();
+            // the loader defining the class later reuses the same file
+            var file = classFileSource.get(className);
+            if (file == null)
+                throw new IllegalArgumentException("Could not find resource stream for " + className + ".class");
+            return analyzer(publicName, file.bytes(), file.reader());
+        } catch (Exception e) {
+            throw new RuntimeException("Error while creating MethodDependencyAnalyzer for class " + className, e);
+        }
+    }
+
+    // Get or create and register the analyzer for the given class from
+    // the given reader, if another thread registered one first use that instead
+    private ClassDependencyAnalyzer analyzer(String publicName, byte[] bytes, ClassReader reader) {
+        ClassDependencyAnalyzer analyzer = analyzerMap.get(publicName);
+        if (analyzer != null)
+            return analyzer;
+
+        // only specialize the structure if another
+        // manager already analyzed the same class file
+        ClassStructureCache structureCache = this.structureCache;
+        ClassStructure structure = structureCache != null ? structureCache.find(reader.getClassName(), bytes) : null;
+        analyzer = new ClassDependencyAnalyzer(this, bytes, reader, structure);
+        if (structure == null && structureCache != null)
+            structureCache.put(bytes, analyzer.getStructure());
+        analyzer.setHooks(this.analysisHooks);
+        ClassDependencyAnalyzer prev = analyzerMap.putIfAbsent(publicName, analyzer);
+        return prev != null ? prev : analyzer;
+    }
+
+    /**
+     * Analyze and transform the given class, finding the classes it
+     * references through the given loader instead of the default one.
+     *
+     * @param name The class name.
+     * @param bytes The original class bytes.
+     * @param resourceLoader The loader to find referenced classes with, or null for the default.
+     * @return The transformed class bytes.
+     */
+    public byte[] transformClass(String name, byte[] bytes, ClassLoader resourceLoader) {
+        ClassLoader prevLoader = currentResourceLoader.get();
+        currentResourceLoader.set(resourceLoader);
+        try {
+            byte[] result = transformClass(name, bytes);
+
+            // remember the loader to evict the analysis once it is unloaded
+            if (resourceLoader != null && resourceLoader != transformingClassLoader) {
+                String publicName = name.replace('/', '.');
+                definingLoaders.computeIfAbsent(resourceLoader, l -> new DefiningLoader(l, unloadedLoaders))
+                        .classNames.add(publicName);
+
+                // the class may be redefined in place once an implementation
+                // changes, which has to start from the bytes it was defined from
+                if (instrumentation != null && result != bytes)
+                    originalBytes.put(publicName, bytes);
+            }
+
+            return result;
+        } finally {
+            currentResourceLoader.set(prevLoader);
+        }
+    }
+
+    /**
+     * Analyze and transform the given class, using the transform
+     * cache if one is set. Classes not matching the audit predicate
+     * are returned unchanged.
+     *
+     * @param name The class name.
+     * @param bytes The original class bytes.
+     * @return The transformed class bytes.
+     */
+    public byte[] transformClass(String name, byte[] bytes) {
+        evictUnloadedClasses();
+        String publicName = name.replace('/', '.');
+        if (!classAuditPredicate.test(publicName))
+            return bytes;
+
+        // only time the transformation if anyone is listening
+        AbstractionMetrics metrics = this.metrics;
+        TransformEvent event = new TransformEvent();
+        if (metrics == null && !event.isEnabled())
+            return transformClass0(publicName, bytes, null);
+
+        AbstractionMetrics.Timer timer = new AbstractionMetrics.Timer();
+        event.begin();
+        byte[] transformed = transformClass0(publicName, bytes, timer);
+        event.end();
+
+        if (metrics != null)
+            metrics.recordTransform(publicName, timer);
+        if (event.shouldCommit()) {
+            event.managerId = id;
+            event.className = publicName;
+            event.outcome = timer.outcome.name();
+            event.parseTime = timer.parseNanos;
+            event.analyzeTime = timer.analyzeNanos;
+            event.writeTime = timer.writeNanos;
+            event.commit();
+        }
+
+        return transformed;
+    }
+
+    // Transform the given audited class, recording
+    // the timings to the given timer if not null
+    private byte[] transformClass0(String publicName, byte[] bytes, AbstractionMetrics.Timer timer) {
+        // a new loader generation defining a class which was not affected
+        boolean retain = retainTransformedBytes && currentResourceLoader.get() == null;
+        if (retain) {
+            byte[] retained = retainedBytes.get(publicName);
+            if (retained != null) {
+                if (timer != null) timer.outcome = AbstractionMetrics.Outcome.RETAINED;
+                return retained;
+            }
+        }
+
+        // analyzers are kept by class name, a class analyzed through references
+        // from other bytes, like those of another class loader defining the same
+        // class, is analyzed again from it's own bytes, replacing the analysis.
+        // The same goes for a class defined again after it's tree was released
+        var existing = analyzerMap.get(publicName);
+        if (existing != null && !existing.isReadFrom(bytes)) {
+            evictClass(publicName);
+            if (timer != null) timer.outcome = AbstractionMetrics.Outcome.REANALYZED;
+        }
+
+        // classes which can not reference anything relevant
+        // are defined from their original bytes
+        long t = timer != null ? System.nanoTime() : 0;
+        String internalName = publicName.replace('.', '/');
+        var file = classFileSource.find(internalName, bytes);
+        classFileSource.evict(internalName); // the class is being defined now
+        ClassReader reader = file != null ? file.reader() : new ClassReader(bytes);
+        hierarchyIndex.register(reader);
+        if (preFilterEnabled && !mayReferenceDependencies(reader)) {
+            markIrrelevant(publicName, reader);
+            if (timer != null) {
+                timer.outcome = AbstractionMetrics.Outcome.FILTERED;
+                timer.parseNanos = System.nanoTime() - t;
+            }
+
+            return bytes;
+        }
+
+        // check the transform cache, only if this class has not
+        // been partially analyzed through other classes already
+        ClassTransformCache transformCache = this.transformCache;
+        String cacheKey = null;
+        if (transformCache != null && !analyzerMap.containsKey(publicName)) {
+            cacheKey = transformCache.key(bytes, getEnvironmentFingerprint());
+            var cached = transformCache.load(cacheKey);
+            if (cached != null && reachedClassesUnchanged(cached)) {
+                analysisLock.lock();
+                try {
+                    // recheck, another thread could have started
+                    // analyzing this class through a reference
+                    if (!analyzerMap.containsKey(publicName)) {
+                        restoreAnalysis(cached);
+                        if (retain)
+                            retainedBytes.put(publicName, cached.transformedBytes());
+                        if (timer != null) {
+                            timer.outcome = AbstractionMetrics.Outcome.CACHED;
+                            timer.parseNanos = System.nanoTime() - t;
+                        }
+
+                        return cached.transformedBytes();
+                    }
+                } finally {
+                    analysisLock.unlock();
+                }
+            }
+        }
 
-                ClassReader reader = new ClassReader(bytes);
+        // parse outside of the lock, then analyze the
+        // class, the graph may only be mutated by one thread
+        var analyzer = analyzer(publicName, bytes, reader);
+        if (timer != null) {
+            long now = System.nanoTime();
+            timer.parseNanos = now - t;
+            t = now;
+        }
+
+        if (!analyzer.getClassAnalysis().completed) {
+            analysisLock.lock();
+            try {
+                if (!analyzer.getClassAnalysis().completed)
+                    analyzer.analyzeAndTransform();
+                indexDependents(publicName, analyzer.getClassAnalysis());
+            } finally {
+                analysisLock.unlock();
+            }
+        }
+
+        if (timer != null) {
+            long now = System.nanoTime();
+            timer.analyzeNanos = now - t;
+            t = now;
+        }
+
+        // once the class analysis is complete the tree is no longer
+        // mutated, so it can be written outside of the analysis lock
+        byte[] transformed;
+        synchronized (analyzer) {
+            var classNode = analyzer.getClassNode();
+            if (classNode == null) {
+                // another thread defining the same class wrote and released
+                // the tree first, never define the untransformed bytes
+                analysisLock.lock();
+                try {
+                    if (analyzerMap.get(publicName) == analyzer)
+                        evictClass(publicName);
+                } finally {
+                    analysisLock.unlock();
+                }
+
+                return transformClass0(publicName, bytes, timer);
+            }
+
+            transformed = writeClass(analyzer, classNode);
+            if (timer != null) timer.writeNanos = System.nanoTime() - t;
+
+            // only the analysis results are needed from now on
+            if (releaseClassTrees) {
+                analysisLock.lock();
+                try {
+                    analyzer.releaseClassTree();
+                } finally {
+                    analysisLock.unlock();
+                }
+            }
+        }
+
+        if (retain)
+            retainedBytes.put(publicName, transformed);
+        if (cacheKey != null) {
+            ClassTransformCache.CachedClass entry;
+            analysisLock.lock();
+            try {
+                entry = ClassTransformCache.CachedClass.of(publicName, transformed, analyzer.getClassAnalysis(),
+                        hashReachedClasses(internalName, analyzer.getClassAnalysis()));
+            } finally {
+                analysisLock.unlock();
+            }
+
+            transformCache.store(cacheKey, entry);
+        }
 
-                // create and register analyzer
-                analyzer = new ClassDependencyAnalyzer(this, reader);
+        analyzer.getClassAnalysis().referenceEvents = null; // only needed for the cache entry
+
+        return transformed;
+    }
+
+    // Write the given transformed class tree, computing stack map frames only for
+    // the methods the transformation changed, the others keep their original frames
+    private byte[] writeClass(ClassDependencyAnalyzer analyzer, ClassNode classNode) {
+        if (!preserveFrames || (classNode.version & 0xFFFF) < Opcodes.V1_7) {
+            ClassWriter writer = hierarchyIndex.newClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            classNode.accept(writer);
+            return writer.toByteArray();
+        }
+
+        List<MethodNode> changed = new ArrayList<>();
+        for (MethodNode method : classNode.methods)
+            if (analyzer.isMethodChanged(method))
+                changed.add(method);
+
+        if (!changed.isEmpty()) {
+            // write only the changed methods into a class with the same
+            // header to compute their frames, then read them back
+            ClassWriter frameWriter = hierarchyIndex.newClassWriter(ClassWriter.COMPUTE_FRAMES);
+            frameWriter.visit(classNode.version, classNode.access, classNode.name, null, classNode.superName,
+                    classNode.interfaces.toArray(new String[0]));
+            for (MethodNode method : changed)
+                method.accept(frameWriter);
+            frameWriter.visitEnd();
+
+            ClassNode computed = new ClassNode(ASMUtil.ASM_V);
+            new ClassReader(frameWriter.toByteArray()).accept(computed, 0);
+            for (int i = 0; i < changed.size(); i++)
+                classNode.methods.set(classNode.methods.indexOf(changed.get(i)), computed.methods.get(i));
+        }
+
+        ClassWriter writer = new ClassWriter(0);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Quickly check whether the given class could reference anything relevant
+     * to the dependency analysis by scanning only it's constant pool. This is the
+     * case if it references {@link Usage}, a dependency candidate or a member any
+     * hook requires to be analyzed.
+     *
+     * @param reader The class reader.
+     * @return False if the class definitely does not need to be analyzed.
+     */
+    public boolean mayReferenceDependencies(ClassReader reader) {
+        final AnalysisContext context = new AnalysisContext(this);
+        return ConstantPoolFilter.anyMemberRef(reader, (isField, owner, name, descriptor) -> {
+            if (NAME_Usage.equals(owner))
+                return true;
+            if (owner.startsWith("["))
+                return false; // array methods like clone()
+
+            ReferenceInfo ref = isField ?
+                    ReferenceInfo.forFieldInfo(owner, name, descriptor, false) :
+                    ReferenceInfo.forMethodInfo(owner, name, descriptor, false);
+            if (partialAnalyzer.isDependencyReference(context, ref))
+                return true;
+            var hooks = analysisHooks.get(DependencyAnalysisHook.Event.REQUIRES_ANALYSIS, owner);
+            AbstractionMetrics metrics = this.metrics;
+            if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.REQUIRES_ANALYSIS, hooks.length);
+            for (var hook : hooks)
+                if (hook.requiresAnalysis(ref))
+                    return true;
+            return false;
+        });
+    }
+
+    // Register an empty completed analysis for a class rejected by the
+    // pre-filter, or complete the analyzer created if it was already
+    // referenced by another class, which can not have changed anything.
+    // The calls of it's methods are recorded, as the methods they call
+    // can still reference dependencies
+    private void markIrrelevant(String publicName, ClassReader reader) {
+        analysisLock.lock();
+        try {
+            var analyzer = analyzerMap.get(publicName);
+            if (analyzer == null) {
+                var classAnalysis = new ClassDependencyAnalyzer.ClassAnalysis();
+                classAnalysis.completed = true;
+                analyzer = new ClassDependencyAnalyzer(this, publicName.replace('.', '/'), classAnalysis);
+                analyzer.setHooks(this.analysisHooks);
+                analyzer.recordCallEdges(reader);
                 analyzerMap.put(publicName, analyzer);
+            } else {
+                analyzer.getClassAnalysis().completed = true;
+            }
+        } finally {
+            analysisLock.unlock();
+        }
+    }
+
+    /**
+     * Drop the analyzer and analysis results of the given class, for example
+     * because it was unloaded. Analyses of other classes which referenced it
+     * keep the results they already use.
+     *
+     * @param className The class name.
+     * @return Whether an analyzer was present.
+     */
+    public boolean evictClass(String className) {
+        String publicName = className.replace('/', '.');
+        analysisLock.lock();
+        try {
+            retainedBytes.remove(publicName);
+            classFileSource.evict(publicName.replace('.', '/'));
+            hierarchyIndex.evict(publicName.replace('.', '/'));
+            var analyzer = analyzerMap.remove(publicName);
+            if (analyzer == null)
+                return false;
 
-                analyzer.hooks.addAll(this.analysisHooks);
+            unindexDependents(publicName, analyzer.getClassAnalysis());
 
-                return analyzer;
+            for (var analysis : analyzer.getClassAnalysis().analyzedMethods.values()) {
+                int id = referenceTable.find(analysis.ref);
+                if (id != -1 && refAnalysisById.get(id) == analysis)
+                    refAnalysisById.set(id, null);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Error while creating MethodDependencyAnalyzer for class " + className, e);
+
+            return true;
+        } finally {
+            analysisLock.unlock();
         }
     }
 
+    /**
+     * Evict the analysis of all classes transformed for class
+     * loaders which have been garbage collected since.
+     *
+     * @return The amount of classes evicted.
+     */
+    public int evictUnloadedClasses() {
+        int count = 0;
+        Reference<? extends ClassLoader> ref;
+        while ((ref = unloadedLoaders.poll()) != null) {
+            for (String className : ((DefiningLoader) ref).classNames) {
+                originalBytes.remove(className);
+                if (evictClass(className)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    // Hash the class files of the audited classes reachable from the methods of
+    // the given class or referenced by its events, the analysis lock must be held
+    private Map<String, String> hashReachedClasses(String internalName, ClassDependencyAnalyzer.ClassAnalysis classAnalysis) {
+        Set<String> owners = new HashSet<>();
+        Set<ClassDependencyAnalyzer.ReferenceAnalysis> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<ClassDependencyAnalyzer.ReferenceAnalysis> stack = new ArrayDeque<>(classAnalysis.analyzedMethods.values());
+        while (!stack.isEmpty()) {
+            var analysis = stack.pop();
+            if (!visited.add(analysis))
+                continue;
+            owners.add(analysis.ref.ownerInternalName());
+            for (var child : analysis.allAnalyzedReferences)
+                if (child != null) stack.push(child);
+        }
+
+        if (classAnalysis.referenceEvents != null)
+            for (var event : classAnalysis.referenceEvents)
+                owners.add(event.ref().ownerInternalName());
+
+        Map<String, String> hashes = new TreeMap<>();
+        for (String owner : owners)
+            if (!owner.equals(internalName) && classAuditPredicate.test(owner.replace('/', '.')))
+                hashes.put(owner, hashClassFile(owner));
+        return hashes;
+    }
+
+    // Hash the current class file of the given class, empty if not found
+    private String hashClassFile(String internalName) {
+        byte[] bytes = classFileSource.peek(internalName);
+        return bytes != null ? ClassTransformCache.hash(bytes) : "";
+    }
+
+    // Check whether the class files of all classes reached by the analysis of the cached class are unchanged
+    private boolean reachedClassesUnchanged(ClassTransformCache.CachedClass cached) {
+        for (var e : cached.classHashes().entrySet())
+            if (!e.getValue().equals(hashClassFile(e.getKey())))
+                return false;
+        return true;
+    }
+
+    // Register an analyzer with the analysis results of a cached class, link the
+    // methods it references and fire the reference events of it's analysis again
+    private void restoreAnalysis(ClassTransformCache.CachedClass cached) {
+        var classAnalysis = new ClassDependencyAnalyzer.ClassAnalysis();
+        var analyzer = new ClassDependencyAnalyzer(this, cached.className().replace('.', '/'), classAnalysis);
+        analyzer.setHooks(this.analysisHooks);
+
+        classAnalysis.dependencies.addAll(cached.dependencies());
+        classAnalysis.switchDependencies.addAll(cached.switchDependencies());
+        for (var method : cached.methods()) {
+            var analysis = new ClassDependencyAnalyzer.ReferenceAnalysis(analyzer, method.ref());
+            for (ReferenceInfo dependency : method.requiredDependencies())
+                analysis.requiredDependencies.add(dependency);
+            analysis.complete = true;
+            classAnalysis.analyzedMethods.put(method.ref(), analysis);
+            registerAnalysis(analysis);
+        }
+
+        classAnalysis.completed = true;
+        analyzerMap.put(cached.className(), analyzer);
+
+        // the referenced methods of other classes are analyzed
+        // like when the class itself was, in the same order
+        AnalysisContext context = new AnalysisContext(this);
+        for (var method : cached.methods()) {
+            var analysis = classAnalysis.analyzedMethods.get(method.ref());
+            for (ReferenceInfo ref : method.references()) {
+                var referenced = analyzer.publicReference(context, ref);
+                if (referenced != null)
+                    analysis.registerReference(referenced);
+            }
+        }
+
+        for (var event : cached.events()) {
+            var analysis = analyzer.publicReference(context, event.ref());
+            if (analysis != null)
+                event.kind().fire(context, analysis);
+        }
+
+        indexDependents(cached.className(), classAnalysis);
+    }
+
     public ClassDependencyAnalyzer analyzer(Class<?> klass) {
         return analyzer(klass.getName(), false);
     }
 
     public ClassDependencyAnalyzer.ReferenceAnalysis getMethodAnalysis(ReferenceInfo info) {
-        return refAnalysisMap.get(info);
+        int id = referenceTable.find(info);
+        return id != -1 ? refAnalysisById.get(id) : null;
+    }
+
+    public ClassDependencyAnalyzer.ReferenceAnalysis getMethodAnalysis(int id) {
+        return refAnalysisById.get(id);
     }
 
     public ClassDependencyAnalyzer.ReferenceAnalysis registerAnalysis(ClassDependencyAnalyzer.ReferenceAnalysis analysis) {
-        refAnalysisMap.put(analysis.ref, analysis);
+        int id = referenceTable.intern(analysis.ref);
+        AbstractionMetrics metrics = this.metrics;
+        if (metrics != null && refAnalysisById.get(id) == null)
+            metrics.referenceAnalysisRegistered();
+        refAnalysisById.set(id, analysis);
         return analysis;
     }
 
+    private void partialAnalysisCreated() {
+        AbstractionMetrics metrics = this.metrics;
+        if (metrics != null) metrics.partialAnalysisCreated();
+    }
+
+    public ReferenceTable getReferenceTable() {
+        return referenceTable;
+    }
+
+    public ClassHierarchyIndex getHierarchyIndex() {
+        return hierarchyIndex;
+    }
+
+    /**
+     * Find a class which is not transformed by this manager, like an abstraction
+     * or implementation, through the parent of the transforming class loader.
+     *
+     * @param name The class name.
+     * @return The class.
+     * @throws IllegalArgumentException If the class could not be found.
+     */
+    public Class<?> resolveClass(String name) {
+        Class<?> klass;
+        if (parentLoader == ReflectUtil.class.getClassLoader()) {
+            // share the cache of classes on the class path
+            klass = ReflectUtil.getClass(name);
+        } else {
+            try {
+                klass = Class.forName(name, false, parentLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new IllegalArgumentException("No class by name '" + name + "' in " + parentLoader, e);
+            }
+        }
+
+        // the class may have been loaded by this call
+        // in the middle of an in place transformation
+        if (currentResourceLoader.get() != null)
+            classesResolvedInPlace.get().add(klass);
+        return klass;
+    }
+
     /**
      * Find/load a class using the transforming class loader
      * of this abstraction manager.
@@ -299,19 +1674,24 @@ public class AbstractionManager {
             analysis = new ClassDependencyAnalyzer.ReferenceAnalysis(partialAnalyzer, info);
             analysis.partial = true;
             analysis.complete = true;
-            refAnalysisMap.put(info, analysis);
+            partialAnalysisCreated();
+            registerAnalysis(analysis);
             return analysis;
         }
 
-        // analyze through owner class
+        // analyze through owner class, classes which were restored
+        // or skipped by the pre-filter have no bytecode to analyze
         ClassDependencyAnalyzer analyzer = this.analyzer(info.ownerInternalName(), true);
-        if (analyzer == null) {
+        if (analyzer == null || analyzer.getClassNode() == null) {
             if (analysis != null)
                 return analysis;
+            if (analyzer != null && (analysis = analyzer.localMethod(context, info)) != null)
+                return analysis; // through the call edges of a filtered class
             analysis = new ClassDependencyAnalyzer.ReferenceAnalysis(partialAnalyzer, info);
             analysis.partial = true;
             analysis.complete = true;
-            refAnalysisMap.put(info, analysis);
+            partialAnalysisCreated();
+            registerAnalysis(analysis);
             return analysis;
         } else if (analysis != null && analysis.partial) {
             // use actual analyzer to replace partial analysis
@@ -349,31 +1729,32 @@ public class AbstractionManager {
     }
 
     public AbstractionManager addAnalysisHook(DependencyAnalysisHook hook) {
-        this.analysisHooks.add(hook);
-        this.partialAnalyzer.addHook(hook);
+        this.analysisHooks = analysisHooks.with(hook);
+        this.partialAnalyzer.setHooks(this.analysisHooks);
+        this.environmentFingerprint = null;
         return this;
     }
 
     /* ------------ Hooks -------------- */
 
-    public record ClassInheritanceChecker(Class<?> itf, Map<String, Boolean> cache) {
-        private static final Map<Class<?>, ClassInheritanceChecker> checkerCache = new HashMap<>();
+    // Checks whether classes are subtypes of the given interface through the class
+    // hierarchy index of the manager, which caches the results, without loading the
+    // checked classes. The classes are found through the loaders of the manager
+    public record ClassInheritanceChecker(Class<?> itf, String itfName) {
+        private static final ClassHierarchyIndex defaultIndex = new ClassHierarchyIndex(ReflectUtil.class.getClassLoader()); // Used without a manager
 
         public static ClassInheritanceChecker forClass(Class<?> itf) {
-            return checkerCache.computeIfAbsent(itf, __ -> new ClassInheritanceChecker(itf, new HashMap<>()));
+            return new ClassInheritanceChecker(itf, Type.getInternalName(itf));
         }
 
         public boolean from(String name) {
-            Boolean b = cache.get(name);
-            if (b != null)
-                return b;
+            return from(null, name);
+        }
 
-            try {
-                cache.put(name, b = itf.isAssignableFrom(ReflectUtil.getClass(name)));
-                return b;
-            } catch (Exception e) {
-                return false;
-            }
+        // Check the class through the hierarchy index of the given manager if not null
+        public boolean from(AbstractionManager manager, String name) {
+            ClassHierarchyIndex index = manager != null ? manager.hierarchyIndex : defaultIndex;
+            return index.isSubtypeOf(name.replace('.', '/'), itfName);
         }
     }
 
@@ -381,11 +1762,26 @@ public class AbstractionManager {
     public static DependencyAnalysisHook checkDependenciesForInterface(final Class<?> itf, boolean includeFields) {
         final ClassInheritanceChecker checker = ClassInheritanceChecker.forClass(itf);
         return new DependencyAnalysisHook() {
+            @Override
+            public Set<Event> events() {
+                return EnumSet.of(Event.IS_DEPENDENCY_CANDIDATE);
+            }
+
+            @Override
+            public boolean requiresComputeStack() {
+                return false;
+            }
+
+            @Override
+            public String fingerprint() {
+                return itf.getName() + " " + includeFields;
+            }
+
             @Override
             public Boolean isDependencyCandidate(AnalysisContext context, ReferenceInfo ref) {
                 if (!includeFields && ref.isField())
                     return null;
-                return checker.from(ref.ownerClassName()) ? true : null;
+                return checker.from(context != null ? context.abstractionManager() : null, ref.ownerClassName()) ? true : null;
             }
         };
     }
@@ -394,11 +1790,26 @@ public class AbstractionManager {
     public static DependencyAnalysisHook checkForExplicitImplementation(Class<?> unimplementedProvidingItf) {
         final ClassInheritanceChecker checker = ClassInheritanceChecker.forClass(unimplementedProvidingItf);
         return new DependencyAnalysisHook() {
-            final Map<Class<?>, DefaultImplAnalysis> defaultImplAnalysisCache = new HashMap<>(); // Cache for default implementation analysis per class
+            final Map<Class<?>, DefaultImplAnalysis> defaultImplAnalysisCache = new ConcurrentHashMap<>(); // Cache for default implementation analysis per class
+
+            @Override
+            public Set<Event> events() {
+                return EnumSet.of(Event.CHECK_IMPLEMENTED);
+            }
+
+            @Override
+            public boolean requiresComputeStack() {
+                return false;
+            }
+
+            @Override
+            public String fingerprint() {
+                return unimplementedProvidingItf.getName();
+            }
 
             // Check the bytecode of the owner of the given method
             // to see whether
-            private boolean checkBytecodeImplemented(Method method) {
+            private boolean checkBytecodeImplemented(AbstractionManager manager, Method method) {
                 ReferenceInfo methodInfo = ReferenceInfo.forMethod(method);
                 Class<?> klass = method.getDeclaringClass();
 
@@ -409,7 +1820,7 @@ public class AbstractionManager {
 
                 // analyze bytecode
                 final Set<ReferenceInfo> unimplementedMethods = new HashSet<>();
-                ReflectUtil.analyze(klass, new ClassVisitor(ASMUtil.ASM_V) {
+                manager.getClassFile(klass).reader().accept(new ClassVisitor(ASMUtil.ASM_V) {
                     @Override
                     public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
                         final ReferenceInfo currentMethod = ReferenceInfo.forMethodInfo(klass.getName(), name, descriptor, Modifier.isStatic(access));
@@ -417,13 +1828,13 @@ public class AbstractionManager {
                             @Override
                             public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
                                 // check for Abstraction#unimplemented call
-                                if (checker.from(owner.replace('/', '.')) && "unimplemented".equals(name) && descriptor.startsWith("()")) {
+                                if (checker.from(manager, owner.replace('/', '.')) && "unimplemented".equals(name) && descriptor.startsWith("()")) {
                                     unimplementedMethods.add(currentMethod);
                                 }
                             }
                         };
                     }
-                });
+                }, 0);
 
                 defaultImplAnalysisCache.put(klass, analysis = new DefaultImplAnalysis(unimplementedMethods));
                 return !unimplementedMethods.contains(methodInfo);
@@ -440,11 +1851,21 @@ public class AbstractionManager {
                     // object not implemented at all
                     return false;
 
-                // check ref declaration
-                Method m = implClass.getMethod(ref.name(), ASMUtil.asClasses(ref.type().getArgumentTypes()));
+                // check ref declaration, matched by descriptor
+                // so the parameter types are not loaded by name
+                Method m = null;
+                for (Method candidate : implClass.getMethods()) {
+                    if (candidate.getName().equals(ref.name()) && Type.getMethodDescriptor(candidate).equals(ref.desc())) {
+                        m = candidate;
+                        break;
+                    }
+                }
+
+                if (m == null)
+                    throw new NoSuchMethodException(implClass.getName() + "." + ref.name() + ref.desc());
 
                 if (m.getDeclaringClass() == refClass)
-                    return checkBytecodeImplemented(m);
+                    return checkBytecodeImplemented(manager, m);
                 if (m.getDeclaringClass().isInterface() && !m.isDefault())
                     return false;
                 return !Modifier.isAbstract(m.getModifiers());
@@ -455,6 +1876,16 @@ public class AbstractionManager {
     /** Checks static field dependencies for a not null value to determine if they're implemented */
     public static DependencyAnalysisHook checkStaticFieldsNotNull() {
         return new DependencyAnalysisHook() {
+            @Override
+            public Set<Event> events() {
+                return EnumSet.of(Event.CHECK_IMPLEMENTED);
+            }
+
+            @Override
+            public boolean requiresComputeStack() {
+                return false;
+            }
+
             @Override
             public Boolean checkImplemented(AbstractionManager manager, ReferenceInfo ref, Class<?> refClass) throws Throwable {
                 if (!ref.isField() || !ref.isStatic()) // nothing to say
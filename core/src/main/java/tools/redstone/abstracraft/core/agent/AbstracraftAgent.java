@@ -0,0 +1,271 @@
+package tools.redstone.abstracraft.core.agent;
+
+import org.objectweb.asm.ClassReader;
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook;
+import tools.redstone.abstracraft.core.cache.ClassTransformCache;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.util.ReflectUtil;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Path;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A Java agent which transforms classes in place as they are defined by
+ * their own class loaders, instead of loading them through the transforming
+ * class loader of the abstraction manager.
+ *
+ * The agent is configured through the agent argument string, a comma separated
+ * list of options:
+ * <pre>
+ *   impl=&lt;class&gt;          An implementation class to register, repeatable
+ *   hook=&lt;class&gt;          An additional DependencyAnalysisHook class to register, repeatable
+ *   audit=&lt;prefix&gt;        Only transform classes starting with the given prefix, repeatable
+ *   hookVersion=&lt;ver&gt;     The version of the hook set, see AbstractionManager#setHookSetVersion
+ *   cache=&lt;dir&gt;          Use the given directory as a persistent transform cache
+ *   configurer=&lt;class&gt;    An {@link Configurer} to configure the manager with, repeatable
+ * </pre>
+ *
+ * ASM and the abstracraft core have to be on the class path of the application.
+ *
+ * @author orbyfied
+ */
+public class AbstracraftAgent {
+
+    /**
+     * Configures the abstraction manager used by the agent,
+     * after the options from the agent arguments are applied.
+     */
+    public interface Configurer {
+        void configure(AbstractionManager manager) throws Exception;
+    }
+
+    // Packages which are never transformed by the agent
+    static final List<String> EXCLUDED_PACKAGES = List.of(
+            "java.", "javax.", "jdk.", "sun.", "com.sun.",
+            "org.objectweb.asm.", "tools.redstone.abstracraft.core.");
+
+    static volatile AbstractionManager abstractionManager; // The manager installed by premain or agentmain
+
+    /** Get the abstraction manager installed by the agent, or null if not running. */
+    public static AbstractionManager getAbstractionManager() {
+        return abstractionManager;
+    }
+
+    public static void premain(String args, Instrumentation instrumentation) throws Exception {
+        install(instrumentation, createManager(args));
+    }
+
+    public static void agentmain(String args, Instrumentation instrumentation) throws Exception {
+        install(instrumentation, createManager(args));
+    }
+
+    /**
+     * Create and configure an abstraction manager from the given agent arguments.
+     *
+     * @param args The agent argument string, may be null.
+     * @return The manager.
+     */
+    public static AbstractionManager createManager(String args) throws Exception {
+        List<String> impls = new ArrayList<>();
+        List<String> hooks = new ArrayList<>();
+        List<String> auditPrefixes = new ArrayList<>();
+        List<String> configurers = new ArrayList<>();
+        String hookVersion = "";
+        Path cacheDir = null;
+
+        if (args != null && !args.isBlank()) {
+            for (String option : args.split(",")) {
+                int idx = option.indexOf('=');
+                if (idx == -1)
+                    throw new IllegalArgumentException("Expected key=value in agent option '" + option + "'");
+                String value = option.substring(idx + 1).trim();
+                switch (option.substring(0, idx).trim()) {
+                    case "impl" -> impls.add(value);
+                    case "hook" -> hooks.add(value);
+                    case "audit" -> auditPrefixes.add(value);
+                    case "hookVersion" -> hookVersion = value;
+                    case "cache" -> cacheDir = Path.of(value);
+                    case "configurer" -> configurers.add(value);
+                    default -> throw new IllegalArgumentException("Unknown agent option '" + option + "'");
+                }
+            }
+        }
+
+        Predicate<String> auditPredicate = name -> EXCLUDED_PACKAGES.stream().noneMatch(name::startsWith);
+        if (!auditPrefixes.isEmpty())
+            auditPredicate = auditPredicate.and(name -> auditPrefixes.stream().anyMatch(name::startsWith));
+
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(auditPredicate)
+                .setResourceLoader(loader)
+                .setHookSetVersion(hookVersion)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class))
+                .addAnalysisHook(AbstractionManager.checkStaticFieldsNotNull());
+        for (String hook : hooks)
+            manager.addAnalysisHook((DependencyAnalysisHook) Class.forName(hook, true, loader).getConstructor().newInstance());
+        for (String impl : impls)
+            manager.registerImpl(Class.forName(impl, true, loader));
+        if (cacheDir != null)
+            manager.setTransformCache(new ClassTransformCache(cacheDir));
+        for (String configurer : configurers)
+            ((Configurer) Class.forName(configurer, true, loader).getConstructor().newInstance()).configure(manager);
+        return manager;
+    }
+
+    /**
+     * Register a class file transformer for the given manager, all classes
+     * defined afterwards which match its audit predicate are transformed.
+     *
+     * @param instrumentation The instrumentation instance.
+     * @param manager The abstraction manager.
+     * @return The registered transformer.
+     */
+    public static ClassFileTransformer install(Instrumentation instrumentation, AbstractionManager manager) {
+        ClassFileTransformer transformer = new Transformer(manager);
+        instrumentation.addTransformer(transformer);
+        if (instrumentation.isRedefineClassesSupported() && manager.getInstrumentation() == null)
+            manager.setInstrumentation(instrumentation); // to apply implementation changes in place
+        abstractionManager = manager;
+        return transformer;
+    }
+
+    /**
+     * The class file transformer which transforms classes
+     * in place through the abstraction manager.
+     *
+     * Classes loaded by the analysis of another class are defined untransformed, as the
+     * JVM does not call the transformer again in the middle of a transformation. If the
+     * manager has an {@link Instrumentation} those resolved through
+     * {@link AbstractionManager#resolveClass(String)} are transformed and redefined in
+     * place once the outer transformation finished, otherwise a warning is printed.
+     */
+    public static class Transformer implements ClassFileTransformer {
+        // Whether this thread is currently transforming a class, classes loaded
+        // by the analysis itself can not be analyzed in the middle of it
+        static final ThreadLocal<Boolean> transforming = ThreadLocal.withInitial(() -> false);
+
+        // A class defined untransformed during the transformation of another class
+        record DeferredClass(ClassLoader loader, String name, byte[] bytes) { }
+
+        // The classes passed to this transformer in the middle of a transformation on this
+        // thread, which the JVM only does if the transformer was registered by another agent
+        static final ThreadLocal<List<DeferredClass>> deferredClasses = ThreadLocal.withInitial(ArrayList::new);
+
+        final AbstractionManager manager;
+
+        public Transformer(AbstractionManager manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+            // hidden classes have no name, bootstrap classes are never audited
+            // and redefined classes were already transformed by the manager,
+            // see AbstractionManager#applyImplementationChanges
+            if (className == null || loader == null || classBeingRedefined != null)
+                return null;
+            String publicName = className.replace('/', '.');
+            if (!manager.getClassAuditPredicate().test(publicName))
+                return null;
+
+            if (transforming.get()) {
+                if (manager.getInstrumentation() != null) {
+                    deferredClasses.get().add(new DeferredClass(loader, publicName, classfileBuffer));
+                } else if (manager.mayReferenceDependencies(new ClassReader(classfileBuffer))) {
+                    System.err.println("WARNING Class " + publicName + " was loaded during the analysis of another class, skipping transformation");
+                }
+
+                return null;
+            }
+
+            transforming.set(true);
+            try {
+                byte[] bytes = manager.transformClass(publicName, classfileBuffer, loader);
+                return bytes == classfileBuffer ? null : bytes;
+            } catch (Throwable t) {
+                // exceptions thrown here are silently discarded by the JVM
+                System.err.println("WARNING Failed to transform class " + publicName + ": " + t);
+                t.printStackTrace();
+                return null;
+            } finally {
+                try {
+                    redefineDeferredClasses();
+                } finally {
+                    transforming.set(false);
+                }
+            }
+        }
+
+        // Transform the classes loaded by the finished transformation and redefine
+        // them in place, the classes loaded by their analysis are redefined as well
+        private void redefineDeferredClasses() {
+            List<DeferredClass> deferred = deferredClasses.get();
+            while (true) {
+                Map<Class<?>, byte[]> classes = new LinkedHashMap<>();
+                for (Class<?> klass : manager.takeClassesResolvedInPlace())
+                    if (klass.getClassLoader() != null && manager.getClassAuditPredicate().test(klass.getName()) && !manager.isTransformedInPlace(klass))
+                        classes.put(klass, null);
+
+                Instrumentation instrumentation = manager.getInstrumentation();
+                if (!deferred.isEmpty() && instrumentation != null) {
+                    // the deferred classes were defined by the time the analysis
+                    // which loaded them finished, find them without loading anything
+                    for (Class<?> klass : instrumentation.getAllLoadedClasses())
+                        for (DeferredClass deferredClass : deferred)
+                            if (klass.getClassLoader() == deferredClass.loader() && klass.getName().equals(deferredClass.name()))
+                                classes.put(klass, deferredClass.bytes());
+                }
+
+                deferred.clear();
+                if (classes.isEmpty())
+                    return;
+                redefine(instrumentation, classes);
+            }
+        }
+
+        // Transform the given classes from the given original bytes, or their
+        // class files if null, and redefine those which changed
+        private void redefine(Instrumentation instrumentation, Map<Class<?>, byte[]> classes) {
+            List<ClassDefinition> definitions = new ArrayList<>();
+            classes.forEach((klass, original) -> {
+                try {
+                    byte[] bytes = original != null ? original : ReflectUtil.getBytes(klass);
+                    byte[] transformed = manager.transformClass(klass.getName(), bytes, klass.getClassLoader());
+                    if (transformed == bytes)
+                        return;
+                    if (instrumentation == null) {
+                        System.err.println("WARNING Class " + klass.getName() + " was loaded during the analysis of another class, skipping transformation");
+                        return;
+                    }
+
+                    definitions.add(new ClassDefinition(klass, transformed));
+                } catch (Throwable t) {
+                    System.err.println("WARNING Failed to transform class " + klass.getName() + " loaded during the analysis of another class: " + t);
+                    t.printStackTrace();
+                }
+            });
+
+            if (definitions.isEmpty())
+                return;
+            try {
+                instrumentation.redefineClasses(definitions.toArray(new ClassDefinition[0]));
+            } catch (Throwable t) {
+                System.err.println("WARNING Failed to redefine " + definitions.size() + " classes loaded during the analysis of other classes: " + t);
+                t.printStackTrace();
+            }
+        }
+    }
+
+}
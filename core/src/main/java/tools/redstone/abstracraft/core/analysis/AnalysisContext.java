@@ -1,9 +1,20 @@
 package tools.redstone.abstracraft.core.analysis;
 
+import org.objectweb.asm.tree.MethodNode;
 import tools.redstone.abstracraft.core.AbstractionManager;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Stack;
 
+/**
+ * The state of one analysis pass through a chain of methods.
+ *
+ * A context is confined to the thread which created it and must
+ * not be shared, which is why it uses unsynchronized stacks.
+ */
 public class AnalysisContext {
 
     /**
@@ -14,24 +25,39 @@ public class AnalysisContext {
     /**
      * The trace of the methods being analyzed.
      */
-    public final Stack<ReferenceInfo> analysisStack = new Stack<>();
+    public final Deque<ReferenceInfo> analysisStack = new ArrayDeque<>();
 
-    // The current compute stacks from the methods.
-    final Stack<Stack<Object>> computeStacks = new Stack<>();
+    // The stack simulators by method depth, reused for
+    // every method analyzed at the same depth
+    final List<StackSimulator> simulators = new ArrayList<>();
+    int depth = 0;
+
+    // Whether the methods are simulated, the usage sites are resolved
+    // by the class structure so this is only needed for the hooks
+    final boolean simulate;
 
     public AnalysisContext(AbstractionManager abstractionManager) {
         this.abstractionManager = abstractionManager;
+        this.simulate = abstractionManager == null || abstractionManager.isComputeStackRequired();
     }
 
     // Leaves a method and updates the context to account for it
     void leaveMethod() {
         analysisStack.pop();
-        computeStacks.pop();
+        depth--;
     }
 
     // Updates the context when entering a method, assumes shits already on the stacks.
-    void enteredMethod() {
+    // Returns the stack simulator for the method, or null if not simulated.
+    StackSimulator enteredMethod(MethodNode method) {
+        if (!simulate) {
+            depth++;
+            return null;
+        }
 
+        if (depth == simulators.size())
+            simulators.add(new StackSimulator());
+        return simulators.get(depth++).reset(method);
     }
 
     public AbstractionManager abstractionManager() {
@@ -51,12 +77,14 @@ public class AnalysisContext {
         return abstractionManager.getMethodAnalysis(curr);
     }
 
-    /** Gets a CLONE of the current compute stack */
-    @SuppressWarnings("unchecked")
+    /**
+     * Gets a CLONE of the current compute stack, only available if a hook
+     * requires it, see {@link DependencyAnalysisHook#requiresComputeStack()}.
+     */
     public Stack<Object> currentComputeStack() {
-        if (computeStacks.isEmpty())
+        if (depth == 0 || !simulate)
             return null;
-        return (Stack<Object>) computeStacks.peek().clone();
+        return simulators.get(depth - 1).toStack();
     }
 
 }
@@ -1,20 +1,18 @@
 package tools.redstone.abstracraft.core.analysis;
 
 import org.objectweb.asm.*;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.InsnNode;
-import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.*;
 import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.metrics.AbstractionMetrics;
+import tools.redstone.abstracraft.core.usage.InternalBootstraps;
 import tools.redstone.abstracraft.core.usage.NotImplementedException;
 import tools.redstone.abstracraft.core.usage.Usage;
 import tools.redstone.abstracraft.core.util.ASMUtil;
 import tools.redstone.abstracraft.core.util.CollectionUtil;
 import tools.redstone.abstracraft.core.util.Container;
-import tools.redstone.abstracraft.core.util.ReflectUtil;
 
 import java.lang.reflect.Modifier;
 import java.util.*;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static tools.redstone.abstracraft.core.util.CollectionUtil.addIfNotNull;
@@ -30,10 +28,11 @@ public class ClassDependencyAnalyzer {
 
     // The result of the dependency analysis on a class
     public static class ClassAnalysis {
-        public boolean completed = false;                                               // Whether this analysis is complete
+        public volatile boolean completed = false;                                      // Whether this analysis is complete
         public final Map<ReferenceInfo, ReferenceAnalysis> analyzedMethods = new HashMap<>(); // All analysis objects for the methods in this class
         public Set<MethodDependency> dependencies = new HashSet<>();                    // All method dependencies recorded in this class
         public List<OneOfDependency> switchDependencies = new ArrayList<>();            // All oneOf dependencies
+        public List<ReferenceEvent> referenceEvents;                                    // The reference events fired by the analysis of this class in order, only recorded for the transform cache
 
         // Check whether all direct and switch dependencies are implemented
         public boolean areAllImplemented(AbstractionManager abstractionManager) {
@@ -47,67 +46,105 @@ public class ClassDependencyAnalyzer {
         }
     }
 
+    /**
+     * A reference event fired by the analysis of a class on the analysis of a
+     * referenced method, recorded so a class restored from the transform cache
+     * can propagate the same events through the methods it references.
+     */
+    public record ReferenceEvent(Kind kind, ReferenceInfo ref) {
+        public enum Kind {
+            OPTIONAL,
+            REQUIRED,
+            OPTIONAL_DROPPED;
+
+            /** Fire an event of this kind on the given analysis. */
+            public void fire(AnalysisContext context, ReferenceAnalysis analysis) {
+                switch (this) {
+                    case OPTIONAL -> analysis.referenceOptional(context);
+                    case REQUIRED -> analysis.referenceRequired(context);
+                    case OPTIONAL_DROPPED -> analysis.optionalReferenceDropped(context);
+                }
+            }
+        }
+    }
+
     public static class ReferenceAnalysis {
         public final ClassDependencyAnalyzer analyzer;                            // The analyzer instance.
         public final ReferenceInfo ref;                                           // The reference this analysis covers
-        public List<ReferenceInfo> requiredDependencies = new ArrayList<>();      // All recorded required dependencies used by this method
+        public final DependencySet requiredDependencies;                          // All recorded required dependencies used by this method, linking those of called methods
         public int optionalReferenceNumber = 0;                                   // Whether this method is referenced in an optionally() block
         public List<ReferenceAnalysis> allAnalyzedReferences = new ArrayList<>(); // The analysis objects of all methods/fields normally called by this method
-        public boolean complete = false;                                          // Whether this analysis has completed all mandatory tasks
+        public volatile boolean complete = false;                                 // Whether this analysis has completed all mandatory tasks, written last to publish the results
         public boolean partial = false;                                           // Whether this analysis is used purely to store meta or if it is actually analyzed with bytecode analysis
         public final boolean field;
 
-        public Set<DependencyAnalysisHook> hooksSet = new HashSet<>();
         public List<DependencyAnalysisHook.ReferenceHook> refHooks = new ArrayList<>();
 
+        int visitStamp;  // The stamp of the last propagation which visited this node, see ReferencePropagation
+        int visitIndex;  // The index of this node in the last propagation which visited it
+
         public ReferenceAnalysis(ClassDependencyAnalyzer analyzer, ReferenceInfo ref) {
             this.analyzer = analyzer;
             this.ref = ref;
             this.field = ref.isField();
+            this.requiredDependencies = new DependencySet(analyzer.references);
         }
 
-        // Checked refHooks.add
-        private void addRefHook(DependencyAnalysisHook hook, Supplier<DependencyAnalysisHook.ReferenceHook> supplier) {
-            // create new ref hook
-            addIfNotNull(refHooks, supplier.get());
+        // Checked refHooks.add, a ref hook is only registered once per method
+        private void addRefHook(DependencyAnalysisHook.ReferenceHook refHook) {
+            if (refHook != null && !refHooks.contains(refHook)) {
+                refHooks.add(refHook);
+                analyzer.abstractionManager.refHookRegistered();
+            }
         }
 
+        /*
+         * The following events are propagated to all methods reachable through
+         * allAnalyzedReferences by ReferencePropagation. The reference number of
+         * every method changes once for each path it is reachable through, while
+         * the hooks are called once per method and event.
+         */
+
         // Register and propagate that this method is part of an optional block
         public void referenceOptional(AnalysisContext context) {
-            for (var hook : analyzer.hooks) addRefHook(hook, () -> hook.optionalReference(context, this));
-            for (var refHook : refHooks) refHook.optionalReference(context);
-
-            this.optionalReferenceNumber += 2;
-            for (ReferenceAnalysis analysis : allAnalyzedReferences) {
-                analysis.referenceOptional(context);
-            }
+            AbstractionMetrics metrics = analyzer.abstractionManager.getMetrics();
+            ReferencePropagation.propagate(this, (node, paths) -> {
+                var hooks = node.analyzer.hooks.get(DependencyAnalysisHook.Event.OPTIONAL_REFERENCE, node.ref.ownerInternalName());
+                if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.OPTIONAL_REFERENCE, hooks.length);
+                for (var hook : hooks) node.addRefHook(hook.optionalReference(context, node));
+                for (var refHook : node.refHooks) refHook.optionalReference(context);
+                node.optionalReferenceNumber = ReferencePropagation.addSaturated(node.optionalReferenceNumber, paths, 2);
+            });
         }
 
         // Register and propagate that this method is required
         public void referenceRequired(AnalysisContext context) {
-            for (var hook : analyzer.hooks) addRefHook(hook, () -> hook.requiredReference(context, this));
-            for (var refHook : refHooks) refHook.requiredReference(context);
-
-            this.optionalReferenceNumber -= 1;
-            for (ReferenceAnalysis analysis : allAnalyzedReferences) {
-                analysis.referenceRequired(context);
-            }
+            AbstractionMetrics metrics = analyzer.abstractionManager.getMetrics();
+            ReferencePropagation.propagate(this, (node, paths) -> {
+                var hooks = node.analyzer.hooks.get(DependencyAnalysisHook.Event.REQUIRED_REFERENCE, node.ref.ownerInternalName());
+                if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.REQUIRED_REFERENCE, hooks.length);
+                for (var hook : hooks) node.addRefHook(hook.requiredReference(context, node));
+                for (var refHook : node.refHooks) refHook.requiredReference(context);
+                node.optionalReferenceNumber = ReferencePropagation.addSaturated(node.optionalReferenceNumber, paths, -1);
+            });
         }
 
         // Register and propagate that this method was dropped from an optionally() block
         public void optionalReferenceDropped(AnalysisContext context) {
-            for (var refHook : refHooks) refHook.optionalBlockDiscarded(context);
-            for (ReferenceAnalysis analysis : allAnalyzedReferences) {
-                analysis.optionalReferenceDropped(context);
-            }
+            if (!analyzer.abstractionManager.hasRefHooks())
+                return; // only calls ref hooks
+            ReferencePropagation.propagate(this, (node, paths) -> {
+                for (var refHook : node.refHooks) refHook.optionalBlockDiscarded(context);
+            });
         }
 
         // Finish analysis of the method
         public void postAnalyze() {
-            for (var refHook : refHooks) refHook.postAnalyze();
-            for (ReferenceAnalysis analysis : allAnalyzedReferences) {
-                analysis.postAnalyze();
-            }
+            if (!analyzer.abstractionManager.hasRefHooks())
+                return; // only calls ref hooks
+            ReferencePropagation.propagate(this, (node, paths) -> {
+                for (var refHook : node.refHooks) refHook.postAnalyze();
+            });
         }
 
         public void registerReference(ReferenceInfo info) {
@@ -131,6 +168,28 @@ public class ClassDependencyAnalyzer {
         }
     }
 
+    // Tracks whether the transformation changed the code of a method. Discarding
+    // lambdas and inserting throws is only decided once all analysis completed
+    static class MethodChanges {
+        final ReferenceAnalysis methodAnalysis;         // The analysis of the method
+        boolean replaced = false;                       // Whether instructions were replaced during the analysis
+        boolean throwsInserted = false;                 // Whether throw sequences were inserted, which are written if the method is required
+        final List<Lambda> lambdas = new ArrayList<>(); // The lambdas created in the method, which may be discarded or inlined
+
+        MethodChanges(ReferenceAnalysis methodAnalysis) {
+            this.methodAnalysis = methodAnalysis;
+        }
+
+        boolean isChanged() {
+            if (replaced || (throwsInserted && methodAnalysis.optionalReferenceNumber < 0))
+                return true;
+            for (Lambda lambda : lambdas)
+                if (lambda.discard.value || lambda.inline.value)
+                    return true;
+            return false;
+        }
+    }
+
     /* Stack Tracking */
     public record FieldValue(ReferenceInfo fieldInfo, boolean isStatic) { }
     public record InstanceOf(Type type) { }
@@ -138,7 +197,9 @@ public class ClassDependencyAnalyzer {
     public record FromVar(int varIndex, Type type) { }
 
     /* Compute Stack Tracking */
-    public record Lambda(boolean direct, ReferenceInfo methodInfo, Container<Boolean> discard) { }
+    public record Lambda(boolean direct, ReferenceInfo methodInfo, Handle impl, Type[] capturedTypes,
+                         AbstractInsnNode insn /* The instruction creating the lambda */,
+                         Container<Boolean> discard, Container<Boolean> inline) { }
 
     static final Type TYPE_Usage = Type.getType(Usage.class);
     static final String NAME_Usage = TYPE_Usage.getInternalName();
@@ -146,33 +207,97 @@ public class ClassDependencyAnalyzer {
     static final String NAME_InternalSubstituteMethods = TYPE_InternalSubstituteMethods.getInternalName();
     static final Type TYPE_NotImplementedException = Type.getType(NotImplementedException.class);
     static final String NAME_NotImplementedException = TYPE_NotImplementedException.getInternalName();
+    static final Handle H_devirtualize = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(InternalBootstraps.class), "devirtualize",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false);
+    static final Handle H_guardedOptional = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(InternalBootstraps.class), "guardedOptional",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;I[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
     static final Type TYPE_MethodInfo = Type.getType(ReferenceInfo.class);
     static final String NAME_MethodInfo = TYPE_MethodInfo.getInternalName();
 
+    /** The classes of the analysis taking part in the transformation of classes, without their nested classes. */
+    public static final List<Class<?>> ANALYSIS_CLASSES = List.of(ClassDependencyAnalyzer.class, ClassStructure.class,
+            ClassHierarchyIndex.class, ConstantPoolFilter.class, DependencySet.class, HookDispatch.class, MethodDependency.class,
+            OneOfDependency.class, ReferenceInfo.class, ReferencePropagation.class, ReferenceTable.class, StackSimulator.class);
+
     private final AbstractionManager abstractionManager;                  // The abstraction manager
+    private final ReferenceTable references;                              // The reference table of the abstraction manager
     private String internalName;                                          // The internal name of this class
     private String className;                                             // The public name of this class
     private ClassReader classReader;                                      // The class reader for the bytecode
+    private byte[] classBytes;                                            // The class file the reader reads, null if unknown
     private ClassNode classNode;                                          // The class node to be written
-    public final List<DependencyAnalysisHook> hooks = new ArrayList<>();  // The analysis hooks
+    private ClassStructure structure;                                     // The implementation independent facts about the class, shared between managers
+    private Map<String, int[]> callEdges;                                 // The IDs of the methods called by each method by name and descriptor, only recorded for classes skipped by the pre-filter
+    private HookDispatch hooks = HookDispatch.EMPTY;                      // The analysis hooks, compiled per event
 
     private ClassAnalysis classAnalysis = new ClassAnalysis(); // The result of analysis
+    private final Map<MethodNode, MethodChanges> methodChanges = new IdentityHashMap<>(); // The changes to each analyzed method by it's new node
 
     public ClassDependencyAnalyzer addHook(DependencyAnalysisHook hook) {
-        this.hooks.add(hook);
+        this.hooks = hooks.with(hook);
         return this;
     }
 
+    public ClassDependencyAnalyzer setHooks(HookDispatch hooks) {
+        this.hooks = hooks;
+        return this;
+    }
+
+    public HookDispatch getHooks() {
+        return hooks;
+    }
+
     public ClassDependencyAnalyzer(AbstractionManager manager,
                                    ClassReader classReader) {
+        this(manager, classReader, null);
+    }
+
+    /**
+     * Create an analyzer for the given class, which specializes the given
+     * structure computed from the same class bytes, or computes it if null.
+     */
+    public ClassDependencyAnalyzer(AbstractionManager manager,
+                                   ClassReader classReader,
+                                   ClassStructure structure) {
+        this(manager, null, classReader, structure);
+    }
+
+    /**
+     * Create an analyzer for the given class file read by the given reader,
+     * see {@link #isReadFrom(byte[])}, which specializes the given structure.
+     */
+    public ClassDependencyAnalyzer(AbstractionManager manager,
+                                   byte[] classBytes,
+                                   ClassReader classReader,
+                                   ClassStructure structure) {
         this.abstractionManager = manager;
+        this.classBytes = classBytes;
+        this.references = manager.getReferenceTable();
         if (classReader != null) {
             this.internalName = classReader.getClassName();
             this.className = internalName.replace('/', '.');
             this.classReader = classReader;
             this.classNode = new ClassNode(ASMUtil.ASM_V);
             classReader.accept(classNode, 0);
+            this.structure = structure != null ? structure : ClassStructure.compute(classNode);
         }
+
+        if (classReader != null && manager.getTransformCache() != null)
+            classAnalysis.referenceEvents = new ArrayList<>();
+    }
+
+    /**
+     * Create an analyzer for a class which has already been analyzed
+     * and transformed, for example restored from a transform cache.
+     */
+    public ClassDependencyAnalyzer(AbstractionManager manager,
+                                   String internalName,
+                                   ClassAnalysis classAnalysis) {
+        this.abstractionManager = manager;
+        this.references = manager.getReferenceTable();
+        this.internalName = internalName;
+        this.className = internalName.replace('/', '.');
+        this.classAnalysis = classAnalysis;
     }
 
     // Make a ReferenceInfo to a method on the stack
@@ -215,7 +340,10 @@ public class ClassDependencyAnalyzer {
             if (context.analysisStack.contains(info))
                 return null;
 
-            // find method node
+            // find method node, the tree is gone
+            // if the class was already transformed
+            if (classNode == null)
+                return callEdges != null ? callEdgeMethod(context, info) : null;
             MethodNode m = ASMUtil.findMethod(classNode, info.name(), info.desc());
             if (m == null)
                 return null;
@@ -230,6 +358,80 @@ public class ClassDependencyAnalyzer {
         }
     }
 
+    /**
+     * Record the methods called by each method of the given class, which was
+     * skipped by the pre-filter and has no class tree, so analyses calling into
+     * it still propagate through it's methods to the methods they call.
+     *
+     * @param reader The class reader.
+     */
+    public void recordCallEdges(ClassReader reader) {
+        final Map<String, int[]> edges = new HashMap<>();
+        reader.accept(new ClassVisitor(ASMUtil.ASM_V) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                final String key = name + descriptor;
+                return new MethodVisitor(ASMUtil.ASM_V) {
+                    int[] called = new int[8];
+                    int count = 0;
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                        if (owner.startsWith("["))
+                            return; // array methods like clone()
+                        if (count == called.length)
+                            called = Arrays.copyOf(called, count * 2);
+                        called[count++] = references.intern(owner, name, descriptor, opcode == Opcodes.INVOKESTATIC);
+                    }
+
+                    @Override
+                    public void visitEnd() {
+                        edges.put(key, Arrays.copyOf(called, count));
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        this.callEdges = edges;
+    }
+
+    // Analyze a method of a class skipped by the pre-filter through it's recorded
+    // call edges, it can not reference any dependencies itself but the methods
+    // it calls can, the caller checked for recursion
+    private ReferenceAnalysis callEdgeMethod(AnalysisContext context, ReferenceInfo info) {
+        int[] called = callEdges.get(info.name() + info.desc());
+        if (called == null)
+            return null;
+
+        var analysis = new ReferenceAnalysis(this, info);
+        abstractionManager.registerAnalysis(analysis);
+        classAnalysis.analyzedMethods.put(info, analysis);
+        context.analysisStack.push(info);
+        try {
+            for (int id : called) {
+                var calledAnalysis = publicReference(context, references.get(id));
+                if (calledAnalysis != null) {
+                    analysis.requiredDependencies.addAll(calledAnalysis.requiredDependencies);
+                    analysis.allAnalyzedReferences.add(calledAnalysis);
+                }
+            }
+        } finally {
+            context.analysisStack.pop();
+        }
+
+        analysis.complete = true;
+        return analysis;
+    }
+
+    // Fire the given reference event on the given analysis,
+    // recording it if this class may be stored in the transform cache
+    private void fireReferenceEvent(AnalysisContext context, ReferenceAnalysis analysis, ReferenceEvent.Kind kind) {
+        List<ReferenceEvent> events = classAnalysis.referenceEvents;
+        if (events != null)
+            events.add(new ReferenceEvent(kind, analysis.ref));
+        kind.fire(context, analysis);
+    }
+
     /** Analyzes and transforms a method from any class */
     public ReferenceAnalysis publicReference(AnalysisContext context, ReferenceInfo info) {
         // check for local method
@@ -238,16 +440,63 @@ public class ClassDependencyAnalyzer {
         return abstractionManager.publicReference(context, info);
     }
 
+    // Get the int pushed by the given constant instruction, or -1
+    private static int intConstant(AbstractInsnNode insn) {
+        if (insn == null)
+            return -1;
+        int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5)
+            return opcode - Opcodes.ICONST_0;
+        if (insn instanceof IntInsnNode intInsn && opcode != Opcodes.NEWARRAY)
+            return intInsn.operand;
+        if (insn instanceof LdcInsnNode ldc && ldc.cst instanceof Integer i)
+            return i;
+        return -1;
+    }
+
+    // Get the next instruction which is not a label, line number or frame
+    private static AbstractInsnNode nextCode(AbstractInsnNode insn) {
+        if (insn == null)
+            return null;
+        do {
+            insn = insn.getNext();
+        } while (insn instanceof LabelNode || insn instanceof LineNumberNode || insn instanceof FrameNode);
+        return insn;
+    }
+
+    // Get the static arguments for a guarded optional call site, see InternalBootstraps#guardedOptional
+    private Object[] guardArguments(List<ReferenceInfo> dependencies) {
+        int count = dependencies != null ? dependencies.size() : 0;
+        Object[] arguments = new Object[1 + count * 4];
+        arguments[0] = abstractionManager.getId();
+        for (int i = 0; i < count; i++) {
+            ReferenceInfo dep = dependencies.get(i);
+            arguments[1 + i * 4] = dep.ownerInternalName();
+            arguments[2 + i * 4] = dep.name();
+            arguments[3 + i * 4] = dep.desc();
+            arguments[4 + i * 4] = (dep.isStatic() ? InternalBootstraps.FLAG_STATIC : 0) | (dep.isField() ? InternalBootstraps.FLAG_FIELD : 0);
+        }
+
+        return arguments;
+    }
+
     /** Check whether the given reference could be a dependency */
     public boolean isDependencyReference(AnalysisContext context, ReferenceInfo info) {
-        for (var hook : this.hooks) {
-            var res = hook.isDependencyCandidate(context, info);
-            if (res == null) continue;
-            return res;
-        }
+        int calls = 0;
+        try {
+            for (var hook : hooks.get(DependencyAnalysisHook.Event.IS_DEPENDENCY_CANDIDATE, info.ownerInternalName())) {
+                calls++;
+                var res = hook.isDependencyCandidate(context, info);
+                if (res == null) continue;
+                return res;
+            }
 
-        // assume no
-        return false;
+            // assume no
+            return false;
+        } finally {
+            AbstractionMetrics metrics = abstractionManager.getMetrics();
+            if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.IS_DEPENDENCY_CANDIDATE, calls);
+        }
     }
 
     /**
@@ -273,14 +522,29 @@ public class ClassDependencyAnalyzer {
         // create method visitor
         MethodNode newMethod = new MethodNode(oldMethod.access, name, descriptor, oldMethod.signature, oldMethod.exceptions.toArray(new String[0]));
         var visitor = new MethodVisitor(ASMUtil.ASM_V, newMethod) {
-            // The compute stack of lambda's
-            Stack<Object> computeStack = new Stack<>();
+            // The symbolic stack and locals of the method, only
+            // simulated if a hook needs the compute stack
+            final StackSimulator sim;
+            // The usage sites resolved by the class structure
+            final ClassStructure.MethodStructure methodStructure = structure.getMethod(name, descriptor);
+            // The lambdas by the ordinal of the invokedynamic instruction creating them
+            final List<Lambda> lambdasByOrdinal = new ArrayList<>();
+            // The instructions creating Supplier arrays by the ordinal of the type instruction
+            final Map<Integer, AbstractInsnNode> supplierArrays = new HashMap<>();
+            int methodInsnOrdinal = 0;
+            int typeInsnOrdinal = 0;
+            // The metrics of the manager, null if disabled
+            final AbstractionMetrics metrics = abstractionManager.getMetrics();
+            // Whether the instructions of the method were changed
+            final MethodChanges changes = new MethodChanges(methodAnalysis);
 
             {
                 context.analysisStack.push(currentMethodInfo);
-                context.computeStacks.push(computeStack);
-                context.enteredMethod();
-                for (var hook : hooks) hook.enterMethod(context);
+                methodChanges.put(newMethod, changes);
+                sim = context.enteredMethod(oldMethod);
+                var enterHooks = hooks.get(DependencyAnalysisHook.Event.ENTER_METHOD);
+                if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.ENTER_METHOD, enterHooks.length);
+                for (var hook : enterHooks) hook.enterMethod(context);
             }
 
             public void addInsn(InsnNode node) {
@@ -290,82 +554,149 @@ public class ClassDependencyAnalyzer {
             @Override
             public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
                 // check for lambda factory
-                if (
-                        !bootstrapMethodHandle.getOwner().equals("java/lang/invoke/LambdaMetafactory") ||
-                                !bootstrapMethodHandle.getName().equals("metafactory")
-                ) {
+                if (!ClassStructure.isLambdaFactory(bootstrapMethodHandle)) {
+                    lambdasByOrdinal.add(null);
                     super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+                    if (sim != null) sim.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
                     return;
                 }
 
                 // check whether its a lambda or a
                 // method referenced as a lambda argument
                 Handle lambdaImpl = (Handle) bootstrapMethodArguments[1];
-                Type lambdaImplType = Type.getMethodType(lambdaImpl.getDesc());
-                int argCount = lambdaImplType.getArgumentTypes().length +
-                        (lambdaImpl.getTag() != Opcodes.H_INVOKESTATIC && lambdaImpl.getTag() != Opcodes.H_GETSTATIC ? 1 : 0);
+                Type[] capturedTypes = Type.getArgumentTypes(descriptor);
                 boolean isDirect = !lambdaImpl.getName().startsWith("lambda$");
-                var lambda = new Lambda(isDirect, new ReferenceInfo(
-                        lambdaImpl.getOwner(),
-                        lambdaImpl.getOwner().replace('/', '.'), lambdaImpl.getName(),
-                        lambdaImpl.getDesc(), Type.getMethodType(lambdaImpl.getDesc()),
-                        lambdaImpl.getTag() == Opcodes.H_INVOKESTATIC
-                ), new Container<>(false));
-
-                addInsn(new InsnNode(-1) {
+                final Container<Boolean> discard = new Container<>(false);
+                final Container<Boolean> inline = new Container<>(false);
+                InsnNode lambdaInsn = new InsnNode(-1) {
                     @Override
                     public void accept(MethodVisitor methodVisitor) {
                         // check if it should be discarded
-                        if (lambda.discard.value) {
-                            for (int i = 0; i < argCount; i++)
-                                methodVisitor.visitInsn(Opcodes.POP);
-                            methodVisitor.visitInsn(Opcodes.ACONST_NULL);
-                        } else {
+                        if (discard.value) {
+                            for (int i = capturedTypes.length - 1; i >= 0; i--)
+                                methodVisitor.visitInsn(capturedTypes[i].getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+                            if (!inline.value)
+                                methodVisitor.visitInsn(Opcodes.ACONST_NULL);
+                        } else if (!inline.value) {
                             methodVisitor.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
                         }
+
+                        // if inlined and not discarded the captured
+                        // arguments stay on the stack for the direct call
                     }
-                });
+                };
+
+                addInsn(lambdaInsn);
+
+                var lambda = new Lambda(isDirect, references.get(references.intern(
+                        lambdaImpl.getOwner(), lambdaImpl.getName(), lambdaImpl.getDesc(),
+                        lambdaImpl.getTag() == Opcodes.H_INVOKESTATIC
+                )), lambdaImpl, capturedTypes, lambdaInsn, discard, inline);
+                changes.lambdas.add(lambda);
+                lambdasByOrdinal.add(lambda);
+
+                if (sim != null) sim.invokeDynamic(descriptor, lambda);
+            }
 
-                for (int i = 0; i < argCount; i++)
-                    computeStack.pop();
-                computeStack.push(lambda);
+            // Get the lambdas passed to the given usage site, null if unresolved
+            Lambda[] siteLambdas(ClassStructure.UsageSite site) {
+                if (site == null)
+                    return null;
+                Lambda[] lambdas = new Lambda[site.lambdas().length];
+                for (int i = 0; i < lambdas.length; i++) {
+                    int ordinal = site.lambdas()[i];
+                    if (ordinal >= lambdasByOrdinal.size() || (lambdas[i] = lambdasByOrdinal.get(ordinal)) == null)
+                        return null;
+                }
+
+                return lambdas;
             }
 
             @Override
             public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-                final ReferenceInfo calledMethodInfo = new ReferenceInfo(owner, owner.replace('/', '.'), name, descriptor, Type.getMethodType(descriptor), opcode == Opcodes.INVOKESTATIC);
+                final int calledId = references.intern(owner, name, descriptor, opcode == Opcodes.INVOKESTATIC);
+                final ReferenceInfo calledMethodInfo = references.get(calledId);
+                final ClassStructure.UsageSite site = methodStructure.usageSite(methodInsnOrdinal++);
+                final Lambda[] siteLambdas = siteLambdas(site);
                 /* Check for usage of dependencies through proxy methods */
 
                 // check for Usage.optionally(Supplier<T>)
                 if (NAME_Usage.equals(owner) && "optionally".equals(name)) {
-                    var lambda = (Lambda) computeStack.pop();
+                    if (siteLambdas == null) {
+                        System.err.println("WARNING Could not resolve the lambda passed to Usage.optionally in " + currentMethodInfo + ", leaving the call untransformed");
+                        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                        if (sim != null) sim.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                        return;
+                    }
+
+                    Lambda lambda = siteLambdas[0];
+                    if (sim != null) sim.pop();
                     ReferenceAnalysis analysis;
                     analysis = publicReference(context, lambda.methodInfo);
-                    analysis.referenceOptional(context);
+                    fireReferenceEvent(context, analysis, ReferenceEvent.Kind.OPTIONAL);
 
                     List<ReferenceInfo> dependencies = lambda.direct() ?
                             List.of(lambda.methodInfo) :
-                            analysis.requiredDependencies;
+                            analysis.requiredDependencies.toList();
                     if (dependencies != null) {
                         dependencies.forEach(dep ->
                                 classAnalysis.dependencies.add(new MethodDependency(true, dep, null)));
                     }
 
+                    // link through a call site which follows changes
+                    // to the implementation state at runtime
+                    if (abstractionManager.isGuardedOptionalBlocks()) {
+                        changes.replaced = true;
+                        super.visitInvokeDynamicInsn(name, descriptor, H_guardedOptional, guardArguments(dependencies));
+                        if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
+                        return;
+                    }
+
                     // discard lambda if the dependencies arent fulfilled
                     boolean allImplemented = abstractionManager.areAllImplemented(dependencies);
                     if (!allImplemented) {
                         if (!lambda.direct()) {
-                            analysis.optionalReferenceDropped(context);
+                            fireReferenceEvent(context, analysis, ReferenceEvent.Kind.OPTIONAL_DROPPED);
                         }
 
                         lambda.discard.value = true;
                     }
 
+                    // call the lambda directly if it was created right before
+                    if (abstractionManager.isInlineOptionalBlocks() && lambda.insn() == newMethod.instructions.getLast() && canCallDirectly(lambda)) {
+                        lambda.inline.value = true;
+                        changes.replaced = true;
+                        boolean isSupplier = "(Ljava/util/function/Supplier;)Ljava/util/Optional;".equals(descriptor);
+                        if (allImplemented) {
+                            // captured arguments are still on the stack
+                            Type implReturnType = callDirectly(lambda);
+                            if (isSupplier) {
+                                ASMUtil.box(newMethod, implReturnType);
+                                super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Optional", "of", "(Ljava/lang/Object;)Ljava/util/Optional;", false);
+                            } else {
+                                if (implReturnType.getSize() > 0)
+                                    super.visitInsn(implReturnType.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+                                super.visitInsn(Opcodes.ICONST_1);
+                            }
+                        } else {
+                            // captured arguments are popped by the lambda
+                            if (isSupplier) {
+                                super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Optional", "empty", "()Ljava/util/Optional;", false);
+                            } else {
+                                super.visitInsn(Opcodes.ICONST_0);
+                            }
+                        }
+
+                        if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
+                        return;
+                    }
+
                     if ("(Ljava/util/function/Supplier;)Ljava/util/Optional;".equals(descriptor)) {
                         // transform bytecode
                         if (!allImplemented) {
                             // the methods are not all implemented,
                             // substitute call with notPresentOptional
+                            changes.replaced = true;
                             super.visitMethodInsn(
                                     Opcodes.INVOKESTATIC,
                                     NAME_InternalSubstituteMethods, "notPresentOptional",
@@ -376,36 +707,97 @@ public class ClassDependencyAnalyzer {
                             super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
                         }
 
-                        computeStack.push(ReturnValue.of(calledMethodInfo));
+                        if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
                         return;
                     }
 
-                    if ("(Ljava/lang/Runnable;)B".equals(descriptor)) {
+                    if ("(Ljava/lang/Runnable;)Z".equals(descriptor)) {
+                        // Usage.optionally(Runnable) returns a boolean, this used to
+                        // match a byte return type and dropped the call instead
                         // transform bytecode
                         if (!allImplemented) {
                             // the methods are not all implemented,
                             // substitute call with notPresentBoolean
+                            changes.replaced = true;
                             super.visitMethodInsn(
                                     Opcodes.INVOKESTATIC,
                                     NAME_InternalSubstituteMethods, "notPresentBoolean",
-                                    "(Ljava/lang/Runnable;)B", false
+                                    "(Ljava/lang/Runnable;)Z", false
                             );
                         } else {
                             // the methods are implemented, dont substitute
                             super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
                         }
 
-                        computeStack.push(ReturnValue.of(calledMethodInfo));
+                        if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
                         return;
                     }
 
+                    changes.replaced = true;
+                    if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
+                    return;
+                }
+
+                // check for Usage.isImplemented(Supplier<T>)
+                if (NAME_Usage.equals(owner) && "isImplemented".equals(name)) {
+                    if (siteLambdas == null) {
+                        System.err.println("WARNING Could not resolve the lambda passed to Usage.isImplemented in " + currentMethodInfo + ", leaving the call untransformed");
+                        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                        if (sim != null) sim.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                        return;
+                    }
+
+                    // the block is never run, so it is only an optional reference
+                    Lambda lambda = siteLambdas[0];
+                    if (sim != null) sim.pop();
+                    changes.replaced = true;
+                    ReferenceAnalysis analysis = publicReference(context, lambda.methodInfo);
+                    fireReferenceEvent(context, analysis, ReferenceEvent.Kind.OPTIONAL);
+                    if (!lambda.direct()) {
+                        fireReferenceEvent(context, analysis, ReferenceEvent.Kind.OPTIONAL_DROPPED);
+                    }
+
+                    List<ReferenceInfo> dependencies = lambda.direct() ?
+                            List.of(lambda.methodInfo) :
+                            analysis.requiredDependencies.toList();
+                    if (dependencies != null) {
+                        dependencies.forEach(dep ->
+                                classAnalysis.dependencies.add(new MethodDependency(true, dep, null)));
+                    }
+
+                    // replace with the constant, dropping the lambda
+                    // if it was created only for this call
+                    if (lambda.insn() == newMethod.instructions.getLast()) {
+                        lambda.discard.value = true;
+                        lambda.inline.value = true;
+                    } else {
+                        super.visitInsn(Opcodes.POP);
+                    }
+
+                    if (abstractionManager.isGuardedOptionalBlocks()) {
+                        super.visitInvokeDynamicInsn(name, "()Z", H_guardedOptional, guardArguments(dependencies));
+                    } else {
+                        super.visitInsn(abstractionManager.areAllImplemented(dependencies) ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+                    }
+
+                    if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
                     return;
                 }
 
                 // check for Usage.oneOf(Optional<T>...)
                 if (NAME_Usage.equals(owner) && "requireAtLeastOne".equals(name) && "([Ljava/util/function/Supplier;)Ljava/lang/Object;".equals(descriptor)) {
                     // get array of lambdas
-                    Lambda[] lambdas = ReflectUtil.arrayCast((Object[]) computeStack.pop(), Lambda.class);
+                    if (siteLambdas == null) {
+                        System.err.println("WARNING Could not resolve the lambdas passed to Usage.requireAtLeastOne in " + currentMethodInfo + ", leaving the call untransformed");
+                        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                        if (sim != null) sim.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                        return;
+                    }
+
+                    if (sim != null) sim.pop();
+                    changes.replaced = true;
+                    Lambda[] lambdas = siteLambdas;
+                    AbstractInsnNode arrayInsn = supplierArrays.get(site.array());
                     Lambda chosen = null;                                            // The chosen lambda
                     List<MethodDependency> chosenDependencies = new ArrayList<>();   // The method dependencies of the chosen lambda
                     List<MethodDependency> optionalDependencies = new ArrayList<>(); // The optional dependencies of this switch
@@ -416,7 +808,7 @@ public class ClassDependencyAnalyzer {
                         // get dependencies as methods
                         List<ReferenceInfo> dependencies = lambda.direct() ?
                                 List.of(lambda.methodInfo) :
-                                analysis.requiredDependencies;
+                                analysis.requiredDependencies.toList();
 
                         // if not implemented, add as optional dependencies
                         if (!abstractionManager.areAllImplemented(dependencies) || chosen != null) {
@@ -427,7 +819,7 @@ public class ClassDependencyAnalyzer {
 
                         // if one is implemented, add as required dependencies
                         chosen = lambda;
-                        analysis.referenceRequired(context);
+                        fireReferenceEvent(context, analysis, ReferenceEvent.Kind.REQUIRED);
                         if (dependencies != null) {
                             CollectionUtil.mapImmediate(dependencies, dep -> new MethodDependency(false, dep, false), classAnalysis.dependencies, chosenDependencies);
                         }
@@ -436,8 +828,12 @@ public class ClassDependencyAnalyzer {
                     // register switch
                     classAnalysis.switchDependencies.add(new OneOfDependency(chosenDependencies, optionalDependencies, chosen != null));
 
-                    // replace method call
-                    if (chosen != null) {
+                    // call the chosen lambda directly, without creating the array
+                    if (chosen != null && abstractionManager.isInlineOptionalBlocks() && canCallDirectly(chosen) && removeSupplierArray(arrayInsn, lambdas)) {
+                        for (Lambda lambda : lambdas)
+                            lambda.inline.value = true;
+                        ASMUtil.box(newMethod, callDirectly(chosen));
+                    } else if (chosen != null) {
                         super.visitMethodInsn(Opcodes.INVOKESTATIC, NAME_InternalSubstituteMethods,
                                 "onePresent", "([Ljava/util/function/Supplier;)Ljava/lang/Object;",
                                 false);
@@ -447,6 +843,7 @@ public class ClassDependencyAnalyzer {
                                 false);
                     }
 
+                    if (sim != null) sim.push(ReturnValue.of(calledMethodInfo));
                     return;
                 }
 
@@ -465,7 +862,8 @@ public class ClassDependencyAnalyzer {
                     // is a block used by Usage.optionally
                     if (methodAnalysis.optionalReferenceNumber <= 0) {
                         // insert runtime throw
-                        if (!abstractionManager.isImplemented(calledMethodInfo)) {
+                        if (!abstractionManager.isImplemented(calledId)) {
+                            changes.throwsInserted = true;
                             addInsn(new InsnNode(-1) {
                                 @Override
                                 public void accept(MethodVisitor mv) {
@@ -481,51 +879,37 @@ public class ClassDependencyAnalyzer {
                         }
                     }
 
-                    methodAnalysis.requiredDependencies.add(calledMethodInfo);
-                }
-
-                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
-                Type mt = Type.getMethodType(descriptor);
-                if (opcode != Opcodes.INVOKESTATIC)
-                    computeStack.pop(); // instance on the stack
-                for (int i = 0, n = mt.getArgumentTypes().length; i < n; i++) {
-                    computeStack.pop();
-                }
-
-                if (!mt.getReturnType().equals(Type.VOID_TYPE)) {
-                    computeStack.push(ReturnValue.of(calledMethodInfo));
+                    methodAnalysis.requiredDependencies.add(calledId);
                 }
-            }
 
-            @Override
-            public void visitTypeInsn(int opcode, String type) {
-                super.visitTypeInsn(opcode, type);
-                if (opcode == Opcodes.ANEWARRAY) {
-                    int size = (int) computeStack.pop();
-                    computeStack.push(new Object[size]);
+                // bind abstraction calls to the implementation
+                Class<?> devirtualizationTarget = opcode == Opcodes.INVOKEINTERFACE || opcode == Opcodes.INVOKEVIRTUAL ?
+                        abstractionManager.getDevirtualizationTarget(calledMethodInfo) : null;
+                if (devirtualizationTarget != null) {
+                    changes.replaced = true;
+                    super.visitInvokeDynamicInsn(name, "(L" + owner + ";" + descriptor.substring(1), H_devirtualize,
+                            Type.getObjectType(owner), devirtualizationTarget.getName());
+                } else {
+                    super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
                 }
 
-                if (opcode == Opcodes.NEW) {
-                    computeStack.push(new InstanceOf(Type.getObjectType(type)));
-                }
+                Type returnType = references.returnType(calledId);
+                if (sim != null) sim.methodInsn(opcode, (Type.getArgumentsAndReturnSizes(descriptor) >> 2) - 1, returnType,
+                        returnType.getSort() != Type.VOID ? new ReturnValue(calledMethodInfo, returnType) : null);
             }
 
             @Override
             public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
                 if (opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC) {
-                    var fieldInfo = ReferenceInfo.forFieldInfo(owner, name, descriptor, opcode == Opcodes.GETSTATIC);
-
-                    // pop instance if necessary
-                    if (opcode == Opcodes.GETFIELD) {
-                        computeStack.pop();
-                    }
+                    final int fieldId = references.intern(owner, name, descriptor, opcode == Opcodes.GETSTATIC);
+                    final var fieldInfo = references.get(fieldId);
 
-                    computeStack.push(new FieldValue(fieldInfo, false));
+                    if (sim != null) sim.fieldInsn(opcode, descriptor, new FieldValue(fieldInfo, opcode == Opcodes.GETSTATIC));
 
                     // register reference
                     var analysis = publicReference(context, fieldInfo);
                     context.currentAnalysis().registerReference(analysis);
-                    analysis.referenceRequired(context);
+                    fireReferenceEvent(context, analysis, ReferenceEvent.Kind.REQUIRED);
 
                     /* Check for direct usage of dependencies */
                     if (isDependencyReference(context, fieldInfo) && !specialMethods.contains(name)) {
@@ -535,7 +919,8 @@ public class ClassDependencyAnalyzer {
                         // is a block used by Usage.optionally
                         if (methodAnalysis.optionalReferenceNumber <= 0) {
                             // insert runtime throw
-                            if (!abstractionManager.isImplemented(fieldInfo)) {
+                            if (!abstractionManager.isImplemented(fieldId)) {
+                                changes.throwsInserted = true;
                                 addInsn(new InsnNode(-1) {
                                     @Override
                                     public void accept(MethodVisitor mv) {
@@ -551,7 +936,7 @@ public class ClassDependencyAnalyzer {
                             }
                         }
 
-                        methodAnalysis.requiredDependencies.add(fieldInfo);
+                        methodAnalysis.requiredDependencies.add(fieldId);
                     }
 
                     super.visitFieldInsn(opcode, owner, name, descriptor);
@@ -559,45 +944,114 @@ public class ClassDependencyAnalyzer {
                 }
 
                 super.visitFieldInsn(opcode, owner, name, descriptor);
+                if (sim != null) sim.visitFieldInsn(opcode, owner, name, descriptor);
             }
 
-            @Override
-            public void visitVarInsn(int opcode, int varIndex) {
-                super.visitVarInsn(opcode, varIndex);
-                Type t = Type.getType(oldMethod.localVariables.get(varIndex).desc);
-                switch (opcode) {
-                    case Opcodes.ALOAD, Opcodes.ILOAD, Opcodes.DLOAD, Opcodes.FLOAD -> computeStack.push(new FromVar(varIndex, t));
-                    case Opcodes.ASTORE, Opcodes.ISTORE, Opcodes.DSTORE, Opcodes.FSTORE -> computeStack.pop();
+            // Check whether the given lambda can be replaced by a direct call to it's
+            // implementation, which requires all arguments of it to be captured
+            boolean canCallDirectly(Lambda lambda) {
+                Handle impl = lambda.impl();
+                switch (impl.getTag()) {
+                    case Opcodes.H_INVOKESTATIC, Opcodes.H_INVOKEVIRTUAL, Opcodes.H_INVOKEINTERFACE -> { }
+                    case Opcodes.H_INVOKESPECIAL -> { if (!impl.getOwner().equals(internalName)) return false; }
+                    default -> { return false; } // constructor references
+                }
+
+                Type[] implArgs = Type.getArgumentTypes(impl.getDesc());
+                Type[] captured = lambda.capturedTypes();
+                int offset = impl.getTag() == Opcodes.H_INVOKESTATIC ? 0 : 1; // the receiver is captured first
+                if (captured.length != implArgs.length + offset)
+                    return false;
+                for (int i = 0; i < implArgs.length; i++) {
+                    // references may be subtypes, primitives have to match exactly
+                    Type capturedType = captured[i + offset];
+                    if ((implArgs[i].getSort() < Type.ARRAY || capturedType.getSort() < Type.ARRAY) && !implArgs[i].equals(capturedType))
+                        return false;
                 }
+
+                return true;
             }
 
-            @Override public void visitLdcInsn(Object value) { super.visitLdcInsn(value); computeStack.push(value); }
-            @Override public void visitIntInsn(int opcode, int operand) { super.visitIntInsn(opcode, operand); computeStack.push(operand); }
-            @Override public void visitInsn(int opcode) {
-                super.visitInsn(opcode);
-                switch (opcode) {
-                    case Opcodes.DUP -> computeStack.push(computeStack.peek());
-                    case Opcodes.ACONST_NULL -> computeStack.push(null);
-                    case Opcodes.ICONST_0 -> computeStack.push(0);
-                    case Opcodes.ICONST_1 -> computeStack.push(1);
-                    case Opcodes.ICONST_2 -> computeStack.push(2);
-                    case Opcodes.ICONST_3 -> computeStack.push(3);
-                    case Opcodes.ICONST_4 -> computeStack.push(4);
-                    case Opcodes.ICONST_5 -> computeStack.push(5);
-                    case Opcodes.POP, Opcodes.ARETURN, Opcodes.IRETURN, Opcodes.DRETURN, Opcodes.FRETURN -> { if (!computeStack.isEmpty()) computeStack.pop(); }
-                    case Opcodes.POP2 -> { computeStack.pop(); computeStack.pop(); }
-                    case Opcodes.AASTORE -> {
-                        Object val = computeStack.pop();
-                        int idx = (int) computeStack.pop();
-                        Object[] arr = (Object[]) computeStack.pop();
-                        arr[idx] = val;
-                    }
+            // Call the implementation of the given lambda, with the captured
+            // arguments on the stack, returns the type of the result
+            Type callDirectly(Lambda lambda) {
+                Handle impl = lambda.impl();
+                int implOpcode = switch (impl.getTag()) {
+                    case Opcodes.H_INVOKESTATIC -> Opcodes.INVOKESTATIC;
+                    case Opcodes.H_INVOKEINTERFACE -> Opcodes.INVOKEINTERFACE;
+                    case Opcodes.H_INVOKESPECIAL -> Opcodes.INVOKESPECIAL;
+                    default -> Opcodes.INVOKEVIRTUAL;
+                };
+
+                super.visitMethodInsn(implOpcode, impl.getOwner(), impl.getName(), impl.getDesc(), impl.isInterface());
+                return Type.getReturnType(impl.getDesc());
+            }
+
+            // Remove the instructions creating and filling the given array of lambdas
+            // passed to Usage.requireAtLeastOne, if it was filled in the pattern javac
+            // emits for varargs right before the call, leaving only the code evaluating
+            // the captured arguments. Returns false if the array was created differently.
+            boolean removeSupplierArray(AbstractInsnNode newArray, Lambda[] lambdas) {
+                if (newArray == null || intConstant(newArray.getPrevious()) != lambdas.length)
+                    return false;
+
+                List<AbstractInsnNode> remove = new ArrayList<>();
+                remove.add(newArray.getPrevious());
+                remove.add(newArray);
+                AbstractInsnNode insn = newArray;
+                for (int i = 0; i < lambdas.length; i++) {
+                    // dup, index, <captured arguments>, <lambda>, aastore
+                    insn = nextCode(insn);
+                    if (insn == null || insn.getOpcode() != Opcodes.DUP)
+                        return false;
+                    remove.add(insn);
+                    insn = nextCode(insn);
+                    if (intConstant(insn) != i)
+                        return false;
+                    remove.add(insn);
+
+                    while (insn != null && insn != lambdas[i].insn())
+                        insn = insn.getNext();
+                    insn = nextCode(insn);
+                    if (insn == null || insn.getOpcode() != Opcodes.AASTORE)
+                        return false;
+                    remove.add(insn);
+                }
+
+                if (nextCode(insn) != null)
+                    return false;
+                for (AbstractInsnNode node : remove)
+                    newMethod.instructions.remove(node);
+                return true;
+            }
+
+            /* Simulate the remaining instructions */
+            @Override public void visitInsn(int opcode) { super.visitInsn(opcode); if (sim != null) sim.visitInsn(opcode); }
+            @Override public void visitIntInsn(int opcode, int operand) { super.visitIntInsn(opcode, operand); if (sim != null) sim.visitIntInsn(opcode, operand); }
+            @Override public void visitVarInsn(int opcode, int varIndex) { super.visitVarInsn(opcode, varIndex); if (sim != null) sim.visitVarInsn(opcode, varIndex); }
+            @Override public void visitTypeInsn(int opcode, String type) {
+                int ordinal = typeInsnOrdinal++;
+                super.visitTypeInsn(opcode, type);
+                if (sim != null) sim.visitTypeInsn(opcode, type);
+                if (opcode == Opcodes.ANEWARRAY && "java/util/function/Supplier".equals(type)) {
+                    supplierArrays.put(ordinal, newMethod.instructions.getLast());
                 }
             }
+            @Override public void visitJumpInsn(int opcode, Label label) { super.visitJumpInsn(opcode, label); if (sim != null) sim.visitJumpInsn(opcode, label); }
+            @Override public void visitLabel(Label label) { super.visitLabel(label); if (sim != null) sim.visitLabel(label); }
+            @Override public void visitLdcInsn(Object value) { super.visitLdcInsn(value); if (sim != null) sim.visitLdcInsn(value); }
+            @Override public void visitIincInsn(int varIndex, int increment) { super.visitIincInsn(varIndex, increment); if (sim != null) sim.visitIincInsn(varIndex, increment); }
+            @Override public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) { super.visitTableSwitchInsn(min, max, dflt, labels); if (sim != null) sim.visitTableSwitchInsn(min, max, dflt, labels); }
+            @Override public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) { super.visitLookupSwitchInsn(dflt, keys, labels); if (sim != null) sim.visitLookupSwitchInsn(dflt, keys, labels); }
+            @Override public void visitMultiANewArrayInsn(String descriptor, int numDimensions) { super.visitMultiANewArrayInsn(descriptor, numDimensions); if (sim != null) sim.visitMultiANewArrayInsn(descriptor, numDimensions); }
+            @Override public void visitTryCatchBlock(Label start, Label end, Label handler, String type) { super.visitTryCatchBlock(start, end, handler, type); if (sim != null) sim.visitTryCatchBlock(start, end, handler, type); }
+            @Override public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) { super.visitFrame(type, numLocal, local, numStack, stack); if (sim != null) sim.visitFrame(type, numLocal, local, numStack, stack); }
 
             @Override
             public void visitEnd() {
-                for (var hook : hooks) hook.leaveMethod(context);
+                var leaveHooks = hooks.get(DependencyAnalysisHook.Event.LEAVE_METHOD);
+                if (metrics != null) metrics.hooksCalled(AbstractionMetrics.HookCall.LEAVE_METHOD, leaveHooks.length);
+                for (var hook : leaveHooks) hook.leaveMethod(context);
                 context.leaveMethod();
                 methodAnalysis.complete = true;
             }
@@ -611,14 +1065,18 @@ public class ClassDependencyAnalyzer {
      * Analyze the class to locate and analyze it's dependencies, and set
      * the result to be retrievable by {@link #getClassAnalysis()}.
      *
+     * The caller must hold the analysis lock of the abstraction manager,
+     * as this mutates the shared reference analysis graph.
+     *
      * @return This.
      */
     public ClassDependencyAnalyzer analyzeAndTransform() {
         /* find dependencies */
+        final AnalysisContext context = new AnalysisContext(abstractionManager); // shared by the methods to reuse the simulators
         classNode.accept(new ClassVisitor(ASMUtil.ASM_V) {
             @Override
             public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
-                ReferenceInfo info = new ReferenceInfo(internalName, className, name, descriptor, Type.getMethodType(descriptor), Modifier.isStatic(access));
+                ReferenceInfo info = references.get(references.intern(internalName, name, descriptor, Modifier.isStatic(access)));
 
                 // check for cached
                 var analysis = getReferenceAnalysis(info);
@@ -626,16 +1084,16 @@ public class ClassDependencyAnalyzer {
                     return null;
 
                 // create analysis, visit method and register result
-                return methodVisitor(new AnalysisContext(abstractionManager), info, new ReferenceAnalysis(ClassDependencyAnalyzer.this, info), ASMUtil.findMethod(classNode, name, descriptor));
+                return methodVisitor(context, info, new ReferenceAnalysis(ClassDependencyAnalyzer.this, info), ASMUtil.findMethod(classNode, name, descriptor));
             }
 
             @Override
             public void visitEnd() {
                 // post-analyze all methods
                 for (MethodNode methodNode : classNode.methods) {
-                    ReferenceAnalysis analysis = getReferenceAnalysis(ReferenceInfo.forMethodInfo(internalName, methodNode.name, methodNode.desc, Modifier.isStatic(methodNode.access)));
+                    ReferenceAnalysis analysis = abstractionManager.getMethodAnalysis(references.intern(internalName, methodNode.name, methodNode.desc, Modifier.isStatic(methodNode.access)));
                     if (analysis.optionalReferenceNumber < 0 || abstractionManager.getRequiredMethodPredicate().test(analysis)) {
-                        analysis.referenceRequired(new AnalysisContext(abstractionManager));
+                        fireReferenceEvent(new AnalysisContext(abstractionManager), analysis, ReferenceEvent.Kind.REQUIRED);
                     }
 
                     analysis.postAnalyze();
@@ -677,6 +1135,60 @@ public class ClassDependencyAnalyzer {
         return classAnalysis;
     }
 
+    /**
+     * Get the implementation independent structure of the class, this
+     * is null if the tree was released or the analyzer was restored.
+     */
+    public ClassStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Check whether writing the given method of the class tree results in
+     * different code than the original method, so it's stack map frames have
+     * to be recomputed. Only final once the class analysis completed.
+     *
+     * @param method The method node in the class tree.
+     * @return Whether the code was changed.
+     */
+    public boolean isMethodChanged(MethodNode method) {
+        MethodChanges changes = methodChanges.get(method);
+        return changes != null && changes.isChanged();
+    }
+
+    /**
+     * Drop the class tree and reader once the class has been written, keeping
+     * only the analysis results. Must be called with the analysis lock held.
+     */
+    public void releaseClassTree() {
+        if (!classAnalysis.completed)
+            throw new IllegalStateException("Can not release the tree of " + className + " before the analysis completed");
+        this.classNode = null;
+        this.classReader = null;
+        this.classBytes = null;
+        this.structure = null;
+        this.methodChanges.clear();
+    }
+
+    /**
+     * Whether the class tree of this analyzer was read from the given class
+     * file. A class defined again from other bytes, for example by another
+     * class loader, has to be analyzed again.
+     *
+     * @param bytes The class bytes.
+     * @return Whether the bytes are the same as the ones read.
+     */
+    public boolean isReadFrom(byte[] bytes) {
+        byte[] classBytes = this.classBytes;
+        return classBytes != null && (classBytes == bytes || Arrays.equals(classBytes, bytes));
+    }
+
+    /**
+     * Get the class tree being transformed, this is null if the tree
+     * was released or the analyzer was restored from analysis results.
+     *
+     * @return The class node or null.
+     */
     public ClassNode getClassNode() {
         return classNode;
     }
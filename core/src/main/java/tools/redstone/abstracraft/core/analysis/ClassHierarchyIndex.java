@@ -0,0 +1,227 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import tools.redstone.abstracraft.core.util.ClassFileSource;
+import tools.redstone.abstracraft.core.util.ReflectUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Answers subtype queries by internal class name from the headers of class
+ * files (the super class and interfaces), read lazily through a class loader's
+ * resources, so no class has to be loaded or initialized to answer them.
+ *
+ * Classes which have no class file resource, like generated classes, fall back
+ * to the class if it was already loaded, and are otherwise unknown. Unknown
+ * classes are not a subtype of anything but themselves. Nothing is cached for
+ * unknown classes, as they could still be defined later.
+ *
+ * The results of subtype checks are cached per index, and so per manager, as
+ * the class files are found through the loaders of the manager.
+ *
+ * @author orbyfied
+ */
+public class ClassHierarchyIndex {
+
+    /** The header of one class. */
+    public record Entry(String name, String superName, String[] interfaces, boolean isInterface) { }
+
+    /* Results of subtype checks */
+    static final int NOT_SUBTYPE = 0;
+    static final int SUBTYPE = 1;
+    static final int NOT_KNOWN = 2; // Not a subtype as far as known, as the header of a super type could not be found
+
+    final ClassFileSource source;                                                      // The class files to read the headers from
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();                      // The headers by internal name
+    final Map<String, Map<String, Boolean>> subtypeResults = new ConcurrentHashMap<>(); // The results of subtype checks with known classes by super type and class name
+
+    public ClassHierarchyIndex(ClassFileSource source) {
+        this.source = source;
+    }
+
+    public ClassHierarchyIndex(Supplier<ClassLoader> loaderSupplier) {
+        this(new ClassFileSource(loaderSupplier, __ -> false));
+    }
+
+    public ClassHierarchyIndex(ClassLoader loader) {
+        this(() -> loader);
+    }
+
+    /**
+     * Register the header of a class which was already parsed.
+     *
+     * @param reader The class reader.
+     */
+    public void register(ClassReader reader) {
+        entries.putIfAbsent(reader.getClassName(), new Entry(reader.getClassName(), reader.getSuperName(),
+                reader.getInterfaces(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+    }
+
+    /** Forget the header of the given class, for example once it was redefined. */
+    public void evict(String internalName) {
+        entries.remove(internalName);
+        subtypeResults.clear(); // the subtypes of the class could have changed too
+    }
+
+    /**
+     * Get the header of the given class.
+     *
+     * @param internalName The internal name.
+     * @return The entry or null if the class could not be found.
+     */
+    public Entry get(String internalName) {
+        Entry entry = entries.get(internalName);
+        if (entry == null) {
+            entry = read(internalName);
+            if (entry == null)
+                return null;
+            Entry prev = entries.putIfAbsent(internalName, entry);
+            if (prev != null)
+                entry = prev;
+        }
+
+        return entry;
+    }
+
+    // Read the header of the given class from it's class file
+    private Entry read(String internalName) {
+        ClassLoader loader = source.getLoader();
+        try {
+            // the reader only parses the constant pool and header eagerly,
+            // and is shared with the analysis if the class is audited
+            var file = source.get(internalName);
+            if (file != null) {
+                ClassReader reader = file.reader();
+                return new Entry(reader.getClassName(), reader.getSuperName(),
+                        reader.getInterfaces(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+            }
+        } catch (Exception e) {
+            System.err.println("WARNING Failed to read class header of " + internalName + ": " + e);
+            return null;
+        }
+
+        // generated classes may still be loaded
+        Class<?> klass = ReflectUtil.findLoadedClass(loader, internalName.replace('/', '.'));
+        if (klass == null)
+            return null;
+        Class<?>[] itfs = klass.getInterfaces();
+        String[] interfaces = new String[itfs.length];
+        for (int i = 0; i < itfs.length; i++)
+            interfaces[i] = Type.getInternalName(itfs[i]);
+        return new Entry(internalName, klass.getSuperclass() != null ? Type.getInternalName(klass.getSuperclass()) : null,
+                interfaces, klass.isInterface());
+    }
+
+    /**
+     * Check whether the given class is the given super type or
+     * extends or implements it, directly or indirectly.
+     *
+     * @param internalName The internal name of the class.
+     * @param superName The internal name of the super class or interface.
+     * @return Whether it is a subtype.
+     */
+    public boolean isSubtypeOf(String internalName, String superName) {
+        return checkSubtype(internalName, superName) == SUBTYPE;
+    }
+
+    // Check whether the given class is a subtype of the given super type, caching
+    // the result unless the header of a class in the hierarchy was not found
+    private int checkSubtype(String internalName, String superName) {
+        if (internalName == null)
+            return NOT_SUBTYPE;
+        if (internalName.equals(superName) || "java/lang/Object".equals(superName))
+            return SUBTYPE;
+
+        Map<String, Boolean> results = subtypeResults.get(superName);
+        Boolean cached = results != null ? results.get(internalName) : null;
+        if (cached != null)
+            return cached ? SUBTYPE : NOT_SUBTYPE;
+
+        Entry entry = get(internalName);
+        if (entry == null)
+            return NOT_KNOWN;
+        int result = checkSubtype(entry.superName, superName);
+        for (int i = 0; i < entry.interfaces.length && result != SUBTYPE; i++) {
+            int itfResult = checkSubtype(entry.interfaces[i], superName);
+            if (itfResult != NOT_SUBTYPE)
+                result = itfResult;
+        }
+
+        if (result != NOT_KNOWN)
+            subtypeResults.computeIfAbsent(superName, __ -> new ConcurrentHashMap<>()).put(internalName, result == SUBTYPE);
+        return result;
+    }
+
+    /**
+     * Whether the given class is an interface, false if unknown.
+     */
+    public boolean isInterface(String internalName) {
+        Entry entry = get(internalName);
+        return entry != null && entry.isInterface;
+    }
+
+    /**
+     * Find the most specific common super class of the given classes, like
+     * {@link ClassWriter#getCommonSuperClass(String, String)} does through
+     * loaded classes.
+     *
+     * @param type1 The internal name of the first class.
+     * @param type2 The internal name of the second class.
+     * @return The internal name of the common super class.
+     * @throws TypeNotPresentException If a class in the hierarchy of either class
+     *                                 can not be found, like the class writer throws.
+     */
+    public String getCommonSuperClass(String type1, String type2) {
+        int result = checkSubtype(type2, type1);
+        if (result == SUBTYPE)
+            return type1;
+        int reverse = checkSubtype(type1, type2);
+        if (reverse == SUBTYPE)
+            return type2;
+        if (result == NOT_KNOWN || reverse == NOT_KNOWN)
+            throw new TypeNotPresentException(findUnknown(type1) != null ? findUnknown(type1) : findUnknown(type2), null);
+        if (isInterface(type1) || isInterface(type2))
+            return "java/lang/Object";
+
+        // all super types of both classes are known now
+        String type = type1;
+        while (!isSubtypeOf(type2, type))
+            type = get(type).superName;
+        return type;
+    }
+
+    // Find the first class in the hierarchy of the given class with an unknown header
+    private String findUnknown(String internalName) {
+        if (internalName == null)
+            return null;
+        Entry entry = get(internalName);
+        if (entry == null)
+            return internalName;
+        String unknown = findUnknown(entry.superName);
+        for (int i = 0; i < entry.interfaces.length && unknown == null; i++)
+            unknown = findUnknown(entry.interfaces[i]);
+        return unknown;
+    }
+
+    /**
+     * Create a class writer which computes common super classes
+     * through this index instead of loading classes.
+     *
+     * @param flags The writer flags.
+     * @return The writer.
+     */
+    public ClassWriter newClassWriter(int flags) {
+        return new ClassWriter(flags) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return ClassHierarchyIndex.this.getCommonSuperClass(type1, type2);
+            }
+        };
+    }
+
+}
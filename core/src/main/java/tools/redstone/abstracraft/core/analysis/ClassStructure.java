@@ -0,0 +1,174 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import tools.redstone.abstracraft.core.util.ASMUtil;
+
+import java.util.*;
+
+/**
+ * The facts about a class which do not depend on the implementations, the
+ * hooks or the manager analyzing it: which lambdas and supplier arrays are
+ * passed to each call of a {@link tools.redstone.abstracraft.core.usage.Usage}
+ * method. Resolving them requires simulating every method, so the structure
+ * is computed once per class file and shared through a {@link ClassStructureCache}
+ * between all managers analyzing it, which only have to specialize the code.
+ *
+ * Instructions are identified by their ordinal among the instructions of the
+ * same kind in the original method, which is the same for every tree parsed
+ * from the same class file. Instances are immutable.
+ *
+ * @author orbyfied
+ */
+public final class ClassStructure {
+
+    /**
+     * The lambdas passed to one call of a usage method, by the ordinals of the
+     * invokedynamic instructions creating them, and the ordinal of the type
+     * instruction creating the supplier array they were passed in, or -1.
+     */
+    public record UsageSite(int[] lambdas, int array) { }
+
+    /**
+     * The structure of one method, the usage sites by the ordinal of the method
+     * instruction calling the usage method, null if the call could not be resolved
+     * or is not a call to a usage method.
+     */
+    public record MethodStructure(UsageSite[] usageSites) {
+        static final MethodStructure EMPTY = new MethodStructure(new UsageSite[0]);
+
+        public UsageSite usageSite(int methodInsnOrdinal) {
+            return methodInsnOrdinal < usageSites.length ? usageSites[methodInsnOrdinal] : null;
+        }
+    }
+
+    // A lambda created by the invokedynamic instruction with the given ordinal
+    record LambdaRef(int ordinal) { }
+
+    static final String NAME_Usage = ClassDependencyAnalyzer.NAME_Usage;
+
+    final String internalName;                     // The internal name of the class
+    final Map<String, MethodStructure> methods;    // The method structures by name and descriptor
+
+    private ClassStructure(String internalName, Map<String, MethodStructure> methods) {
+        this.internalName = internalName;
+        this.methods = methods;
+    }
+
+    public String getInternalName() {
+        return internalName;
+    }
+
+    /**
+     * Get the structure of the given method.
+     *
+     * @param name The method name.
+     * @param desc The method descriptor.
+     * @return The structure, empty if the method is unknown.
+     */
+    public MethodStructure getMethod(String name, String desc) {
+        MethodStructure method = methods.get(name + desc);
+        return method != null ? method : MethodStructure.EMPTY;
+    }
+
+    /** Whether the given lambda factory is the one used for lambdas and method references. */
+    static boolean isLambdaFactory(Handle bootstrapMethodHandle) {
+        return bootstrapMethodHandle.getOwner().equals("java/lang/invoke/LambdaMetafactory") &&
+                bootstrapMethodHandle.getName().equals("metafactory");
+    }
+
+    /**
+     * Compute the structure of the given class tree, which must not be
+     * transformed yet. The tree is only read.
+     *
+     * @param classNode The class tree.
+     * @return The structure.
+     */
+    public static ClassStructure compute(ClassNode classNode) {
+        Map<String, MethodStructure> methods = new HashMap<>();
+        StackSimulator sim = new StackSimulator();
+        for (MethodNode method : classNode.methods) {
+            if (method.instructions.size() == 0)
+                continue;
+            methods.put(method.name + method.desc, computeMethod(sim, method));
+        }
+
+        return new ClassStructure(classNode.name, methods);
+    }
+
+    // Simulate the given method to resolve it's usage sites
+    private static MethodStructure computeMethod(StackSimulator sim, MethodNode method) {
+        List<UsageSite> sites = new ArrayList<>();
+        Map<Object[], Integer> supplierArrays = new IdentityHashMap<>();
+        sim.reset(method);
+        method.accept(new MethodVisitor(ASMUtil.ASM_V, sim) {
+            int methodInsns = 0; // The amount of method instructions visited
+            int indyInsns = 0;   // The amount of invokedynamic instructions visited
+            int typeInsns = 0;   // The amount of type instructions visited
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                int ordinal = indyInsns++;
+                if (isLambdaFactory(bootstrapMethodHandle)) {
+                    sim.invokeDynamic(descriptor, new LambdaRef(ordinal));
+                } else {
+                    sim.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+                }
+            }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) {
+                int ordinal = typeInsns++;
+                sim.visitTypeInsn(opcode, type);
+                if (opcode == Opcodes.ANEWARRAY && "java/util/function/Supplier".equals(type) && sim.peek() instanceof Object[] array) {
+                    supplierArrays.put(array, ordinal);
+                }
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                int ordinal = methodInsns++;
+                UsageSite site = null;
+                if (NAME_Usage.equals(owner) && ("optionally".equals(name) || "isImplemented".equals(name))) {
+                    if (sim.peek() instanceof LambdaRef lambda)
+                        site = new UsageSite(new int[] { lambda.ordinal }, -1);
+                } else if (NAME_Usage.equals(owner) && "requireAtLeastOne".equals(name) && "([Ljava/util/function/Supplier;)Ljava/lang/Object;".equals(descriptor)) {
+                    if (sim.peek() instanceof Object[] array && allLambdas(array)) {
+                        int[] lambdas = new int[array.length];
+                        for (int i = 0; i < array.length; i++)
+                            lambdas[i] = ((LambdaRef) array[i]).ordinal;
+                        site = new UsageSite(lambdas, supplierArrays.getOrDefault(array, -1));
+                    }
+                }
+
+                if (site == null) {
+                    sim.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                    return;
+                }
+
+                // the call consumes the lambda or array, like
+                // it is transformed by the dependency analyzer
+                while (sites.size() < ordinal)
+                    sites.add(null);
+                sites.add(site);
+                sim.pop();
+                sim.push(StackSimulator.Unknown.of(Type.getReturnType(descriptor)));
+            }
+        });
+
+        return sites.isEmpty() ? MethodStructure.EMPTY : new MethodStructure(sites.toArray(new UsageSite[0]));
+    }
+
+    // Check whether the given simulated array only contains lambdas
+    private static boolean allLambdas(Object[] array) {
+        for (Object o : array)
+            if (!(o instanceof LambdaRef))
+                return false;
+        return true;
+    }
+
+}
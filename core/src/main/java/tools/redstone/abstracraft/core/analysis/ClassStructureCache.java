@@ -0,0 +1,77 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shares the {@link ClassStructure} of each class file between all managers
+ * using this cache, by default every manager in the JVM, see {@link #shared()}.
+ *
+ * Entries are keyed by internal class name and only reused for the exact
+ * same class bytes, so managers loading different versions of a class do
+ * not interfere. They are only kept softly.
+ *
+ * @author orbyfied
+ */
+public class ClassStructureCache {
+
+    static final ClassStructureCache SHARED = new ClassStructureCache();
+
+    /** Get the cache shared by every manager in this JVM by default. */
+    public static ClassStructureCache shared() {
+        return SHARED;
+    }
+
+    // The structure of a class file and the bytes it was computed from
+    record Entry(byte[] bytes, ClassStructure structure) { }
+
+    final Map<String, SoftReference<Entry>> entries = new ConcurrentHashMap<>(); // The entries by internal class name
+    final LongAdder hits = new LongAdder();                                     // The amount of structures reused
+    final LongAdder misses = new LongAdder();                                   // The amount of structures not found
+
+    /**
+     * Find the structure computed from the given class bytes.
+     *
+     * @param internalName The internal class name.
+     * @param bytes The class bytes.
+     * @return The structure or null.
+     */
+    public ClassStructure find(String internalName, byte[] bytes) {
+        SoftReference<Entry> ref = entries.get(internalName);
+        Entry entry = ref != null ? ref.get() : null;
+        if (entry != null && (entry.bytes == bytes || Arrays.equals(entry.bytes, bytes))) {
+            hits.increment();
+            return entry.structure;
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Store the structure computed from the given class bytes,
+     * replacing the structure of other bytes of the same class.
+     *
+     * @param bytes The class bytes.
+     * @param structure The structure.
+     */
+    public void put(byte[] bytes, ClassStructure structure) {
+        entries.put(structure.getInternalName(), new SoftReference<>(new Entry(bytes, structure)));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+}
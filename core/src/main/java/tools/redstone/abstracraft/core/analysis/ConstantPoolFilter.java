@@ -0,0 +1,61 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Scans the constant pool of a class without building a tree or
+ * visiting any code, to quickly decide whether the class could possibly
+ * reference anything relevant to the dependency analysis.
+ *
+ * Every field or method a class uses has to be present in its constant pool
+ * as a member reference, so a class with no relevant member references can
+ * be defined from its original bytes.
+ *
+ * @author orbyfied
+ */
+public class ConstantPoolFilter {
+
+    private ConstantPoolFilter() { }
+
+    /* Constant pool tags */
+    static final int TAG_FIELDREF = 9;
+    static final int TAG_METHODREF = 10;
+    static final int TAG_INTERFACE_METHODREF = 11;
+
+    /** Tests one member reference in the constant pool. */
+    public interface MemberRefPredicate {
+        boolean test(boolean isField, String owner, String name, String descriptor);
+    }
+
+    /**
+     * Check whether any field or method reference in the constant pool
+     * of the given class matches the given predicate.
+     *
+     * @param reader The class reader.
+     * @param predicate The predicate.
+     * @return Whether any member reference matched.
+     */
+    public static boolean anyMemberRef(ClassReader reader, MemberRefPredicate predicate) {
+        char[] buf = new char[reader.getMaxStringLength()];
+        for (int i = 1, n = reader.getItemCount(); i < n; i++) {
+            int offset = reader.getItem(i);
+            if (offset == 0)
+                continue; // second slot of a long or double
+
+            int tag = reader.readByte(offset - 1);
+            if (tag != TAG_FIELDREF && tag != TAG_METHODREF && tag != TAG_INTERFACE_METHODREF)
+                continue;
+
+            String owner = reader.readClass(offset, buf);
+            int nameAndType = reader.getItem(reader.readUnsignedShort(offset + 2));
+            String name = reader.readUTF8(nameAndType, buf);
+            String descriptor = reader.readUTF8(nameAndType + 2, buf);
+
+            if (predicate.test(tag == TAG_FIELDREF, owner, name, descriptor))
+                return true;
+        }
+
+        return false;
+    }
+
+}
@@ -2,11 +2,63 @@ package tools.redstone.abstracraft.core.analysis;
 
 import tools.redstone.abstracraft.core.AbstractionManager;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Used to extend functionality of the dependency analyzer.
  */
 public interface DependencyAnalysisHook {
 
+    /**
+     * The events a hook can be called for, by the hook method handling it.
+     * The hooks are only called for the events they declare, see {@link #events()}.
+     */
+    enum Event {
+        IS_DEPENDENCY_CANDIDATE("isDependencyCandidate", AnalysisContext.class, ReferenceInfo.class),
+        REQUIRES_ANALYSIS("requiresAnalysis", ReferenceInfo.class),
+        CHECK_IMPLEMENTED("checkImplemented", AbstractionManager.class, ReferenceInfo.class, Class.class),
+        REQUIRED_REFERENCE("requiredReference", AnalysisContext.class, ClassDependencyAnalyzer.ReferenceAnalysis.class),
+        OPTIONAL_REFERENCE("optionalReference", AnalysisContext.class, ClassDependencyAnalyzer.ReferenceAnalysis.class),
+        ENTER_METHOD("enterMethod", AnalysisContext.class),
+        LEAVE_METHOD("leaveMethod", AnalysisContext.class);
+
+        final String methodName;      // The name of the hook method handling this event
+        final Class<?>[] parameters;  // The parameter types of the hook method
+
+        Event(String methodName, Class<?>... parameters) {
+            this.methodName = methodName;
+            this.parameters = parameters;
+        }
+
+        /** Whether this event is about a single referenced field or method. */
+        public boolean isReferenceEvent() {
+            return this != ENTER_METHOD && this != LEAVE_METHOD;
+        }
+
+        /**
+         * Get the events the given hook class handles, those
+         * for which it overrides the default hook method.
+         *
+         * @param hookClass The hook class.
+         * @return The events.
+         */
+        public static Set<Event> overriddenBy(Class<?> hookClass) {
+            Set<Event> events = EnumSet.noneOf(Event.class);
+            for (Event event : values()) {
+                try {
+                    if (hookClass.getMethod(event.methodName, event.parameters).getDeclaringClass() != DependencyAnalysisHook.class)
+                        events.add(event);
+                } catch (NoSuchMethodException e) {
+                    // can not happen for implementations
+                    events.add(event);
+                }
+            }
+
+            return events;
+        }
+    }
+
     interface ReferenceHook {
         // When the optional block this method was
         // called in is discarded
@@ -37,6 +89,26 @@ public interface DependencyAnalysisHook {
     // Is dependency checks
     default Boolean isDependencyCandidate(AnalysisContext context, ReferenceInfo ref) { return null; }
 
+    // Whether a class referencing the given field or method has to be analyzed
+    // even if it references no dependency candidates, checked by the pre-filter
+    default boolean requiresAnalysis(ReferenceInfo ref) { return false; }
+
+    // Whether this hook uses the compute stack of the analyzed methods, see AnalysisContext#currentComputeStack,
+    // which is only simulated during the analysis of a manager if one of it's hooks requires it
+    default boolean requiresComputeStack() { return true; }
+
+    // The events this hook is called for, by default those it overrides the hook
+    // method of, read once when the hook is registered, see HookDispatch
+    default Set<Event> events() { return Event.overriddenBy(getClass()); }
+
+    // The prefixes of the internal names of the owners of the references this hook is called
+    // for in reference events, like "com/example/api/", or null for all references
+    default String[] ownerPrefixes() { return null; }
+
+    // The configuration of this hook which influences the transformation, included with the class file of the hook in
+    // the environment fingerprint of the manager, hooks with parameters like the built-in ones must include them here
+    default String fingerprint() { return ""; }
+
     // Dependency presence checks
     default Boolean checkImplemented(AbstractionManager manager, ReferenceInfo ref, Class<?> refClass) throws Throwable { return null; }
 
@@ -0,0 +1,137 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import java.util.*;
+
+/**
+ * The required dependencies of a method, as the IDs of the references in the
+ * {@link ReferenceTable} of the manager.
+ *
+ * The dependencies of called methods are not copied into the caller, adding
+ * the set of a callee only links it, so the storage is linear in the amount
+ * of call sites instead of growing with the length of every call chain. The
+ * union is flattened and deduplicated when the dependencies are read, which
+ * only happens for the blocks passed to usage methods and when caching.
+ *
+ * Entries are kept in insertion order, negative entries refer to linked sets.
+ * Sets without entries share an empty array.
+ *
+ * @author orbyfied
+ */
+public final class DependencySet {
+
+    static final int[] NO_ENTRIES = new int[0];
+    static final DependencySet[] NO_LINKS = new DependencySet[0];
+
+    final ReferenceTable references;        // The table the IDs refer to
+    int[] entries = NO_ENTRIES;             // The reference IDs and links (as -index - 1) in insertion order
+    int entryCount = 0;
+    DependencySet[] links = NO_LINKS;       // The linked sets of called methods
+    int linkCount = 0;
+
+    public DependencySet(ReferenceTable references) {
+        this.references = references;
+    }
+
+    private void addEntry(int entry) {
+        if (entryCount == entries.length)
+            entries = Arrays.copyOf(entries, Math.max(4, entryCount * 2));
+        entries[entryCount++] = entry;
+    }
+
+    /**
+     * Add the reference with the given ID.
+     *
+     * @param id The reference ID.
+     */
+    public void add(int id) {
+        addEntry(id);
+    }
+
+    /** Add the given reference, interning it if needed. */
+    public void add(ReferenceInfo info) {
+        add(references.intern(info));
+    }
+
+    /**
+     * Add all dependencies of the given set, including those it gains later.
+     *
+     * @param set The set to link.
+     */
+    public void addAll(DependencySet set) {
+        if (set == null || set == this)
+            return;
+        if (linkCount == links.length)
+            links = Arrays.copyOf(links, Math.max(2, linkCount * 2));
+        links[linkCount++] = set;
+        addEntry(-linkCount);
+    }
+
+    /**
+     * Flatten this set into the distinct reference IDs,
+     * in the order they were first added.
+     *
+     * @return The IDs.
+     */
+    public int[] toIds() {
+        if (linkCount == 0 && entryCount <= 1)
+            return Arrays.copyOf(entries, entryCount);
+
+        BitSet seen = new BitSet();
+        Set<DependencySet> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[] result = new int[Math.max(entryCount, 4)];
+        int size = 0;
+
+        // iterative depth first walk, so long
+        // chains of linked sets can not overflow
+        Deque<DependencySet> setStack = new ArrayDeque<>();
+        Deque<Integer> indexStack = new ArrayDeque<>();
+        visited.add(this);
+        setStack.push(this);
+        indexStack.push(0);
+        while (!setStack.isEmpty()) {
+            DependencySet set = setStack.peek();
+            int i = indexStack.pop();
+            if (i >= set.entryCount) {
+                setStack.pop();
+                continue;
+            }
+
+            indexStack.push(i + 1);
+            int entry = set.entries[i];
+            if (entry < 0) {
+                DependencySet link = set.links[-entry - 1];
+                if (visited.add(link)) {
+                    setStack.push(link);
+                    indexStack.push(0);
+                }
+            } else if (!seen.get(entry)) {
+                seen.set(entry);
+                if (size == result.length)
+                    result = Arrays.copyOf(result, size * 2);
+                result[size++] = entry;
+            }
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Flatten this set into the distinct references,
+     * in the order they were first added.
+     *
+     * @return The immutable list of references.
+     */
+    public List<ReferenceInfo> toList() {
+        int[] ids = toIds();
+        ReferenceInfo[] infos = new ReferenceInfo[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            infos[i] = references.get(ids[i]);
+        return List.of(infos);
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+}
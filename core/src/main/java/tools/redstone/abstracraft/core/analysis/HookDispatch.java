@@ -0,0 +1,160 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook.Event;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable set of analysis hooks compiled into one array of hooks per
+ * {@link Event}, holding only the hooks which declared the event, in
+ * registration order. Dispatching an event iterates the array without
+ * allocating or calling hooks which do not handle it.
+ *
+ * Hooks which declared {@link DependencyAnalysisHook#ownerPrefixes()} are
+ * only included in the arrays for reference events of owners matching one of
+ * their prefixes. These arrays are computed once per event and owner class.
+ *
+ * @author orbyfied
+ */
+public final class HookDispatch {
+
+    static final DependencyAnalysisHook[] NO_HOOKS = new DependencyAnalysisHook[0];
+    static final Event[] EVENTS = Event.values();
+
+    /** The dispatch without any hooks. */
+    public static final HookDispatch EMPTY = new HookDispatch(List.of());
+
+    final List<DependencyAnalysisHook> hooks;                   // All hooks in registration order
+    final DependencyAnalysisHook[][] byEvent;                   // The hooks handling each event, for any owner
+    final String[][][] prefixes;                                // The owner prefixes of the hooks in byEvent, null entries match every owner
+    final Map<String, DependencyAnalysisHook[]>[] byOwner;      // The hooks handling each reference event by owner, null if no hook of the event filters owners
+    final boolean computeStackRequired;                         // Whether any hook requires the compute stack
+
+    @SuppressWarnings("unchecked")
+    private HookDispatch(List<DependencyAnalysisHook> hooks) {
+        this.hooks = List.copyOf(hooks);
+        this.byEvent = new DependencyAnalysisHook[EVENTS.length][];
+        this.prefixes = new String[EVENTS.length][][];
+        this.byOwner = (Map<String, DependencyAnalysisHook[]>[]) new Map<?, ?>[EVENTS.length];
+
+        Set<Event>[] declaredEvents = (Set<Event>[]) new Set<?>[hooks.size()];
+        String[][] ownerPrefixes = new String[hooks.size()][];
+        boolean computeStackRequired = false;
+        for (int i = 0; i < hooks.size(); i++) {
+            DependencyAnalysisHook hook = hooks.get(i);
+            declaredEvents[i] = hook.events();
+            ownerPrefixes[i] = hook.ownerPrefixes();
+            computeStackRequired |= hook.requiresComputeStack();
+        }
+
+        for (Event event : EVENTS) {
+            List<DependencyAnalysisHook> eventHooks = new ArrayList<>();
+            List<String[]> eventPrefixes = new ArrayList<>();
+            boolean filtered = false;
+            for (int i = 0; i < hooks.size(); i++) {
+                if (!declaredEvents[i].contains(event))
+                    continue;
+                String[] hookPrefixes = event.isReferenceEvent() ? ownerPrefixes[i] : null;
+                eventHooks.add(hooks.get(i));
+                eventPrefixes.add(hookPrefixes);
+                filtered |= hookPrefixes != null;
+            }
+
+            byEvent[event.ordinal()] = eventHooks.isEmpty() ? NO_HOOKS : eventHooks.toArray(NO_HOOKS);
+            prefixes[event.ordinal()] = filtered ? eventPrefixes.toArray(new String[0][]) : null;
+            byOwner[event.ordinal()] = filtered ? new ConcurrentHashMap<>() : null;
+        }
+
+        this.computeStackRequired = computeStackRequired;
+    }
+
+    /**
+     * Compile the given hooks.
+     *
+     * @param hooks The hooks in registration order.
+     * @return The dispatch.
+     */
+    public static HookDispatch compile(List<DependencyAnalysisHook> hooks) {
+        return hooks.isEmpty() ? EMPTY : new HookDispatch(hooks);
+    }
+
+    /**
+     * Compile the hooks of this dispatch with the given hook added,
+     * a hook which is already registered is not added again.
+     *
+     * @param hook The hook.
+     * @return The new dispatch.
+     */
+    public HookDispatch with(DependencyAnalysisHook hook) {
+        if (hooks.contains(hook))
+            return this;
+        List<DependencyAnalysisHook> list = new ArrayList<>(hooks);
+        list.add(hook);
+        return new HookDispatch(list);
+    }
+
+    /** Get all hooks in registration order. */
+    public List<DependencyAnalysisHook> getHooks() {
+        return hooks;
+    }
+
+    /** Whether any hook requires the compute stack, see {@link DependencyAnalysisHook#requiresComputeStack()}. */
+    public boolean isComputeStackRequired() {
+        return computeStackRequired;
+    }
+
+    /**
+     * Get the hooks handling the given event, including those only handling
+     * references to some owners. Use {@link #get(Event, String)} for reference events.
+     *
+     * @param event The event.
+     * @return The hooks, the array must not be modified.
+     */
+    public DependencyAnalysisHook[] get(Event event) {
+        return byEvent[event.ordinal()];
+    }
+
+    /**
+     * Get the hooks handling the given reference event for a
+     * reference to a field or method of the given owner.
+     *
+     * @param event The event.
+     * @param ownerInternalName The internal name of the owner class.
+     * @return The hooks, the array must not be modified.
+     */
+    public DependencyAnalysisHook[] get(Event event, String ownerInternalName) {
+        Map<String, DependencyAnalysisHook[]> owners = byOwner[event.ordinal()];
+        if (owners == null)
+            return byEvent[event.ordinal()];
+
+        DependencyAnalysisHook[] result = owners.get(ownerInternalName);
+        if (result == null) {
+            result = filter(event, ownerInternalName);
+            owners.putIfAbsent(ownerInternalName, result);
+        }
+
+        return result;
+    }
+
+    // Select the hooks of the given event matching the given owner
+    private DependencyAnalysisHook[] filter(Event event, String ownerInternalName) {
+        DependencyAnalysisHook[] eventHooks = byEvent[event.ordinal()];
+        String[][] eventPrefixes = prefixes[event.ordinal()];
+        List<DependencyAnalysisHook> result = new ArrayList<>(eventHooks.length);
+        for (int i = 0; i < eventHooks.length; i++)
+            if (matches(eventPrefixes[i], ownerInternalName))
+                result.add(eventHooks[i]);
+        return result.isEmpty() ? NO_HOOKS : result.toArray(NO_HOOKS);
+    }
+
+    private static boolean matches(String[] prefixes, String ownerInternalName) {
+        if (prefixes == null)
+            return true;
+        for (String prefix : prefixes)
+            if (ownerInternalName.startsWith(prefix))
+                return true;
+        return false;
+    }
+
+}
@@ -0,0 +1,184 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Propagates an event from one reference analysis to everything reachable
+ * through {@link ClassDependencyAnalyzer.ReferenceAnalysis#allAnalyzedReferences}.
+ *
+ * The reachable graph is condensed into its strongly connected components with
+ * an iterative Tarjan search, after which the amount of distinct paths from the
+ * source to every component is counted in topological order. Every reachable node
+ * is then visited exactly once with its path count, so the result is the same
+ * as walking every path separately while each node and edge is only processed
+ * a bounded number of times. Nodes on a cycle have infinitely many paths, their
+ * count is saturated to {@link #SATURATED}.
+ *
+ * Uses scratch fields on the nodes, so the caller must hold the analysis lock
+ * of the abstraction manager owning the graph.
+ *
+ * @author orbyfied
+ */
+final class ReferencePropagation {
+
+    private ReferencePropagation() { }
+
+    static final long SATURATED = 1 << 29; // The maximum path count, so the reference numbers can not overflow
+
+    // Visits a node reachable from the source
+    interface NodeVisitor {
+        void visit(ClassDependencyAnalyzer.ReferenceAnalysis node, long pathCount);
+    }
+
+    static final AtomicInteger stampCounter = new AtomicInteger(); // Source of unique stamps per propagation
+
+    /**
+     * Add the given amount to the given reference number, saturating
+     * at +/- {@link #SATURATED} times the factor instead of overflowing.
+     */
+    static int addSaturated(int value, long pathCount, int factor) {
+        long result = value + pathCount * factor;
+        long bound = SATURATED * Math.abs(factor);
+        return (int) Math.max(-bound, Math.min(bound, result));
+    }
+
+    /**
+     * Visit every node reachable from the given source once, in topological
+     * order, with the amount of paths leading to it from the source.
+     *
+     * @param source The source node.
+     * @param visitor The visitor.
+     */
+    static void propagate(ClassDependencyAnalyzer.ReferenceAnalysis source, NodeVisitor visitor) {
+        final int stamp = stampCounter.incrementAndGet();
+        final List<ClassDependencyAnalyzer.ReferenceAnalysis> nodes = new ArrayList<>(); // All discovered nodes by visit index
+        int[] low = new int[16];            // The lowest visit index reachable from each node
+        int[] component = new int[16];      // The component of each node, -1 while on the Tarjan stack
+        boolean[] selfLoop = new boolean[16]; // Whether each node references itself
+        int[] callNode = new int[16];       // The DFS call stack, node indices
+        int[] callEdge = new int[16];       // The DFS call stack, next edge to follow
+        int[] tarjanStack = new int[16];    // The Tarjan stack of nodes without a component yet
+        int[] componentNodes = new int[16]; // All nodes ordered by component, in completion order
+        int[] componentStart = new int[17]; // The start of each component in componentNodes
+        boolean[] cyclic = new boolean[16]; // Whether each component contains a cycle
+        int callDepth, tarjanSize = 0, componentCount = 0, componentNodeCount = 0;
+
+        // discover source
+        source.visitStamp = stamp;
+        source.visitIndex = 0;
+        nodes.add(source);
+        low[0] = 0;
+        component[0] = -1;
+        callNode[0] = 0;
+        callEdge[0] = 0;
+        callDepth = 1;
+        tarjanStack[tarjanSize++] = 0;
+
+        /* Iterative Tarjan search */
+        while (callDepth > 0) {
+            int v = callNode[callDepth - 1];
+            List<ClassDependencyAnalyzer.ReferenceAnalysis> edges = nodes.get(v).allAnalyzedReferences;
+            int e = callEdge[callDepth - 1];
+            if (e < edges.size()) {
+                callEdge[callDepth - 1] = e + 1;
+                var child = edges.get(e);
+                if (child == null)
+                    continue;
+
+                if (child.visitStamp != stamp) {
+                    // discover node and descend into it
+                    int w = nodes.size();
+                    child.visitStamp = stamp;
+                    child.visitIndex = w;
+                    nodes.add(child);
+                    if (w >= low.length) {
+                        low = Arrays.copyOf(low, w * 2);
+                        component = Arrays.copyOf(component, w * 2);
+                        selfLoop = Arrays.copyOf(selfLoop, w * 2);
+                        tarjanStack = Arrays.copyOf(tarjanStack, w * 2);
+                        componentNodes = Arrays.copyOf(componentNodes, w * 2);
+                    }
+                    if (callDepth >= callNode.length) {
+                        callNode = Arrays.copyOf(callNode, callDepth * 2);
+                        callEdge = Arrays.copyOf(callEdge, callDepth * 2);
+                    }
+
+                    low[w] = w;
+                    component[w] = -1;
+                    tarjanStack[tarjanSize++] = w;
+                    callNode[callDepth] = w;
+                    callEdge[callDepth] = 0;
+                    callDepth++;
+                } else if (component[child.visitIndex] == -1) {
+                    // back edge into the current search path
+                    int w = child.visitIndex;
+                    if (w == v)
+                        selfLoop[v] = true;
+                    low[v] = Math.min(low[v], w);
+                }
+
+                continue;
+            }
+
+            // finish node
+            callDepth--;
+            if (low[v] == v) {
+                // pop component
+                if (componentCount >= cyclic.length) {
+                    cyclic = Arrays.copyOf(cyclic, componentCount * 2);
+                    componentStart = Arrays.copyOf(componentStart, componentCount * 2 + 1);
+                }
+
+                componentStart[componentCount] = componentNodeCount;
+                int size = 0;
+                int w;
+                do {
+                    w = tarjanStack[--tarjanSize];
+                    component[w] = componentCount;
+                    componentNodes[componentNodeCount++] = w;
+                    size++;
+                } while (w != v);
+
+                cyclic[componentCount] = size > 1 || selfLoop[v];
+                componentCount++;
+                componentStart[componentCount] = componentNodeCount;
+            }
+
+            if (callDepth > 0) {
+                int parent = callNode[callDepth - 1];
+                low[parent] = Math.min(low[parent], low[v]);
+            }
+        }
+
+        /* Count paths, components complete in reverse
+         * topological order so the source is the last one */
+        long[] paths = new long[componentCount];
+        paths[componentCount - 1] = 1;
+        for (int c = componentCount - 1; c >= 0; c--) {
+            if (cyclic[c])
+                paths[c] = SATURATED;
+            long count = paths[c];
+            for (int i = componentStart[c], end = componentStart[c + 1]; i < end; i++) {
+                for (var child : nodes.get(componentNodes[i]).allAnalyzedReferences) {
+                    if (child == null)
+                        continue;
+                    int target = component[child.visitIndex];
+                    if (target != c) {
+                        paths[target] = Math.min(SATURATED, paths[target] + count);
+                    }
+                }
+            }
+        }
+
+        /* Visit nodes in topological order */
+        for (int c = componentCount - 1; c >= 0; c--) {
+            for (int i = componentStart[c], end = componentStart[c + 1]; i < end; i++) {
+                visitor.visit(nodes.get(componentNodes[i]), paths[c]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import org.objectweb.asm.Type;
+import tools.redstone.abstracraft.core.util.PagedArray;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Interns field and method references, assigning each distinct
+ * owner, name, descriptor and static flag a dense int ID.
+ *
+ * Each ID maps to one canonical {@link ReferenceInfo} with the parsed
+ * descriptor information, so the analysis only has to allocate and parse
+ * a reference the first time it is encountered, and caches can be indexed
+ * by ID instead of hashing whole references.
+ *
+ * Lookups are lock-free, interning new references is synchronized.
+ *
+ * @author orbyfied
+ */
+public class ReferenceTable {
+
+    // The canonical information for one ID
+    record Symbol(ReferenceInfo info, int argumentCount, Type returnType) { }
+
+    // An open addressing hash table of IDs + 1, 0 marks an empty slot
+    record Table(AtomicIntegerArray slots, int mask) { }
+
+    final PagedArray<Symbol> symbols = new PagedArray<>(); // The symbols by ID
+    volatile Table table = new Table(new AtomicIntegerArray(1024), 1023);
+    volatile int size = 0;                                  // The amount of interned references
+
+    static int hash(String owner, String name, String desc, boolean isStatic) {
+        int h = ((owner.hashCode() * 31 + name.hashCode()) * 31 + desc.hashCode()) * 2 + (isStatic ? 1 : 0);
+        return h ^ (h >>> 16);
+    }
+
+    static boolean matches(ReferenceInfo info, String owner, String name, String desc, boolean isStatic) {
+        return info.isStatic() == isStatic &&
+                info.name().equals(name) &&
+                info.desc().equals(desc) &&
+                info.ownerInternalName().equals(owner);
+    }
+
+    /**
+     * Find the ID of the given reference without interning it.
+     *
+     * @param owner The internal name of the owner class.
+     * @param name The name.
+     * @param desc The descriptor.
+     * @param isStatic Whether it is static.
+     * @return The ID or -1 if not interned.
+     */
+    public int find(String owner, String name, String desc, boolean isStatic) {
+        return find(table, hash(owner, name, desc, isStatic), owner, name, desc, isStatic);
+    }
+
+    private int find(Table table, int hash, String owner, String name, String desc, boolean isStatic) {
+        var slots = table.slots();
+        for (int i = hash & table.mask(); ; i = (i + 1) & table.mask()) {
+            int slot = slots.get(i);
+            if (slot == 0)
+                return -1;
+            if (matches(symbols.get(slot - 1).info(), owner, name, desc, isStatic))
+                return slot - 1;
+        }
+    }
+
+    /**
+     * Find the ID of the given reference without interning it.
+     *
+     * @param info The reference.
+     * @return The ID or -1 if not interned.
+     */
+    public int find(ReferenceInfo info) {
+        return find(info.ownerInternalName(), info.name(), info.desc(), info.isStatic());
+    }
+
+    /**
+     * Get or assign the ID of the given reference.
+     *
+     * @param owner The internal name of the owner class.
+     * @param name The name.
+     * @param desc The descriptor, a method descriptor for methods.
+     * @param isStatic Whether it is static.
+     * @return The ID.
+     */
+    public int intern(String owner, String name, String desc, boolean isStatic) {
+        int hash = hash(owner, name, desc, isStatic);
+        int id = find(table, hash, owner, name, desc, isStatic);
+        if (id != -1)
+            return id;
+        return intern(hash, owner, name, desc, isStatic, null);
+    }
+
+    /**
+     * Get or assign the ID of the given reference.
+     *
+     * @param info The reference.
+     * @return The ID.
+     */
+    public int intern(ReferenceInfo info) {
+        String owner = info.ownerInternalName();
+        int hash = hash(owner, info.name(), info.desc(), info.isStatic());
+        int id = find(table, hash, owner, info.name(), info.desc(), info.isStatic());
+        if (id != -1)
+            return id;
+        return intern(hash, owner, info.name(), info.desc(), info.isStatic(), info);
+    }
+
+    private synchronized int intern(int hash, String owner, String name, String desc, boolean isStatic, ReferenceInfo info) {
+        Table table = this.table;
+        int id = find(table, hash, owner, name, desc, isStatic);
+        if (id != -1)
+            return id;
+
+        // create symbol, parsing the descriptor once
+        if (info == null) {
+            info = desc.startsWith("(") ?
+                    ReferenceInfo.forMethodInfo(owner, name, desc, isStatic) :
+                    ReferenceInfo.forFieldInfo(owner, name, desc, isStatic);
+        }
+
+        Symbol symbol = info.isField() ?
+                new Symbol(info, -1, info.type()) :
+                new Symbol(info, info.type().getArgumentTypes().length, info.type().getReturnType());
+        id = size;
+        symbols.set(id, symbol);
+
+        // grow table at half capacity
+        if ((id + 1) * 2 > table.mask() + 1) {
+            int capacity = (table.mask() + 1) * 2;
+            Table newTable = new Table(new AtomicIntegerArray(capacity), capacity - 1);
+            for (int i = 0; i < id; i++) {
+                ReferenceInfo other = symbols.get(i).info();
+                insert(newTable, hash(other.ownerInternalName(), other.name(), other.desc(), other.isStatic()), i);
+            }
+
+            this.table = table = newTable;
+        }
+
+        insert(table, hash, id);
+        size = id + 1;
+        return id;
+    }
+
+    private static void insert(Table table, int hash, int id) {
+        var slots = table.slots();
+        int i = hash & table.mask();
+        while (slots.get(i) != 0)
+            i = (i + 1) & table.mask();
+        slots.set(i, id + 1);
+    }
+
+    /**
+     * Get the canonical reference for the given ID.
+     *
+     * @param id The ID.
+     * @return The reference.
+     */
+    public ReferenceInfo get(int id) {
+        return symbols.get(id).info();
+    }
+
+    /**
+     * Get the amount of arguments of the method with the given ID.
+     *
+     * @param id The ID.
+     * @return The argument count, or -1 for fields.
+     */
+    public int argumentCount(int id) {
+        return symbols.get(id).argumentCount();
+    }
+
+    /**
+     * Get the return type of the method or the type of the field with the given ID.
+     *
+     * @param id The ID.
+     * @return The type.
+     */
+    public Type returnType(int id) {
+        return symbols.get(id).returnType();
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
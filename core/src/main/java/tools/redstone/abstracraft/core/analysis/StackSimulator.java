@@ -0,0 +1,749 @@
+package tools.redstone.abstracraft.core.analysis;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+import tools.redstone.abstracraft.core.util.ASMUtil;
+
+import java.util.*;
+
+/**
+ * Symbolically executes the instructions of a method to track the values
+ * on the operand stack and in the local variables, like lambdas passed to
+ * {@link tools.redstone.abstracraft.core.usage.Usage} methods.
+ *
+ * The stack is slot accurate, longs and doubles take two slots, and stored
+ * in primitive arrays so known int constants are never boxed. Values which
+ * are not known are represented by {@link Unknown}. At branch targets the
+ * state is restored from the snapshots taken at the jumps to them and checked
+ * against the stack map frames, so the stack never drifts out of sync.
+ *
+ * Simulators are reused for every method analyzed at the same
+ * depth of an {@link AnalysisContext}, see {@link #reset(MethodNode)}.
+ *
+ * @author orbyfied
+ */
+public class StackSimulator extends MethodVisitor {
+
+    /** A value which is not known, only it's type. */
+    public record Unknown(Type type) {
+        public static final Unknown INT = new Unknown(Type.INT_TYPE);
+        public static final Unknown FLOAT = new Unknown(Type.FLOAT_TYPE);
+        public static final Unknown LONG = new Unknown(Type.LONG_TYPE);
+        public static final Unknown DOUBLE = new Unknown(Type.DOUBLE_TYPE);
+        public static final Unknown REFERENCE = new Unknown(Type.getType(Object.class));
+
+        public static Unknown of(Type type) {
+            return switch (type.getSort()) {
+                case Type.BOOLEAN, Type.BYTE, Type.CHAR, Type.SHORT, Type.INT -> INT;
+                case Type.FLOAT -> FLOAT;
+                case Type.LONG -> LONG;
+                case Type.DOUBLE -> DOUBLE;
+                default -> REFERENCE;
+            };
+        }
+    }
+
+    /* Slot kinds */
+    static final byte K_VALUE = 0; // The value is stored in values
+    static final byte K_INT = 1;   // A known int constant stored in ints
+    static final byte K_TOP = 2;   // The second slot of a long or double
+
+    // The saved state at a branch target
+    static final class Snapshot {
+        byte[] kinds;
+        int[] ints;
+        Object[] values;
+        int size;
+        Object[] locals;
+    }
+
+    // A try-catch block, the locals of the handler snapshot are
+    // merged from every state the protected range can throw from
+    record TryBlock(Label start, Label end, Snapshot handler) { }
+
+    byte[] kinds = new byte[16];       // The kind of each stack slot
+    int[] ints = new int[16];          // The int constants on the stack
+    Object[] values = new Object[16];  // The values on the stack
+    int size = 0;                      // The amount of slots on the stack
+
+    Object[] locals = new Object[16];  // The known values of the local variables, null if not known
+    boolean reachable = true;          // Whether the current instruction can be reached from the previous one
+
+    final Map<Label, Snapshot> snapshots = new HashMap<>();      // The states saved for branch targets
+    final Map<Label, BitSet> loopStores = new HashMap<>();       // The locals stored to in the loop starting at each label
+    final List<TryBlock> tryBlocks = new ArrayList<>();          // The try-catch blocks of the method
+    final List<TryBlock> activeTryBlocks = new ArrayList<>();    // The try-catch blocks protecting the current instruction
+    ClassDependencyAnalyzer.FromVar[] fromVars = new ClassDependencyAnalyzer.FromVar[16]; // Cached unknown local values by index
+
+    MethodNode method;                 // The method being simulated
+    Label lastLabel;                   // The last label visited
+
+    public StackSimulator() {
+        super(ASMUtil.ASM_V);
+    }
+
+    /**
+     * Reset this simulator to simulate the given method.
+     *
+     * @param method The method.
+     * @return This.
+     */
+    public StackSimulator reset(MethodNode method) {
+        this.method = method;
+        this.size = 0;
+        this.reachable = true;
+        this.lastLabel = null;
+        this.snapshots.clear();
+        this.loopStores.clear();
+        this.tryBlocks.clear();
+        this.activeTryBlocks.clear();
+
+        int maxLocals = Math.max(method.maxLocals, 1);
+        if (locals.length < maxLocals) {
+            locals = new Object[maxLocals];
+            fromVars = new ClassDependencyAnalyzer.FromVar[maxLocals];
+        } else {
+            Arrays.fill(locals, null);
+            Arrays.fill(fromVars, null);
+        }
+
+        // find loops, the locals stored to in a loop are
+        // not known anymore when jumping back to it's start
+        InsnList insns = method.instructions;
+        int index = 0;
+        for (AbstractInsnNode insn : insns) {
+            if (insn instanceof JumpInsnNode jump) {
+                addBackwardTarget(jump.label, index);
+            } else if (insn instanceof TableSwitchInsnNode sw) {
+                addBackwardTarget(sw.dflt, index);
+                for (LabelNode l : sw.labels) addBackwardTarget(l, index);
+            } else if (insn instanceof LookupSwitchInsnNode sw) {
+                addBackwardTarget(sw.dflt, index);
+                for (LabelNode l : sw.labels) addBackwardTarget(l, index);
+            }
+
+            index++;
+        }
+
+        return this;
+    }
+
+    private void addBackwardTarget(LabelNode label, int jumpIndex) {
+        InsnList insns = method.instructions;
+        int target = insns.indexOf(label);
+        if (target >= jumpIndex)
+            return;
+
+        BitSet stored = loopStores.computeIfAbsent(label.getLabel(), __ -> new BitSet());
+        for (int i = target; i < jumpIndex; i++) {
+            AbstractInsnNode insn = insns.get(i);
+            if (insn instanceof VarInsnNode varInsn && varInsn.getOpcode() >= Opcodes.ISTORE && varInsn.getOpcode() <= Opcodes.ASTORE) {
+                stored.set(varInsn.var, varInsn.var + (varInsn.getOpcode() == Opcodes.LSTORE || varInsn.getOpcode() == Opcodes.DSTORE ? 2 : 1));
+            } else if (insn instanceof IincInsnNode iinc) {
+                stored.set(iinc.var);
+            }
+        }
+    }
+
+    /* ------------ Stack Operations -------------- */
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= kinds.length)
+            return;
+        int newLength = Math.max(capacity, kinds.length * 2);
+        kinds = Arrays.copyOf(kinds, newLength);
+        ints = Arrays.copyOf(ints, newLength);
+        values = Arrays.copyOf(values, newLength);
+    }
+
+    /** Push a value taking one slot. */
+    public void push(Object value) {
+        ensureCapacity(size + 1);
+        kinds[size] = K_VALUE;
+        values[size++] = value;
+    }
+
+    /** Push a value taking two slots. */
+    public void pushWide(Object value) {
+        ensureCapacity(size + 2);
+        kinds[size] = K_VALUE;
+        values[size++] = value;
+        kinds[size] = K_TOP;
+        values[size++] = null;
+    }
+
+    /** Push a value of the given type, taking as many slots as the type requires. */
+    public void push(Object value, Type type) {
+        switch (type.getSize()) {
+            case 0 -> { }
+            case 1 -> push(value);
+            case 2 -> pushWide(value);
+        }
+    }
+
+    /** Push a known int constant. */
+    public void pushInt(int value) {
+        ensureCapacity(size + 1);
+        kinds[size] = K_INT;
+        ints[size++] = value;
+    }
+
+    // Push a copy of the given slot
+    private void pushSlot(int slot) {
+        ensureCapacity(size + 1);
+        kinds[size] = kinds[slot];
+        ints[size] = ints[slot];
+        values[size++] = values[slot];
+    }
+
+    /** Remove the given amount of slots from the stack. */
+    public void drop(int slots) {
+        int newSize = Math.max(0, size - slots);
+        Arrays.fill(values, newSize, size, null);
+        size = newSize;
+    }
+
+    // Get the value in the given slot
+    private Object valueAt(int slot) {
+        return switch (kinds[slot]) {
+            case K_INT -> ints[slot];
+            case K_TOP -> slot > 0 ? values[slot - 1] : Unknown.REFERENCE;
+            default -> values[slot];
+        };
+    }
+
+    /**
+     * Pop the value on top of the stack, taking
+     * two slots if it is a long or double.
+     *
+     * @return The value, or {@link Unknown#REFERENCE} if the stack is empty.
+     */
+    public Object pop() {
+        if (size == 0)
+            return Unknown.REFERENCE;
+        if (kinds[size - 1] == K_TOP && size > 1) {
+            Object value = values[size - 2];
+            drop(2);
+            return value;
+        }
+
+        Object value = valueAt(size - 1);
+        drop(1);
+        return value;
+    }
+
+    /**
+     * Get the value on top of the stack without removing it.
+     *
+     * @return The value or null if the stack is empty.
+     */
+    public Object peek() {
+        if (size == 0)
+            return null;
+        return valueAt(size - 1);
+    }
+
+    // Pop an int constant, or -1 if it is not known
+    private int popKnownInt() {
+        if (size == 0)
+            return -1;
+        int value = kinds[size - 1] == K_INT ? ints[size - 1] : -1;
+        drop(1);
+        return value;
+    }
+
+    // Pop the slots taken by the given types
+    private void dropTypes(Type[] types) {
+        int slots = 0;
+        for (Type type : types)
+            slots += type.getSize();
+        drop(slots);
+    }
+
+    // Duplicate the top n slots and insert them below the depth slots beneath
+    private void dupX(int n, int depth) {
+        if (size < n + depth) {
+            // the stack is out of sync, recover with unknown values
+            size = 0;
+            for (int i = 0; i < n * 2 + depth; i++)
+                push(Unknown.REFERENCE);
+            return;
+        }
+
+        ensureCapacity(size + n);
+        int base = size - n - depth;
+        System.arraycopy(kinds, base, kinds, base + n, n + depth);
+        System.arraycopy(ints, base, ints, base + n, n + depth);
+        System.arraycopy(values, base, values, base + n, n + depth);
+        System.arraycopy(kinds, size, kinds, base, n);
+        System.arraycopy(ints, size, ints, base, n);
+        System.arraycopy(values, size, values, base, n);
+        size += n;
+    }
+
+    /** Get the amount of slots on the stack. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy the current stack into a new list of boxed values,
+     * with longs and doubles taking one element.
+     *
+     * @return The stack, the top at the end.
+     */
+    public Stack<Object> toStack() {
+        Stack<Object> stack = new Stack<>();
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != K_TOP) {
+                stack.push(valueAt(i));
+            }
+        }
+
+        return stack;
+    }
+
+    /* ------------ Locals -------------- */
+
+    // Get the type of the given local from the debug information,
+    // falling back to the type implied by the opcode
+    private Type localType(int varIndex, Type fallback) {
+        List<LocalVariableNode> localVariables = method.localVariables;
+        if (localVariables == null || localVariables.isEmpty())
+            return fallback;
+
+        LocalVariableNode found = null;
+        int position = -1;
+        for (LocalVariableNode lv : localVariables) {
+            if (lv.index != varIndex)
+                continue;
+            if (found == null) {
+                found = lv;
+                continue;
+            }
+
+            // multiple variables share the slot, find the one in scope
+            if (position == -1)
+                position = lastLabel != null && lastLabel.info instanceof LabelNode ln ? method.instructions.indexOf(ln) : 0;
+            int start = method.instructions.indexOf(lv.start), end = method.instructions.indexOf(lv.end);
+            if (start <= position && position < end) {
+                found = lv;
+            }
+        }
+
+        return found != null ? Type.getType(found.desc) : fallback;
+    }
+
+    // Load the value of the given local
+    private void load(int varIndex, Type opcodeType) {
+        Object value = varIndex < locals.length ? locals[varIndex] : null;
+        if (value == null) {
+            Type type = localType(varIndex, opcodeType);
+            var fromVar = fromVars[varIndex];
+            if (fromVar == null || !fromVar.type().equals(type))
+                fromVars[varIndex] = fromVar = new ClassDependencyAnalyzer.FromVar(varIndex, type);
+            value = fromVar;
+        }
+
+        push(value, opcodeType);
+    }
+
+    // Store the value on top of the stack in the given local
+    private void store(int varIndex, int slots) {
+        Object value = null;
+        if (size >= slots && kinds[size - slots] == K_VALUE && !(values[size - slots] instanceof Unknown))
+            value = values[size - slots];
+        drop(slots);
+
+        if (varIndex + slots > locals.length) {
+            locals = Arrays.copyOf(locals, varIndex + slots);
+            fromVars = Arrays.copyOf(fromVars, varIndex + slots);
+        }
+        locals[varIndex] = value;
+        if (slots == 2)
+            locals[varIndex + 1] = null;
+
+        // the handlers can be reached with either value
+        for (TryBlock tryBlock : activeTryBlocks) {
+            Object[] handlerLocals = tryBlock.handler().locals;
+            for (int i = varIndex; i < varIndex + slots && i < handlerLocals.length; i++)
+                if (handlerLocals[i] != locals[i])
+                    handlerLocals[i] = null;
+        }
+    }
+
+    /* ------------ Control Flow -------------- */
+
+    private Snapshot snapshot(Snapshot into) {
+        Snapshot s = into != null ? into : new Snapshot();
+        s.kinds = Arrays.copyOf(kinds, size);
+        s.ints = Arrays.copyOf(ints, size);
+        s.values = Arrays.copyOf(values, size);
+        s.size = size;
+        s.locals = locals.clone();
+        return s;
+    }
+
+    private void restore(Snapshot s) {
+        ensureCapacity(s.size);
+        drop(size);
+        System.arraycopy(s.kinds, 0, kinds, 0, s.size);
+        System.arraycopy(s.ints, 0, ints, 0, s.size);
+        System.arraycopy(s.values, 0, values, 0, s.size);
+        size = s.size;
+        Arrays.fill(locals, null);
+        if (s.locals != null)
+            System.arraycopy(s.locals, 0, locals, 0, Math.min(s.locals.length, locals.length));
+    }
+
+    // Merge the given snapshot into the current state, values which differ become unknown
+    private void mergeFrom(Snapshot s) {
+        if (s.size == size) {
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] != s.kinds[i] || (kinds[i] == K_INT ? ints[i] != s.ints[i] : values[i] != s.values[i])) {
+                    if (kinds[i] != K_TOP) {
+                        Object value = valueAt(i);
+                        kinds[i] = K_VALUE;
+                        values[i] = value instanceof Integer ? Unknown.INT : value instanceof Unknown u ? u : Unknown.REFERENCE;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < locals.length; i++) {
+            if (s.locals == null || i >= s.locals.length || locals[i] != s.locals[i]) {
+                locals[i] = null;
+            }
+        }
+    }
+
+    // Save the current state for a jump to the given label
+    private void jumpTo(Label label) {
+        Snapshot existing = snapshots.get(label);
+        if (existing == null) {
+            snapshots.put(label, snapshot(null));
+            return;
+        }
+
+        // merge with the existing snapshot
+        Snapshot current = snapshot(null);
+        restore(existing);
+        mergeFrom(current);
+        snapshot(existing);
+        restore(current);
+    }
+
+    /* ------------ Instructions -------------- */
+
+    @Override
+    public void visitLabel(Label label) {
+        lastLabel = label;
+        Snapshot s = snapshots.get(label);
+        if (s != null) {
+            if (reachable) mergeFrom(s);
+            else restore(s);
+        } else if (!reachable) {
+            // only reachable through a jump not seen yet
+            drop(size);
+            Arrays.fill(locals, null);
+        }
+
+        BitSet stored = loopStores.get(label);
+        if (stored != null) {
+            for (int i = stored.nextSetBit(0); i >= 0 && i < locals.length; i = stored.nextSetBit(i + 1))
+                locals[i] = null;
+        }
+
+        reachable = true;
+        for (TryBlock tryBlock : tryBlocks) {
+            if (tryBlock.end() == label) {
+                activeTryBlocks.remove(tryBlock);
+            }
+
+            if (tryBlock.start() == label) {
+                Snapshot handler = tryBlock.handler();
+                if (handler.locals == null) {
+                    handler.locals = locals.clone();
+                } else {
+                    for (int i = 0; i < handler.locals.length; i++)
+                        if (handler.locals[i] != locals[i])
+                            handler.locals[i] = null;
+                }
+
+                activeTryBlocks.add(tryBlock);
+            }
+        }
+    }
+
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+        int items = switch (type) {
+            case Opcodes.F_NEW, Opcodes.F_FULL -> numStack;
+            case Opcodes.F_SAME1 -> 1;
+            default -> 0;
+        };
+
+        int slots = 0;
+        for (int i = 0; i < items; i++)
+            slots += stack[i] == Opcodes.LONG || stack[i] == Opcodes.DOUBLE ? 2 : 1;
+        if (slots == size)
+            return; // in sync
+
+        // rebuild the stack from the frame
+        drop(size);
+        for (int i = 0; i < items; i++) {
+            Object t = stack[i];
+            if (t == Opcodes.INTEGER) push(Unknown.INT);
+            else if (t == Opcodes.FLOAT) push(Unknown.FLOAT);
+            else if (t == Opcodes.LONG) pushWide(Unknown.LONG);
+            else if (t == Opcodes.DOUBLE) pushWide(Unknown.DOUBLE);
+            else if (t == Opcodes.NULL) push(null);
+            else if (t instanceof String internalName) push(Unknown.of(Type.getObjectType(internalName)));
+            else push(Unknown.REFERENCE);
+        }
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        // the handler starts with only the exception on the stack,
+        // multiple blocks can share one handler
+        Snapshot s = snapshots.get(handler);
+        if (s == null) {
+            s = new Snapshot();
+            s.kinds = new byte[] { K_VALUE };
+            s.ints = new int[1];
+            s.values = new Object[] { type != null ? new Unknown(Type.getObjectType(type)) : Unknown.REFERENCE };
+            s.size = 1;
+            snapshots.put(handler, s);
+        }
+
+        tryBlocks.add(new TryBlock(start, end, s));
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        switch (opcode) {
+            case Opcodes.NOP -> { }
+            case Opcodes.ACONST_NULL -> push(null);
+            case Opcodes.ICONST_M1, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.ICONST_2,
+                    Opcodes.ICONST_3, Opcodes.ICONST_4, Opcodes.ICONST_5 -> pushInt(opcode - Opcodes.ICONST_0);
+            case Opcodes.LCONST_0, Opcodes.LCONST_1 -> pushWide((long) (opcode - Opcodes.LCONST_0));
+            case Opcodes.FCONST_0, Opcodes.FCONST_1, Opcodes.FCONST_2 -> push((float) (opcode - Opcodes.FCONST_0));
+            case Opcodes.DCONST_0, Opcodes.DCONST_1 -> pushWide((double) (opcode - Opcodes.DCONST_0));
+
+            // array loads
+            case Opcodes.IALOAD, Opcodes.BALOAD, Opcodes.CALOAD, Opcodes.SALOAD -> { drop(2); push(Unknown.INT); }
+            case Opcodes.FALOAD -> { drop(2); push(Unknown.FLOAT); }
+            case Opcodes.LALOAD -> { drop(2); pushWide(Unknown.LONG); }
+            case Opcodes.DALOAD -> { drop(2); pushWide(Unknown.DOUBLE); }
+            case Opcodes.AALOAD -> {
+                int index = popKnownInt();
+                Object array = pop();
+                if (array instanceof Object[] arr && index >= 0 && index < arr.length && arr[index] != null) push(arr[index]);
+                else push(Unknown.REFERENCE);
+            }
+
+            // array stores
+            case Opcodes.IASTORE, Opcodes.BASTORE, Opcodes.CASTORE, Opcodes.SASTORE, Opcodes.FASTORE -> drop(3);
+            case Opcodes.LASTORE, Opcodes.DASTORE -> drop(4);
+            case Opcodes.AASTORE -> {
+                Object value = pop();
+                int index = popKnownInt();
+                Object array = pop();
+                if (array instanceof Object[] arr && index >= 0 && index < arr.length)
+                    arr[index] = value;
+            }
+
+            // stack manipulation
+            case Opcodes.POP -> drop(1);
+            case Opcodes.POP2 -> drop(2);
+            case Opcodes.DUP -> dupX(1, 0);
+            case Opcodes.DUP_X1 -> dupX(1, 1);
+            case Opcodes.DUP_X2 -> dupX(1, 2);
+            case Opcodes.DUP2 -> dupX(2, 0);
+            case Opcodes.DUP2_X1 -> dupX(2, 1);
+            case Opcodes.DUP2_X2 -> dupX(2, 2);
+            case Opcodes.SWAP -> {
+                if (size < 2) { drop(size); push(Unknown.REFERENCE); push(Unknown.REFERENCE); return; }
+                byte k = kinds[size - 1]; int n = ints[size - 1]; Object v = values[size - 1];
+                kinds[size - 1] = kinds[size - 2]; ints[size - 1] = ints[size - 2]; values[size - 1] = values[size - 2];
+                kinds[size - 2] = k; ints[size - 2] = n; values[size - 2] = v;
+            }
+
+            // arithmetic
+            case Opcodes.IADD, Opcodes.ISUB, Opcodes.IMUL, Opcodes.IDIV, Opcodes.IREM,
+                    Opcodes.ISHL, Opcodes.ISHR, Opcodes.IUSHR, Opcodes.IAND, Opcodes.IOR, Opcodes.IXOR -> { drop(2); push(Unknown.INT); }
+            case Opcodes.LADD, Opcodes.LSUB, Opcodes.LMUL, Opcodes.LDIV, Opcodes.LREM,
+                    Opcodes.LAND, Opcodes.LOR, Opcodes.LXOR -> { drop(4); pushWide(Unknown.LONG); }
+            case Opcodes.LSHL, Opcodes.LSHR, Opcodes.LUSHR -> { drop(3); pushWide(Unknown.LONG); }
+            case Opcodes.FADD, Opcodes.FSUB, Opcodes.FMUL, Opcodes.FDIV, Opcodes.FREM -> { drop(2); push(Unknown.FLOAT); }
+            case Opcodes.DADD, Opcodes.DSUB, Opcodes.DMUL, Opcodes.DDIV, Opcodes.DREM -> { drop(4); pushWide(Unknown.DOUBLE); }
+            case Opcodes.INEG -> { drop(1); push(Unknown.INT); }
+            case Opcodes.LNEG -> { drop(2); pushWide(Unknown.LONG); }
+            case Opcodes.FNEG -> { drop(1); push(Unknown.FLOAT); }
+            case Opcodes.DNEG -> { drop(2); pushWide(Unknown.DOUBLE); }
+
+            // conversions
+            case Opcodes.I2L, Opcodes.F2L -> { drop(1); pushWide(Unknown.LONG); }
+            case Opcodes.I2D, Opcodes.F2D -> { drop(1); pushWide(Unknown.DOUBLE); }
+            case Opcodes.I2F -> { drop(1); push(Unknown.FLOAT); }
+            case Opcodes.F2I, Opcodes.I2B, Opcodes.I2C, Opcodes.I2S -> { drop(1); push(Unknown.INT); }
+            case Opcodes.L2I, Opcodes.D2I -> { drop(2); push(Unknown.INT); }
+            case Opcodes.L2F, Opcodes.D2F -> { drop(2); push(Unknown.FLOAT); }
+            case Opcodes.L2D -> { drop(2); pushWide(Unknown.DOUBLE); }
+            case Opcodes.D2L -> { drop(2); pushWide(Unknown.LONG); }
+
+            // comparisons
+            case Opcodes.LCMP, Opcodes.DCMPL, Opcodes.DCMPG -> { drop(4); push(Unknown.INT); }
+            case Opcodes.FCMPL, Opcodes.FCMPG -> { drop(2); push(Unknown.INT); }
+
+            // returns and throws
+            case Opcodes.IRETURN, Opcodes.FRETURN, Opcodes.ARETURN, Opcodes.ATHROW -> { drop(1); reachable = false; }
+            case Opcodes.LRETURN, Opcodes.DRETURN -> { drop(2); reachable = false; }
+            case Opcodes.RETURN -> reachable = false;
+
+            case Opcodes.ARRAYLENGTH -> { drop(1); push(Unknown.INT); }
+            case Opcodes.MONITORENTER, Opcodes.MONITOREXIT -> drop(1);
+            default -> throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        switch (opcode) {
+            case Opcodes.BIPUSH, Opcodes.SIPUSH -> pushInt(operand);
+            case Opcodes.NEWARRAY -> { drop(1); push(Unknown.REFERENCE); }
+        }
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+        switch (opcode) {
+            case Opcodes.ILOAD -> load(varIndex, Type.INT_TYPE);
+            case Opcodes.FLOAD -> load(varIndex, Type.FLOAT_TYPE);
+            case Opcodes.LLOAD -> load(varIndex, Type.LONG_TYPE);
+            case Opcodes.DLOAD -> load(varIndex, Type.DOUBLE_TYPE);
+            case Opcodes.ALOAD -> load(varIndex, Unknown.REFERENCE.type());
+            case Opcodes.ISTORE, Opcodes.FSTORE, Opcodes.ASTORE -> store(varIndex, 1);
+            case Opcodes.LSTORE, Opcodes.DSTORE -> store(varIndex, 2);
+            case Opcodes.RET -> reachable = false;
+        }
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+        if (varIndex < locals.length)
+            locals[varIndex] = null;
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        switch (opcode) {
+            case Opcodes.NEW -> push(new ClassDependencyAnalyzer.InstanceOf(Type.getObjectType(type)));
+            case Opcodes.ANEWARRAY -> {
+                int length = popKnownInt();
+                push(length >= 0 && length <= 256 ? new Object[length] : Unknown.REFERENCE);
+            }
+            case Opcodes.CHECKCAST -> { }
+            case Opcodes.INSTANCEOF -> { drop(1); push(Unknown.INT); }
+        }
+    }
+
+    /**
+     * Simulate a field instruction, pushing the given value for loads.
+     */
+    public void fieldInsn(int opcode, String descriptor, Object value) {
+        Type type = Type.getType(descriptor);
+        switch (opcode) {
+            case Opcodes.GETSTATIC -> push(value, type);
+            case Opcodes.GETFIELD -> { drop(1); push(value, type); }
+            case Opcodes.PUTSTATIC -> drop(type.getSize());
+            case Opcodes.PUTFIELD -> drop(type.getSize() + 1);
+        }
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        fieldInsn(opcode, descriptor, Unknown.of(Type.getType(descriptor)));
+    }
+
+    /**
+     * Simulate a method call with the given argument slots,
+     * pushing the given value if it returns anything.
+     */
+    public void methodInsn(int opcode, int argumentSlots, Type returnType, Object value) {
+        drop(argumentSlots + (opcode != Opcodes.INVOKESTATIC ? 1 : 0));
+        push(value, returnType);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        Type type = Type.getMethodType(descriptor);
+        methodInsn(opcode, (type.getArgumentsAndReturnSizes() >> 2) - 1, type.getReturnType(), Unknown.of(type.getReturnType()));
+    }
+
+    /**
+     * Simulate an invokedynamic instruction, pushing the given value.
+     */
+    public void invokeDynamic(String descriptor, Object value) {
+        Type type = Type.getMethodType(descriptor);
+        dropTypes(type.getArgumentTypes());
+        push(value, type.getReturnType());
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        invokeDynamic(descriptor, Unknown.of(Type.getMethodType(descriptor).getReturnType()));
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        switch (opcode) {
+            case Opcodes.IFEQ, Opcodes.IFNE, Opcodes.IFLT, Opcodes.IFGE, Opcodes.IFGT, Opcodes.IFLE,
+                    Opcodes.IFNULL, Opcodes.IFNONNULL -> drop(1);
+            case Opcodes.IF_ICMPEQ, Opcodes.IF_ICMPNE, Opcodes.IF_ICMPLT, Opcodes.IF_ICMPGE, Opcodes.IF_ICMPGT,
+                    Opcodes.IF_ICMPLE, Opcodes.IF_ACMPEQ, Opcodes.IF_ACMPNE -> drop(2);
+            case Opcodes.JSR -> push(Unknown.REFERENCE);
+        }
+
+        jumpTo(label);
+        if (opcode == Opcodes.GOTO) {
+            reachable = false;
+        } else if (opcode == Opcodes.JSR) {
+            drop(1); // returns without the address
+        }
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        if (value instanceof Integer i) pushInt(i);
+        else if (value instanceof Long || value instanceof Double) pushWide(value);
+        else if (value instanceof ConstantDynamic cd) push(Unknown.of(Type.getType(cd.getDescriptor())), Type.getType(cd.getDescriptor()));
+        else push(value);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        drop(1);
+        jumpTo(dflt);
+        for (Label label : labels)
+            jumpTo(label);
+        reachable = false;
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        drop(1);
+        jumpTo(dflt);
+        for (Label label : labels)
+            jumpTo(label);
+        reachable = false;
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        drop(numDimensions);
+        push(Unknown.REFERENCE);
+    }
+
+}
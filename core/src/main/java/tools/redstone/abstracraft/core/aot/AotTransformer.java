@@ -0,0 +1,367 @@
+package tools.redstone.abstracraft.core.aot;
+
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook;
+import tools.redstone.abstracraft.core.analysis.MethodDependency;
+import tools.redstone.abstracraft.core.analysis.OneOfDependency;
+import tools.redstone.abstracraft.core.cache.ClassTransformCache;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Transforms whole jars ahead of time, so the output can be loaded with a
+ * plain class loader instead of the transforming class loader.
+ *
+ * Class entries are analyzed and transformed in parallel, while the output jar
+ * is streamed in the original entry order with a bounded number of entries in
+ * flight, so whole jars are never buffered in memory. Every output jar contains
+ * a dependency manifest at {@link #MANIFEST_ENTRY}.
+ *
+ * The input jars and implementation classes have to be on the class path
+ * of the JVM running the transformer, as the analysis resolves them by name.
+ *
+ * @author orbyfied
+ */
+public class AotTransformer implements AutoCloseable {
+
+    public static final String MANIFEST_ENTRY = "META-INF/abstracraft/dependencies.txt"; // The name of the dependency manifest entry
+
+    // The result of transforming one class entry
+    record TransformedEntry(byte[] bytes, String manifest) { }
+
+    // An entry waiting to be written in order
+    record PendingEntry(ZipEntry entry, Future<TransformedEntry> result) { }
+
+    /** The summary of transforming one jar. */
+    public record Result(Path output, int classesTransformed, int classesFailed, int entriesCopied) { }
+
+    final AbstractionManager abstractionManager; // The manager used to analyze and transform the classes
+    final ExecutorService executor;              // The executor the class transformations run on
+    final int maxEntriesInFlight;                // The maximum amount of transformed entries waiting to be written
+
+    public AotTransformer(AbstractionManager abstractionManager, int threads) {
+        this.abstractionManager = abstractionManager;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "AotTransformer-Worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxEntriesInFlight = threads * 4;
+    }
+
+    /**
+     * Get the public names of all classes contained in the given jars.
+     *
+     * @param jars The jars.
+     * @return The class names.
+     */
+    public static Set<String> collectClassNames(List<Path> jars) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (Path jar : jars) {
+            try (ZipFile zip = new ZipFile(jar.toFile())) {
+                zip.stream()
+                        .map(ZipEntry::getName)
+                        .filter(AotTransformer::isTransformableClass)
+                        .forEach(name -> names.add(toClassName(name)));
+            }
+        }
+
+        return names;
+    }
+
+    // Check whether the given entry is a class which could be transformed
+    static boolean isTransformableClass(String entryName) {
+        return entryName.endsWith(".class") &&
+                !entryName.startsWith("META-INF/") &&
+                !entryName.endsWith("module-info.class") &&
+                !entryName.endsWith("package-info.class");
+    }
+
+    static String toClassName(String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+
+    // Signatures are invalidated by transforming, so they are dropped
+    static boolean isSignatureFile(String entryName) {
+        if (!entryName.startsWith("META-INF/") || entryName.indexOf('/', "META-INF/".length()) != -1)
+            return false;
+        return entryName.endsWith(".SF") || entryName.endsWith(".RSA") ||
+                entryName.endsWith(".DSA") || entryName.endsWith(".EC");
+    }
+
+    /**
+     * Transform all classes in the given input jar which pass the
+     * audit predicate of the abstraction manager and write the result
+     * to the given output jar.
+     *
+     * @param input The input jar.
+     * @param output The output jar.
+     * @return The result summary.
+     */
+    public Result transformJar(Path input, Path output) throws IOException {
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        int transformed = 0, failed = 0, copied = 0;
+        StringBuilder manifest = new StringBuilder()
+                .append("# abstracraft dependency manifest\n")
+                .append("environment ").append(abstractionManager.getEnvironmentFingerprint()).append('\n');
+
+        try (ZipFile zip = new ZipFile(input.toFile());
+             JarOutputStream out = new JarOutputStream(Files.newOutputStream(tmp))) {
+            Set<String> written = new HashSet<>();
+            Deque<PendingEntry> pending = new ArrayDeque<>();
+
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (isSignatureFile(name) || name.equals(MANIFEST_ENTRY) || !written.add(name))
+                    continue;
+
+                Future<TransformedEntry> result = null;
+                if (isTransformableClass(name) && abstractionManager.getClassAuditPredicate().test(toClassName(name))) {
+                    result = executor.submit(() -> transformEntry(zip, entry));
+                }
+
+                pending.add(new PendingEntry(entry, result));
+                while (pending.size() > maxEntriesInFlight) {
+                    int r = writeEntry(zip, out, pending.poll(), manifest);
+                    if (r > 0) transformed++; else if (r < 0) failed++; else copied++;
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                int r = writeEntry(zip, out, pending.poll(), manifest);
+                if (r > 0) transformed++; else if (r < 0) failed++; else copied++;
+            }
+
+            // write dependency manifest
+            out.putNextEntry(new JarEntry(MANIFEST_ENTRY));
+            out.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+        return new Result(output, transformed, failed, copied);
+    }
+
+    // Analyze and transform one class entry, runs on a worker thread
+    TransformedEntry transformEntry(ZipFile zip, ZipEntry entry) throws IOException {
+        byte[] bytes;
+        try (InputStream in = zip.getInputStream(entry)) {
+            bytes = in.readAllBytes();
+        }
+
+        String className = toClassName(entry.getName());
+        byte[] result = abstractionManager.transformClass(className, bytes);
+
+        var analyzer = abstractionManager.analyzer(className, false);
+        String manifest = analyzer != null ? describe(className, analyzer.getClassAnalysis()) : "";
+        return new TransformedEntry(result, manifest);
+    }
+
+    // Write the given pending entry to the output, returns 1 if
+    // it was transformed, -1 if transforming failed and 0 if copied
+    int writeEntry(ZipFile zip, JarOutputStream out, PendingEntry pending, StringBuilder manifest) throws IOException {
+        ZipEntry entry = pending.entry();
+        JarEntry outEntry = new JarEntry(entry.getName());
+        outEntry.setTime(entry.getTime());
+
+        if (pending.result() != null) {
+            try {
+                TransformedEntry result = pending.result().get();
+                out.putNextEntry(outEntry);
+                out.write(result.bytes());
+                out.closeEntry();
+                manifest.append(result.manifest());
+                return 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while transforming " + entry.getName(), e);
+            } catch (ExecutionException e) {
+                System.err.println("WARNING Failed to transform " + entry.getName() + ", copying original: " + e.getCause());
+                copyEntry(zip, out, entry, outEntry);
+                return -1;
+            }
+        }
+
+        copyEntry(zip, out, entry, outEntry);
+        return 0;
+    }
+
+    static void copyEntry(ZipFile zip, JarOutputStream out, ZipEntry entry, JarEntry outEntry) throws IOException {
+        out.putNextEntry(outEntry);
+        if (!entry.isDirectory()) {
+            try (InputStream in = zip.getInputStream(entry)) {
+                in.transferTo(out);
+            }
+        }
+
+        out.closeEntry();
+    }
+
+    /**
+     * Describe the given class analysis in the dependency manifest format.
+     *
+     * @param className The class name.
+     * @param analysis The analysis.
+     * @return The manifest lines.
+     */
+    public static String describe(String className, ClassDependencyAnalyzer.ClassAnalysis analysis) {
+        StringBuilder b = new StringBuilder();
+        b.append("class ").append(className).append('\n');
+
+        List<String> lines = new ArrayList<>();
+        for (MethodDependency dependency : analysis.dependencies)
+            lines.add("  " + describe(dependency) + '\n');
+        Collections.sort(lines);
+        lines.forEach(b::append);
+
+        for (OneOfDependency dependency : analysis.switchDependencies) {
+            b.append("  switch ").append(dependency.implemented() ? "implemented" : "unimplemented").append('\n');
+            for (MethodDependency d : dependency.dependencies())
+                b.append("    ").append(describe(d)).append('\n');
+            for (MethodDependency d : dependency.optionalDependencies())
+                b.append("    ").append(describe(d)).append('\n');
+        }
+
+        return b.toString();
+    }
+
+    static String describe(MethodDependency dependency) {
+        return (dependency.optional() ? "optional " : "required ") +
+                dependency.info().ownerInternalName() + "." + dependency.info().name() + " " + dependency.info().desc();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /* ------------ Command Line -------------- */
+
+    static final String USAGE = """
+            Usage: java -cp <abstracraft-core>:<input jars>:<impl jars> tools.redstone.abstracraft.core.aot.AotTransformer [options] <input jars...>
+              --out <dir>             The directory to write the transformed jars to (required)
+              --impl <class>          An implementation class to register, repeatable
+              --hook <class>          An additional DependencyAnalysisHook class to register, repeatable
+              --hook-version <ver>    The version of the hook set, see AbstractionManager#setHookSetVersion
+              --audit <prefix>        Only transform classes starting with the given prefix, repeatable
+              --cache <dir>           Use the given directory as a persistent transform cache
+              --threads <n>           The amount of worker threads, defaults to the processor count
+            """;
+
+    public static void main(String[] args) throws Exception {
+        int status = run(args);
+        if (status != 0)
+            System.exit(status);
+    }
+
+    /**
+     * Run the command line transformer with the given arguments.
+     *
+     * @param args The arguments, see {@link #USAGE}.
+     * @return The exit status, 1 for invalid arguments and 2 if any class failed to transform.
+     */
+    public static int run(String[] args) throws Exception {
+        Path outDir = null;
+        List<String> impls = new ArrayList<>();
+        List<String> hooks = new ArrayList<>();
+        List<String> auditPrefixes = new ArrayList<>();
+        List<Path> inputs = new ArrayList<>();
+        String hookVersion = "";
+        Path cacheDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out" -> outDir = Path.of(args[++i]);
+                    case "--impl" -> impls.add(args[++i]);
+                    case "--hook" -> hooks.add(args[++i]);
+                    case "--hook-version" -> hookVersion = args[++i];
+                    case "--audit" -> auditPrefixes.add(args[++i]);
+                    case "--cache" -> cacheDir = Path.of(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    default -> {
+                        if (args[i].startsWith("--"))
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        inputs.add(Path.of(args[i]));
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println("ERROR " + e.getMessage());
+            System.err.print(USAGE);
+            return 1;
+        }
+
+        if (outDir == null || inputs.isEmpty()) {
+            System.err.print(USAGE);
+            return 1;
+        }
+
+        // only audit classes contained in the input jars
+        final Set<String> inputClasses = collectClassNames(inputs);
+        Predicate<String> auditPredicate = inputClasses::contains;
+        if (!auditPrefixes.isEmpty())
+            auditPredicate = auditPredicate.and(name -> auditPrefixes.stream().anyMatch(name::startsWith));
+
+        AbstractionManager abstractionManager = new AbstractionManager()
+                .setClassAuditPredicate(auditPredicate)
+                .setHookSetVersion(hookVersion)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class))
+                .addAnalysisHook(AbstractionManager.checkStaticFieldsNotNull());
+        for (String hook : hooks)
+            abstractionManager.addAnalysisHook((DependencyAnalysisHook) Class.forName(hook).getConstructor().newInstance());
+        for (String impl : impls)
+            abstractionManager.registerImpl(Class.forName(impl));
+        if (cacheDir != null)
+            abstractionManager.setTransformCache(new ClassTransformCache(cacheDir));
+
+        Files.createDirectories(outDir);
+        int failed = 0;
+        try (AotTransformer transformer = new AotTransformer(abstractionManager, threads)) {
+            for (Path input : inputs) {
+                long t1 = System.currentTimeMillis();
+                Result result = transformer.transformJar(input, outDir.resolve(input.getFileName()));
+                long t2 = System.currentTimeMillis();
+                System.out.println("Transformed " + input + " -> " + result.output() + ": " +
+                        result.classesTransformed() + " classes transformed, " +
+                        result.classesFailed() + " failed, " +
+                        result.entriesCopied() + " entries copied in " + (t2 - t1) + "ms");
+
+                // never leave a jar with untransformed classes behind
+                if (result.classesFailed() > 0) {
+                    Files.deleteIfExists(result.output());
+                    failed += result.classesFailed();
+                }
+            }
+        }
+
+        if (failed > 0) {
+            System.err.println("ERROR " + failed + " classes failed to transform, the output of their jars was deleted");
+            return 2;
+        }
+
+        return 0;
+    }
+
+}
@@ -0,0 +1,383 @@
+package tools.redstone.abstracraft.core.cache;
+
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+import tools.redstone.abstracraft.core.analysis.MethodDependency;
+import tools.redstone.abstracraft.core.analysis.OneOfDependency;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent on-disk cache of transformed class bytes and the
+ * results of their dependency analysis.
+ *
+ * Entries are keyed by the hash of the original class bytes combined with
+ * a fingerprint of the environment the class was transformed in (the registered
+ * implementations, hooks and manual implementation overrides), so any change
+ * to that environment simply results in different keys. As the analysis of a
+ * class also depends on the code of the methods it calls, each entry records
+ * the hashes of the class files of the audited classes its analysis reached,
+ * and is only used while those are unchanged, see {@link CachedClass#classHashes()}.
+ *
+ * Besides the results, an entry records the methods each method references and
+ * the reference events the analysis fired, so the restored methods propagate
+ * like analyzed ones and the referenced methods end up in the same state.
+ *
+ * All writes go to a temporary file which is atomically moved into place,
+ * so multiple processes can safely share one cache directory.
+ *
+ * @author orbyfied
+ */
+public class ClassTransformCache {
+
+    static final int MAGIC = 0xABC7CAC4;   // The magic number at the start of each entry file
+    static final int FORMAT_VERSION = 2;   // The version of the entry format, bump on change
+
+    /** The cached analysis result of one method, with the methods and fields it references in order. */
+    public record MethodSummary(ReferenceInfo ref, List<ReferenceInfo> references, List<ReferenceInfo> requiredDependencies) { }
+
+    /**
+     * The cached result of transforming one class.
+     *
+     * @param events The reference events fired by the analysis in order.
+     * @param classHashes The hashes of the class files of the audited classes reached by the analysis by internal name.
+     */
+    public record CachedClass(String className,
+                              byte[] transformedBytes,
+                              Set<MethodDependency> dependencies,
+                              List<OneOfDependency> switchDependencies,
+                              List<MethodSummary> methods,
+                              List<ClassDependencyAnalyzer.ReferenceEvent> events,
+                              Map<String, String> classHashes) {
+        public static CachedClass of(String className, byte[] transformedBytes, ClassDependencyAnalyzer.ClassAnalysis analysis,
+                                     Map<String, String> classHashes) {
+            List<MethodSummary> methods = new ArrayList<>(analysis.analyzedMethods.size());
+            for (ClassDependencyAnalyzer.ReferenceAnalysis method : analysis.analyzedMethods.values()) {
+                List<ReferenceInfo> references = new ArrayList<>(method.allAnalyzedReferences.size());
+                for (ClassDependencyAnalyzer.ReferenceAnalysis ref : method.allAnalyzedReferences)
+                    if (ref != null) references.add(ref.ref);
+                methods.add(new MethodSummary(method.ref, references, method.requiredDependencies.toList()));
+            }
+            return new CachedClass(className, transformedBytes, analysis.dependencies, analysis.switchDependencies, methods,
+                    analysis.referenceEvents != null ? analysis.referenceEvents : List.of(), classHashes);
+        }
+    }
+
+    final Path directory; // The directory the entries are stored in
+
+    public ClassTransformCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Compute the hex encoded SHA-256 hash of the given data.
+     *
+     * @param data The data segments.
+     * @return The hash string.
+     */
+    public static String hash(byte[]... data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] b : data)
+                digest.update(b);
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Compute the hex encoded SHA-256 hash of the given strings.
+     *
+     * @param strings The strings.
+     * @return The hash string.
+     */
+    public static String hash(List<String> strings) {
+        byte[][] data = new byte[strings.size()][];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (strings.get(i) + "\n").getBytes(StandardCharsets.UTF_8);
+        return hash(data);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte x : bytes)
+            b.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        return b.toString();
+    }
+
+    /**
+     * Create the key for the given class bytes transformed in
+     * the environment described by the given fingerprint.
+     *
+     * @param classBytes The original class bytes.
+     * @param environmentFingerprint The environment fingerprint.
+     * @return The key.
+     */
+    public String key(byte[] classBytes, String environmentFingerprint) {
+        return hash(classBytes, environmentFingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Get the file for the given key, sharded
+    // by the first two characters of the key
+    Path entryFile(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".bin");
+    }
+
+    /**
+     * Load the entry by the given key if present and valid.
+     * Corrupt or outdated entries are deleted.
+     *
+     * @param key The key.
+     * @return The entry or null if absent.
+     */
+    public CachedClass load(String key) {
+        Path file = entryFile(key);
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try {
+            byte[] data = Files.readAllBytes(file);
+            CachedClass entry = decode(key, data);
+            if (entry == null)
+                Files.deleteIfExists(file);
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null; // removed concurrently
+        } catch (IOException e) {
+            System.err.println("WARNING Failed to read transform cache entry " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the given entry under the given key, atomically
+     * replacing any existing entry.
+     *
+     * @param key The key.
+     * @param entry The entry.
+     */
+    public void store(String key, CachedClass entry) {
+        Path file = entryFile(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.write(tmp, encode(key, entry));
+
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("WARNING Failed to write transform cache entry " + file + ": " + e);
+            if (tmp != null) {
+                try { Files.deleteIfExists(tmp); } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    /**
+     * Delete all entries in this cache.
+     */
+    public void clear() {
+        if (!Files.isDirectory(directory))
+            return;
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path p : (Iterable<Path>) files.sorted((a, b) -> b.getNameCount() - a.getNameCount())::iterator) {
+                if (!p.equals(directory))
+                    Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to clear transform cache " + directory, e);
+        }
+    }
+
+    /* ------------ Serialization -------------- */
+
+    static byte[] encode(String key, CachedClass entry) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(entry.transformedBytes().length + 512);
+        DataOutputStream out = new DataOutputStream(payloadBytes);
+        out.writeUTF(key);
+        out.writeUTF(entry.className());
+        out.writeInt(entry.transformedBytes().length);
+        out.write(entry.transformedBytes());
+        writeAnalysis(out, entry);
+        out.flush();
+        byte[] payload = payloadBytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteArrayOutputStream fileBytes = new ByteArrayOutputStream(payload.length + 16);
+        DataOutputStream file = new DataOutputStream(fileBytes);
+        file.writeInt(MAGIC);
+        file.writeInt(FORMAT_VERSION);
+        file.writeLong(crc.getValue());
+        file.write(payload);
+        file.flush();
+        return fileBytes.toByteArray();
+    }
+
+    static CachedClass decode(String key, byte[] data) throws IOException {
+        if (data.length < 16)
+            return null;
+        DataInputStream file = new DataInputStream(new ByteArrayInputStream(data));
+        if (file.readInt() != MAGIC || file.readInt() != FORMAT_VERSION)
+            return null;
+        long expectedCrc = file.readLong();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 16, data.length - 16);
+        if (crc.getValue() != expectedCrc)
+            return null;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 16, data.length - 16));
+        if (!key.equals(in.readUTF()))
+            return null;
+        String className = in.readUTF();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return readAnalysis(in, className, bytes);
+    }
+
+    static void writeAnalysis(DataOutputStream out, CachedClass entry) throws IOException {
+        out.writeInt(entry.dependencies().size());
+        for (MethodDependency dependency : entry.dependencies())
+            writeDependency(out, dependency);
+
+        out.writeInt(entry.switchDependencies().size());
+        for (OneOfDependency dependency : entry.switchDependencies()) {
+            writeDependencies(out, dependency.dependencies());
+            writeDependencies(out, dependency.optionalDependencies());
+            out.writeBoolean(dependency.implemented());
+        }
+
+        out.writeInt(entry.methods().size());
+        for (MethodSummary method : entry.methods()) {
+            writeRef(out, method.ref());
+            writeRefs(out, method.references());
+            writeRefs(out, method.requiredDependencies());
+        }
+
+        out.writeInt(entry.events().size());
+        for (ClassDependencyAnalyzer.ReferenceEvent event : entry.events()) {
+            out.writeByte(event.kind().ordinal());
+            writeRef(out, event.ref());
+        }
+
+        out.writeInt(entry.classHashes().size());
+        for (Map.Entry<String, String> e : entry.classHashes().entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    static CachedClass readAnalysis(DataInputStream in, String className, byte[] bytes) throws IOException {
+        Set<MethodDependency> dependencies = new HashSet<>();
+        for (int i = 0, n = in.readInt(); i < n; i++)
+            dependencies.add(readDependency(in));
+
+        List<OneOfDependency> switchDependencies = new ArrayList<>();
+        for (int i = 0, n = in.readInt(); i < n; i++)
+            switchDependencies.add(new OneOfDependency(readDependencies(in), readDependencies(in), in.readBoolean()));
+
+        int methodCount = in.readInt();
+        List<MethodSummary> methods = new ArrayList<>(methodCount);
+        for (int i = 0; i < methodCount; i++)
+            methods.add(new MethodSummary(readRef(in), readRefs(in), readRefs(in)));
+
+        var kinds = ClassDependencyAnalyzer.ReferenceEvent.Kind.values();
+        int eventCount = in.readInt();
+        List<ClassDependencyAnalyzer.ReferenceEvent> events = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            int kind = in.readByte();
+            if (kind < 0 || kind >= kinds.length)
+                return null;
+            events.add(new ClassDependencyAnalyzer.ReferenceEvent(kinds[kind], readRef(in)));
+        }
+
+        Map<String, String> classHashes = new TreeMap<>();
+        for (int i = 0, n = in.readInt(); i < n; i++)
+            classHashes.put(in.readUTF(), in.readUTF());
+
+        return new CachedClass(className, bytes, dependencies, switchDependencies, methods, events, classHashes);
+    }
+
+    static void writeDependencies(DataOutputStream out, List<MethodDependency> dependencies) throws IOException {
+        out.writeInt(dependencies.size());
+        for (MethodDependency dependency : dependencies)
+            writeDependency(out, dependency);
+    }
+
+    static List<MethodDependency> readDependencies(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<MethodDependency> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            list.add(readDependency(in));
+        return list;
+    }
+
+    static void writeDependency(DataOutputStream out, MethodDependency dependency) throws IOException {
+        out.writeBoolean(dependency.optional());
+        writeRef(out, dependency.info());
+        out.writeByte(dependency.implemented() == null ? -1 : dependency.implemented() ? 1 : 0);
+    }
+
+    static MethodDependency readDependency(DataInputStream in) throws IOException {
+        boolean optional = in.readBoolean();
+        ReferenceInfo info = readRef(in);
+        byte implemented = in.readByte();
+        return new MethodDependency(optional, info, implemented == -1 ? null : implemented == 1);
+    }
+
+    static void writeRefs(DataOutputStream out, List<ReferenceInfo> refs) throws IOException {
+        out.writeInt(refs.size());
+        for (ReferenceInfo ref : refs)
+            writeRef(out, ref);
+    }
+
+    static List<ReferenceInfo> readRefs(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<ReferenceInfo> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            list.add(readRef(in));
+        return list;
+    }
+
+    static void writeRef(DataOutputStream out, ReferenceInfo ref) throws IOException {
+        out.writeUTF(ref.ownerInternalName());
+        out.writeUTF(ref.name());
+        out.writeUTF(ref.desc());
+        out.writeBoolean(ref.isStatic());
+    }
+
+    static ReferenceInfo readRef(DataInputStream in) throws IOException {
+        String owner = in.readUTF();
+        String name = in.readUTF();
+        String desc = in.readUTF();
+        boolean isStatic = in.readBoolean();
+        return desc.startsWith("(") ?
+                ReferenceInfo.forMethodInfo(owner, name, desc, isStatic) :
+                ReferenceInfo.forFieldInfo(owner, name, desc, isStatic);
+    }
+
+}
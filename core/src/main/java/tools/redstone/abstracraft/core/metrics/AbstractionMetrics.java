@@ -0,0 +1,246 @@
+package tools.redstone.abstracraft.core.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where an abstraction manager spends it's time and how well it's
+ * caches perform. Only exists while metrics are enabled on the manager, see
+ * {@link tools.redstone.abstracraft.core.AbstractionManager#setMetricsEnabled(boolean)},
+ * so disabled metrics cost a single null check at each recording site.
+ *
+ * All counters are {@link LongAdder}s, so recording from many threads
+ * transforming classes concurrently does not contend.
+ *
+ * @author orbyfied
+ */
+public class AbstractionMetrics implements AbstractionMetricsMXBean {
+
+    /** How the transformation of a class ended. */
+    public enum Outcome {
+        FILTERED,    // The class was rejected by the pre-filter and defined unchanged
+        RETAINED,    // The retained bytes of a previous loader generation were reused
+        CACHED,      // The class was restored from the transform cache
+        TRANSFORMED, // The class was analyzed and written
+        REANALYZED   // The class was defined before from other bytes or it's tree was released, and analyzed again
+    }
+
+    /** The kinds of analysis hook invocations which are counted. */
+    public enum HookCall {
+        IS_DEPENDENCY_CANDIDATE,
+        REQUIRES_ANALYSIS,
+        CHECK_IMPLEMENTED,
+        REQUIRED_REFERENCE,
+        OPTIONAL_REFERENCE,
+        ENTER_METHOD,
+        LEAVE_METHOD
+    }
+
+    /** The time spent transforming one class, including the analysis of the classes it references. */
+    public record ClassTiming(String className, Outcome outcome, long parseNanos, long analyzeNanos, long writeNanos) {
+        public long totalNanos() {
+            return parseNanos + analyzeNanos + writeNanos;
+        }
+    }
+
+    /** Collects the timings of one transformation while it runs. */
+    public static final class Timer {
+        public Outcome outcome = Outcome.TRANSFORMED;
+        public long parseNanos;
+        public long analyzeNanos;
+        public long writeNanos;
+    }
+
+    final LongAdder transformedClasses = new LongAdder();                               // The amount of transformations recorded
+    final LongAdder[] outcomes = newAdders(Outcome.values().length);                    // The amount of transformations by outcome
+    final LongAdder parseNanos = new LongAdder();                                       // The total time spent parsing classes
+    final LongAdder analyzeNanos = new LongAdder();                                     // The total time spent analyzing classes
+    final LongAdder writeNanos = new LongAdder();                                       // The total time spent writing classes
+    final LongAdder implementedCacheHits = new LongAdder();                             // The implementation state lookups answered by the cache
+    final LongAdder implementedCacheMisses = new LongAdder();                           // The implementation state lookups which had to be computed
+    final LongAdder referenceAnalyses = new LongAdder();                                // The amount of reference analyses registered with the manager
+    final LongAdder partialAnalyses = new LongAdder();                                  // The amount of partial analyses created
+    final LongAdder[] hookCalls = newAdders(HookCall.values().length);                  // The amount of hook invocations by kind
+    final Map<String, ClassTiming> classTimings = new ConcurrentHashMap<>();            // The timing of the last transformation of each class
+
+    static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /* ------------ Recording -------------- */
+
+    /**
+     * Record the transformation of the given class.
+     *
+     * @param className The public class name.
+     * @param timer The timings collected during the transformation.
+     */
+    public void recordTransform(String className, Timer timer) {
+        transformedClasses.increment();
+        outcomes[timer.outcome.ordinal()].increment();
+        parseNanos.add(timer.parseNanos);
+        analyzeNanos.add(timer.analyzeNanos);
+        writeNanos.add(timer.writeNanos);
+        classTimings.put(className, new ClassTiming(className, timer.outcome, timer.parseNanos, timer.analyzeNanos, timer.writeNanos));
+    }
+
+    public void implementedCacheHit() {
+        implementedCacheHits.increment();
+    }
+
+    public void implementedCacheMiss() {
+        implementedCacheMisses.increment();
+    }
+
+    public void referenceAnalysisRegistered() {
+        referenceAnalyses.increment();
+    }
+
+    public void partialAnalysisCreated() {
+        partialAnalyses.increment();
+    }
+
+    /**
+     * Record that the given amount of hooks were invoked.
+     *
+     * @param call The kind of invocation.
+     * @param count The amount of hooks invoked.
+     */
+    public void hooksCalled(HookCall call, int count) {
+        hookCalls[call.ordinal()].add(count);
+    }
+
+    /** Reset all counters and timings. */
+    public void reset() {
+        transformedClasses.reset();
+        for (LongAdder adder : outcomes) adder.reset();
+        parseNanos.reset();
+        analyzeNanos.reset();
+        writeNanos.reset();
+        implementedCacheHits.reset();
+        implementedCacheMisses.reset();
+        partialAnalyses.reset();
+        for (LongAdder adder : hookCalls) adder.reset();
+        classTimings.clear();
+        // the registered analyses are still registered
+    }
+
+    /* ------------ Querying -------------- */
+
+    public long getOutcomeCount(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    public long getHookCallCount(HookCall call) {
+        return hookCalls[call.ordinal()].sum();
+    }
+
+    /** Get the timing of the last transformation of the given class, or null. */
+    public ClassTiming getClassTiming(String className) {
+        return classTimings.get(className);
+    }
+
+    /** Get the timings of all classes transformed. */
+    public Collection<ClassTiming> getClassTimings() {
+        return Collections.unmodifiableCollection(classTimings.values());
+    }
+
+    /**
+     * Get the timings of the classes which took the longest to transform.
+     *
+     * @param count The maximum amount of classes.
+     * @return The timings, slowest first.
+     */
+    public List<ClassTiming> getSlowestClassTimings(int count) {
+        List<ClassTiming> list = new ArrayList<>(classTimings.values());
+        list.sort(Comparator.comparingLong(ClassTiming::totalNanos).reversed());
+        return list.subList(0, Math.min(count, list.size()));
+    }
+
+    @Override
+    public long getTransformedClassCount() {
+        return transformedClasses.sum();
+    }
+
+    @Override
+    public long getFilteredClassCount() {
+        return getOutcomeCount(Outcome.FILTERED);
+    }
+
+    @Override
+    public long getCachedClassCount() {
+        return getOutcomeCount(Outcome.CACHED);
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getAnalyzeNanos() {
+        return analyzeNanos.sum();
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    @Override
+    public long getImplementedCacheHits() {
+        return implementedCacheHits.sum();
+    }
+
+    @Override
+    public long getImplementedCacheMisses() {
+        return implementedCacheMisses.sum();
+    }
+
+    @Override
+    public double getImplementedCacheHitRate() {
+        long hits = implementedCacheHits.sum();
+        long total = hits + implementedCacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getReferenceAnalysisCount() {
+        return referenceAnalyses.sum();
+    }
+
+    @Override
+    public long getPartialAnalysisCount() {
+        return partialAnalyses.sum();
+    }
+
+    @Override
+    public Map<String, Long> getHookCallCounts() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (HookCall call : HookCall.values())
+            map.put(call.name(), hookCalls[call.ordinal()].sum());
+        return map;
+    }
+
+    @Override
+    public List<String> getSlowestClasses() {
+        List<String> list = new ArrayList<>();
+        for (ClassTiming timing : getSlowestClassTimings(10))
+            list.add(timing.className() + " " + timing.outcome() + " parse=" + timing.parseNanos() / 1000 +
+                    "us analyze=" + timing.analyzeNanos() / 1000 + "us write=" + timing.writeNanos() / 1000 + "us");
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "AbstractionMetrics{classes=" + getTransformedClassCount() + " parse=" + getParseNanos() / 1_000_000 +
+                "ms analyze=" + getAnalyzeNanos() / 1_000_000 + "ms write=" + getWriteNanos() / 1_000_000 +
+                "ms implementedCacheHitRate=" + getImplementedCacheHitRate() + " referenceAnalyses=" + getReferenceAnalysisCount() +
+                " partialAnalyses=" + getPartialAnalysisCount() + " hookCalls=" + getHookCallCounts() + "}";
+    }
+
+}
@@ -0,0 +1,43 @@
+package tools.redstone.abstracraft.core.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link AbstractionMetrics} of an abstraction manager,
+ * registered through {@link tools.redstone.abstracraft.core.AbstractionManager#registerMetricsMBean()}.
+ *
+ * @author orbyfied
+ */
+public interface AbstractionMetricsMXBean {
+
+    long getTransformedClassCount();
+
+    long getFilteredClassCount();
+
+    long getCachedClassCount();
+
+    long getParseNanos();
+
+    long getAnalyzeNanos();
+
+    long getWriteNanos();
+
+    long getImplementedCacheHits();
+
+    long getImplementedCacheMisses();
+
+    double getImplementedCacheHitRate();
+
+    long getReferenceAnalysisCount();
+
+    long getPartialAnalysisCount();
+
+    Map<String, Long> getHookCallCounts();
+
+    /** The ten classes which took the longest to transform, formatted. */
+    List<String> getSlowestClasses();
+
+    void reset();
+
+}
@@ -0,0 +1,39 @@
+package tools.redstone.abstracraft.core.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * A flight recorder event around the transformation of one class by an
+ * abstraction manager. Disabled unless enabled in the recording settings.
+ *
+ * @author orbyfied
+ */
+@Name("tools.redstone.abstracraft.Transform")
+@Label("Abstracraft Class Transform")
+@Category("Abstracraft")
+@Description("The analysis and transformation of a class by an abstraction manager")
+@StackTrace(false)
+public class TransformEvent extends Event {
+
+    @Label("Manager ID")
+    public int managerId;
+
+    @Label("Class Name")
+    public String className;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long parseTime;
+
+    @Label("Analyze Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long analyzeTime;
+
+    @Label("Write Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long writeTime;
+
+}
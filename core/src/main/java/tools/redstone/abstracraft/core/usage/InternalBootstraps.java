@@ -0,0 +1,155 @@
+package tools.redstone.abstracraft.core.usage;
+
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+
+import java.lang.invoke.*;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Bootstrap methods for invokedynamic instructions which should
+ * only be written by the bytecode transformer.
+ */
+public class InternalBootstraps {
+
+    /* Flags of the dependencies passed to guarded call sites */
+    public static final int FLAG_STATIC = 1;
+    public static final int FLAG_FIELD = 2;
+
+    static final MethodHandle IS_INSTANCE;
+    static final MethodHandle RELINK;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            IS_INSTANCE = lookup.findVirtual(Class.class, "isInstance", MethodType.methodType(boolean.class, Object.class));
+            RELINK = lookup.findVirtual(GuardedCallSite.class, "relink", MethodType.methodType(MethodHandle.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Bind a call to an abstraction method to the registered implementation, guarded
+     * by an instance check which falls back to the interface call for other receivers.
+     * The call site is constant, so the JIT sees a monomorphic, inlineable call.
+     *
+     * @param caller The lookup of the calling class.
+     * @param name The method name.
+     * @param type The call site type, with the abstraction as first parameter.
+     * @param abstraction The abstraction class declaring the method.
+     * @param implName The name of the implementation class.
+     * @return The call site.
+     */
+    public static CallSite devirtualize(MethodHandles.Lookup caller, String name, MethodType type,
+                                        Class<?> abstraction, String implName) throws ReflectiveOperationException {
+        MethodType methodType = type.dropParameterTypes(0, 1);
+        MethodHandle generic = caller.findVirtual(abstraction, name, methodType).asType(type);
+
+        try {
+            Class<?> impl = Class.forName(implName, false, caller.lookupClass().getClassLoader());
+            MethodHandle direct = caller.findVirtual(impl, name, methodType).asType(type);
+            MethodHandle test = IS_INSTANCE.bindTo(impl).asType(MethodType.methodType(boolean.class, type.parameterType(0)));
+            return new ConstantCallSite(MethodHandles.guardWithTest(test, direct, generic));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // the implementation is not accessible from the caller
+            return new ConstantCallSite(generic);
+        }
+    }
+
+    /**
+     * A call site which links to one of two targets depending on whether all
+     * dependencies are implemented, guarded by the switch point of each dependency.
+     * Once a switch point is invalidated the next invocation relinks the call site.
+     */
+    static final class GuardedCallSite extends MutableCallSite {
+        final AbstractionManager manager;
+        final int[] ids;                   // The reference IDs of the dependencies
+        final MethodHandle present;        // The target if all dependencies are implemented
+        final MethodHandle notPresent;     // The target otherwise
+        final MethodHandle fallback;       // Relinks and invokes the new target
+
+        GuardedCallSite(MethodType type, AbstractionManager manager, int[] ids, MethodHandle present, MethodHandle notPresent) {
+            super(type);
+            this.manager = manager;
+            this.ids = ids;
+            this.present = present;
+            this.notPresent = notPresent;
+            this.fallback = MethodHandles.foldArguments(MethodHandles.exactInvoker(type), RELINK.bindTo(this));
+            relink();
+        }
+
+        // Link the target for the current state, the switch points
+        // are taken before the state is read so no change is missed
+        MethodHandle relink() {
+            SwitchPoint[] switchPoints = new SwitchPoint[ids.length];
+            for (int i = 0; i < ids.length; i++)
+                switchPoints[i] = manager.getSwitchPoint(ids[i]);
+
+            boolean allImplemented = true;
+            for (int id : ids) {
+                if (!manager.isImplemented(id)) {
+                    allImplemented = false;
+                    break;
+                }
+            }
+
+            MethodHandle target = allImplemented ? present : notPresent;
+            for (SwitchPoint switchPoint : switchPoints)
+                target = switchPoint.guardWithTest(target, fallback);
+            setTarget(target);
+            return target;
+        }
+    }
+
+    /**
+     * Link a call to {@link Usage#optionally(Supplier)}, {@link Usage#optionally(Runnable)}
+     * or {@link Usage#isImplemented(Supplier)} (with the lambda dropped) to the present or
+     * not present behavior, depending on the current implementation state of the dependencies.
+     * The call site follows changes to the state, while being constant until one happens.
+     *
+     * @param caller The lookup of the calling class.
+     * @param name The name of the called method on {@link Usage}.
+     * @param type The call site type.
+     * @param managerId The ID of the abstraction manager, see {@link AbstractionManager#getId()}.
+     * @param dependencies The owner, name, descriptor and flags of each dependency.
+     * @return The call site.
+     */
+    public static CallSite guardedOptional(MethodHandles.Lookup caller, String name, MethodType type,
+                                           int managerId, Object... dependencies) throws ReflectiveOperationException {
+        AbstractionManager manager = AbstractionManager.getById(managerId);
+        if (manager == null)
+            throw new IllegalStateException("No abstraction manager by ID " + managerId + " for " + caller.lookupClass());
+
+        int[] ids = new int[dependencies.length / 4];
+        for (int i = 0; i < ids.length; i++) {
+            String owner = (String) dependencies[i * 4];
+            String refName = (String) dependencies[i * 4 + 1];
+            String desc = (String) dependencies[i * 4 + 2];
+            int flags = (Integer) dependencies[i * 4 + 3];
+            ReferenceInfo ref = (flags & FLAG_FIELD) != 0 ?
+                    ReferenceInfo.forFieldInfo(owner, refName, desc, (flags & FLAG_STATIC) != 0) :
+                    ReferenceInfo.forMethodInfo(owner, refName, desc, (flags & FLAG_STATIC) != 0);
+            ids[i] = manager.getReferenceTable().intern(ref);
+        }
+
+        MethodHandle present;
+        MethodHandle notPresent;
+        if (type.parameterCount() == 0) {
+            // isImplemented, the block itself is not needed
+            present = MethodHandles.constant(boolean.class, true);
+            notPresent = MethodHandles.constant(boolean.class, false);
+        } else if (type.parameterType(0) == Runnable.class) {
+            MethodType methodType = MethodType.methodType(boolean.class, Runnable.class);
+            present = MethodHandles.lookup().findStatic(Usage.class, name, methodType);
+            notPresent = MethodHandles.lookup().findStatic(Usage.InternalSubstituteMethods.class, "notPresentBoolean", methodType);
+        } else {
+            present = MethodHandles.lookup().findStatic(Usage.class, name, MethodType.methodType(Optional.class, Supplier.class));
+            notPresent = MethodHandles.lookup().findStatic(Usage.InternalSubstituteMethods.class, "notPresentOptional", MethodType.methodType(Optional.class, Supplier.class));
+        }
+
+        return new GuardedCallSite(type, manager, ids, present.asType(type), notPresent.asType(type));
+    }
+
+}
@@ -17,6 +17,20 @@ public class Usage {
         return true;
     }
 
+    /**
+     * Check whether everything used by the given block is implemented, without running it.
+     * Calls to this are replaced by a constant by the bytecode transformer, so branches
+     * on it can be eliminated completely by the JIT.
+     */
+    public static boolean isImplemented(Supplier<?> supplier) {
+        throw new AssertionError(); // THIS WILL BE SUBSTITUTED BY THE BYTECODE TRANSFORMER
+    }
+
+    /** See {@link #isImplemented(Supplier)}. */
+    public static boolean isImplemented(Runnable r) {
+        throw new AssertionError(); // THIS WILL BE SUBSTITUTED BY THE BYTECODE TRANSFORMER
+    }
+
     @SafeVarargs
     public static <T> T requireAtLeastOne(Supplier<T>... suppliers) {
         throw new AssertionError(); // THIS WILL BE SUBSTITUTED BY THE BYTECODE TRANSFORMER
@@ -1,5 +1,6 @@
 package tools.redstone.abstracraft.core.util;
 
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
@@ -65,4 +66,28 @@ public class ASMUtil {
         };
     }
 
+    /** Get the wrapper type of the given primitive type, or the type itself if it is not primitive */
+    public static Type boxedType(Type type) {
+        return switch (type.getSort()) {
+            case Type.BOOLEAN -> Type.getType(Boolean.class);
+            case Type.BYTE -> Type.getType(Byte.class);
+            case Type.CHAR -> Type.getType(Character.class);
+            case Type.DOUBLE -> Type.getType(Double.class);
+            case Type.FLOAT -> Type.getType(Float.class);
+            case Type.INT -> Type.getType(Integer.class);
+            case Type.LONG -> Type.getType(Long.class);
+            case Type.SHORT -> Type.getType(Short.class);
+            default -> type;
+        };
+    }
+
+    /** Box the primitive value of the given type on top of the stack, does nothing for references */
+    public static void box(MethodVisitor visitor, Type type) {
+        Type boxed = boxedType(type);
+        if (boxed == type)
+            return;
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, boxed.getInternalName(), "valueOf",
+                Type.getMethodDescriptor(boxed, type), false);
+    }
+
 }
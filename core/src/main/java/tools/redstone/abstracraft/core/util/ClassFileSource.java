@@ -0,0 +1,171 @@
+package tools.redstone.abstracraft.core.util;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Reads class files through the resources of a class loader and keeps them,
+ * so the class loader, the analysis and the hooks share one buffer and one
+ * {@link ClassReader} per class instead of each reading the file again.
+ *
+ * Files of classes matching the retain predicate, which are going to be
+ * defined, are kept until {@link #evict(String)} is called once they have been.
+ * Other files are only kept softly, as they may never be needed again.
+ *
+ * @author orbyfied
+ */
+public class ClassFileSource {
+
+    /** The bytes of a class file and the reader parsing them, the reader is shared and not mutated. */
+    public record ClassFile(String internalName, byte[] bytes, ClassReader reader) {
+        public static ClassFile of(String internalName, byte[] bytes) {
+            return new ClassFile(internalName, bytes, new ClassReader(bytes));
+        }
+    }
+
+    final Supplier<ClassLoader> loaderSupplier;                // Provides the loader to read the resources of
+    final Predicate<String> retainPredicate;                   // Whether to keep the file of a class by internal name until evicted
+    final Map<String, Object> files = new ConcurrentHashMap<>(); // The files by internal name, either a ClassFile or a soft reference to one
+    final LongAdder reads = new LongAdder();                   // The amount of class files read
+    volatile ClasspathIndex classpathIndex;                    // The index to read class files from before the loader, null if disabled
+
+    public ClassFileSource(Supplier<ClassLoader> loaderSupplier, Predicate<String> retainPredicate) {
+        this.loaderSupplier = loaderSupplier;
+        this.retainPredicate = retainPredicate;
+    }
+
+    public ClassFileSource(ClassLoader loader) {
+        this(() -> loader, __ -> false);
+    }
+
+    /**
+     * Set the class path index to look up class files in before falling
+     * back to the resources of the loader. The index has to cover the same
+     * class path as the loader, as the first class file found is used.
+     *
+     * @param classpathIndex The index or null to disable.
+     * @return This.
+     */
+    public ClassFileSource setClasspathIndex(ClasspathIndex classpathIndex) {
+        this.classpathIndex = classpathIndex;
+        return this;
+    }
+
+    public ClasspathIndex getClasspathIndex() {
+        return classpathIndex;
+    }
+
+    /** Get the loader the resources are currently read through. */
+    public ClassLoader getLoader() {
+        ClassLoader loader = loaderSupplier.get();
+        return loader != null ? loader : ClassLoader.getSystemClassLoader();
+    }
+
+    /**
+     * Get the class file of the given class, reading it if it was not read yet.
+     *
+     * @param internalName The internal class name.
+     * @return The class file or null if it could not be found.
+     */
+    public ClassFile get(String internalName) {
+        ClassFile file = find(internalName);
+        if (file != null)
+            return file;
+
+        // a class read twice concurrently is harmless,
+        // the first one registered is used by both
+        file = read(internalName);
+        if (file == null)
+            return null;
+        Object stored = retainPredicate.test(internalName) ? file : new SoftReference<>(file);
+        Object prev = files.putIfAbsent(internalName, stored);
+        if (prev != null) {
+            ClassFile prevFile = unwrap(prev);
+            if (prevFile != null)
+                return prevFile;
+            files.put(internalName, stored);
+        }
+
+        return file;
+    }
+
+    /**
+     * Find the class file of the given class if it is currently kept.
+     *
+     * @param internalName The internal class name.
+     * @return The class file or null.
+     */
+    public ClassFile find(String internalName) {
+        return unwrap(files.get(internalName));
+    }
+
+    /**
+     * Find the class file kept for the given class if it was read
+     * into exactly the given buffer, to reuse it's reader.
+     *
+     * @param internalName The internal class name.
+     * @param bytes The class bytes.
+     * @return The class file or null.
+     */
+    public ClassFile find(String internalName, byte[] bytes) {
+        ClassFile file = find(internalName);
+        return file != null && file.bytes == bytes ? file : null;
+    }
+
+    /**
+     * Get the bytes of the given class file, reading them without
+     * keeping them if the file is not kept currently.
+     *
+     * @param internalName The internal class name.
+     * @return The bytes or null if the class file could not be found.
+     */
+    public byte[] peek(String internalName) {
+        ClassFile file = find(internalName);
+        if (file == null)
+            file = read(internalName);
+        return file != null ? file.bytes() : null;
+    }
+
+    /** Drop the file of the given class, for example once it has been defined. */
+    public void evict(String internalName) {
+        files.remove(internalName);
+    }
+
+    /** Get the amount of class files which have been read. */
+    public long getReadCount() {
+        return reads.sum();
+    }
+
+    private static ClassFile unwrap(Object o) {
+        if (o instanceof SoftReference<?> ref)
+            return (ClassFile) ref.get();
+        return (ClassFile) o;
+    }
+
+    // Read the class file from the index or the resources of the loader
+    private ClassFile read(String internalName) {
+        ClasspathIndex index = this.classpathIndex;
+        byte[] indexed = index != null ? index.read(internalName) : null;
+        if (indexed != null) {
+            reads.increment();
+            return ClassFile.of(internalName, indexed);
+        }
+
+        try (InputStream stream = getLoader().getResourceAsStream(internalName + ".class")) {
+            if (stream == null)
+                return null;
+            reads.increment();
+            return ClassFile.of(internalName, stream.readAllBytes());
+        } catch (Exception e) {
+            throw new RuntimeException("Error while reading class file of " + internalName, e);
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package tools.redstone.abstracraft.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * An index of the class files on a class path, which maps internal class
+ * names directly to their location, so class bytes can be read without
+ * walking the class path or going through URL streams.
+ *
+ * Each jar is memory mapped once and only it's central directory is parsed,
+ * the entries themselves are read (and inflated) from the mapping on demand.
+ * Directories are walked once when the index is built. Like a class loader,
+ * the first root on the class path containing a class wins.
+ *
+ * The index is a snapshot, class files added to or removed from the roots
+ * after it was built are not seen. Jars which can not be indexed, like
+ * Zip64 archives, are skipped with a warning.
+ *
+ * @author orbyfied
+ */
+public class ClasspathIndex {
+
+    static final int SIG_EOCD = 0x06054b50;         // The signature of the end of central directory record
+    static final int SIG_CEN = 0x02014b50;          // The signature of a central directory file header
+    static final int SIG_LOC = 0x04034b50;          // The signature of a local file header
+    static final int EOCD_SIZE = 22;                // The size of the end of central directory record without comment
+    static final String VERSIONS_PREFIX = "META-INF/versions/"; // The prefix of multi-release entries, which are not indexed
+
+    /** The location of one class file in a jar. */
+    record JarEntry(MappedByteBuffer jar, int localHeaderOffset, int method, int compressedSize, int size) { }
+
+    final List<Path> roots;                               // The indexed jars and directories, in class path order
+    final Map<String, Object> entries = new HashMap<>();  // The jar entries or file paths by internal class name
+
+    private ClasspathIndex(List<Path> roots) {
+        this.roots = List.copyOf(roots);
+    }
+
+    /**
+     * Build an index of the given class path roots.
+     *
+     * @param roots The jars and directories in class path order.
+     * @return The index.
+     */
+    public static ClasspathIndex build(List<Path> roots) {
+        ClasspathIndex index = new ClasspathIndex(roots);
+        for (Path root : roots) {
+            try {
+                if (Files.isDirectory(root)) {
+                    index.indexDirectory(root);
+                } else if (Files.isRegularFile(root)) {
+                    index.indexJar(root);
+                }
+            } catch (Exception e) {
+                System.err.println("WARNING Failed to index class path root " + root + ": " + e);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Build an index of the class path of this JVM, which is
+     * the class path of the system class loader.
+     *
+     * @return The index.
+     */
+    public static ClasspathIndex ofClassPath() {
+        List<Path> roots = new ArrayList<>();
+        for (String s : System.getProperty("java.class.path", "").split(File.pathSeparator))
+            if (!s.isEmpty())
+                roots.add(Path.of(s));
+        return build(roots);
+    }
+
+    public List<Path> getRoots() {
+        return roots;
+    }
+
+    /** Get the amount of class files indexed. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Whether a class file with the given internal name is indexed. */
+    public boolean contains(String internalName) {
+        return entries.containsKey(internalName);
+    }
+
+    /**
+     * Read the bytes of the given class file.
+     *
+     * @param internalName The internal class name.
+     * @return The class bytes or null if the class is not indexed.
+     */
+    public byte[] read(String internalName) {
+        Object entry = entries.get(internalName);
+        if (entry == null)
+            return null;
+
+        try {
+            if (entry instanceof JarEntry jarEntry)
+                return readJarEntry(jarEntry);
+            return Files.readAllBytes((Path) entry);
+        } catch (Exception e) {
+            throw new RuntimeException("Error while reading class file of " + internalName, e);
+        }
+    }
+
+    // Index the class files in the given directory
+    private void indexDirectory(Path root) throws IOException {
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.forEach(path -> {
+                String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                if (name.endsWith(".class") && !name.startsWith(VERSIONS_PREFIX))
+                    entries.putIfAbsent(name.substring(0, name.length() - 6), path);
+            });
+        }
+    }
+
+    // Map the given jar and index the class files in it's central directory
+    private void indexJar(Path path) throws IOException {
+        MappedByteBuffer jar;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.err.println("WARNING Skipping class path jar " + path + ", it is too large to be mapped");
+                return;
+            }
+
+            // only the pages of the central directory and
+            // the entries which are read are ever touched
+            jar = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ByteBuffer buf = jar.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = findEndOfCentralDirectory(buf);
+        if (eocd == -1)
+            throw new IOException("No end of central directory record found");
+        int count = buf.getShort(eocd + 10) & 0xFFFF;
+        long cenOffset = buf.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || cenOffset == 0xFFFFFFFFL) {
+            System.err.println("WARNING Skipping class path jar " + path + ", Zip64 archives are not supported");
+            return;
+        }
+
+        int pos = (int) cenOffset;
+        for (int i = 0; i < count; i++) {
+            if (buf.getInt(pos) != SIG_CEN)
+                throw new IOException("Invalid central directory header at " + pos);
+            int method = buf.getShort(pos + 10) & 0xFFFF;
+            int compressedSize = buf.getInt(pos + 20);
+            int size = buf.getInt(pos + 24);
+            int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+            int localHeaderOffset = buf.getInt(pos + 42);
+
+            String name = decodeName(buf, pos + 46, nameLength);
+            if (name.endsWith(".class") && !name.startsWith(VERSIONS_PREFIX))
+                entries.putIfAbsent(name.substring(0, name.length() - 6),
+                        new JarEntry(jar, localHeaderOffset, method, compressedSize, size));
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    // Find the end of central directory record, which
+    // is followed by a comment of up to 65535 bytes
+    private static int findEndOfCentralDirectory(ByteBuffer buf) {
+        int min = Math.max(0, buf.limit() - EOCD_SIZE - 0xFFFF);
+        for (int pos = buf.limit() - EOCD_SIZE; pos >= min; pos--)
+            if (buf.getInt(pos) == SIG_EOCD)
+                return pos;
+        return -1;
+    }
+
+    private static String decodeName(ByteBuffer buf, int pos, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(pos, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Read and inflate the data of the given jar entry
+    private static byte[] readJarEntry(JarEntry entry) throws IOException, DataFormatException {
+        ByteBuffer buf = entry.jar.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int pos = entry.localHeaderOffset;
+        if (buf.getInt(pos) != SIG_LOC)
+            throw new IOException("Invalid local file header at " + pos);
+        int dataOffset = pos + 30 + (buf.getShort(pos + 26) & 0xFFFF) + (buf.getShort(pos + 28) & 0xFFFF);
+        ByteBuffer data = buf.slice(dataOffset, entry.compressedSize);
+
+        byte[] bytes = new byte[entry.size];
+        switch (entry.method) {
+            case ZipEntry.STORED -> data.get(bytes);
+            case ZipEntry.DEFLATED -> {
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(data);
+                    int n = 0;
+                    while (n < bytes.length && !inflater.finished()) {
+                        int read = inflater.inflate(bytes, n, bytes.length - n);
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                            throw new IOException("Truncated deflated entry");
+                        n += read;
+                    }
+                } finally {
+                    inflater.end();
+                }
+            }
+            default -> throw new IOException("Unsupported compression method " + entry.method);
+        }
+
+        return bytes;
+    }
+
+}
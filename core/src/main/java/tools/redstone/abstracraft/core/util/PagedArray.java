@@ -0,0 +1,87 @@
+package tools.redstone.abstracraft.core.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe array indexed by dense int IDs which grows on demand.
+ *
+ * Elements are stored in fixed size pages which never move, so growing
+ * only copies the page directory and never blocks readers.
+ *
+ * @param <T> The element type.
+ */
+public class PagedArray<T> {
+
+    static final int PAGE_SHIFT = 10;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    volatile AtomicReferenceArray<T>[] pages = newPages(0); // The pages of elements
+
+    /**
+     * Get the element at the given index.
+     *
+     * @param index The index.
+     * @return The element or null if unset.
+     */
+    public T get(int index) {
+        var pages = this.pages;
+        int page = index >>> PAGE_SHIFT;
+        if (page >= pages.length)
+            return null;
+        return pages[page].get(index & PAGE_MASK);
+    }
+
+    /**
+     * Set the element at the given index.
+     *
+     * @param index The index.
+     * @param value The value.
+     */
+    public void set(int index, T value) {
+        page(index).set(index & PAGE_MASK, value);
+    }
+
+    /**
+     * Set the element at the given index if it is currently unset.
+     *
+     * @param index The index.
+     * @param value The value.
+     * @return The element which was already set or null if it was set to the given value.
+     */
+    public T setIfAbsent(int index, T value) {
+        var page = page(index);
+        if (page.compareAndSet(index & PAGE_MASK, null, value))
+            return null;
+        return page.get(index & PAGE_MASK);
+    }
+
+    // Create an array of pages, arrays of a parameterized type can only be created with a wildcard
+    @SuppressWarnings("unchecked")
+    private static <T> AtomicReferenceArray<T>[] newPages(int length) {
+        return (AtomicReferenceArray<T>[]) new AtomicReferenceArray<?>[length];
+    }
+
+    // Get or create the page for the given index
+    private AtomicReferenceArray<T> page(int index) {
+        int page = index >>> PAGE_SHIFT;
+        var pages = this.pages;
+        if (page < pages.length)
+            return pages[page];
+
+        synchronized (this) {
+            pages = this.pages;
+            if (page >= pages.length) {
+                int oldLength = pages.length;
+                pages = Arrays.copyOf(pages, Math.max(page + 1, oldLength * 2));
+                for (int i = oldLength; i < pages.length; i++)
+                    pages[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+                this.pages = pages;
+            }
+
+            return pages[page];
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package tools.redstone.abstracraft.core.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A thread-safe int array indexed by dense int IDs which grows on demand,
+ * unset elements are zero. See {@link PagedArray}.
+ */
+public class PagedIntArray {
+
+    volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0]; // The pages of elements
+
+    /**
+     * Get the element at the given index.
+     *
+     * @param index The index.
+     * @return The element or 0 if unset.
+     */
+    public int get(int index) {
+        var pages = this.pages;
+        int page = index >>> PagedArray.PAGE_SHIFT;
+        if (page >= pages.length)
+            return 0;
+        return pages[page].get(index & PagedArray.PAGE_MASK);
+    }
+
+    /**
+     * Set the element at the given index.
+     *
+     * @param index The index.
+     * @param value The value.
+     */
+    public void set(int index, int value) {
+        page(index).set(index & PagedArray.PAGE_MASK, value);
+    }
+
+    /**
+     * Set the element at the given index if it is currently zero.
+     *
+     * @param index The index.
+     * @param value The value.
+     * @return The element which was already set or 0 if it was set to the given value.
+     */
+    public int setIfAbsent(int index, int value) {
+        var page = page(index);
+        if (page.compareAndSet(index & PagedArray.PAGE_MASK, 0, value))
+            return 0;
+        return page.get(index & PagedArray.PAGE_MASK);
+    }
+
+    // Get or create the page for the given index
+    private AtomicIntegerArray page(int index) {
+        int page = index >>> PagedArray.PAGE_SHIFT;
+        var pages = this.pages;
+        if (page < pages.length)
+            return pages[page];
+
+        synchronized (this) {
+            pages = this.pages;
+            if (page >= pages.length) {
+                int oldLength = pages.length;
+                pages = Arrays.copyOf(pages, Math.max(page + 1, oldLength * 2));
+                for (int i = oldLength; i < pages.length; i++)
+                    pages[i] = new AtomicIntegerArray(PagedArray.PAGE_SIZE);
+                this.pages = pages;
+            }
+
+            return pages[page];
+        }
+    }
+
+}
@@ -11,8 +11,8 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 /**
@@ -21,7 +21,11 @@ import java.util.function.Predicate;
 public class ReflectUtil {
     private ReflectUtil() { }
 
-    static final Map<String, Class<?>> forNameCache = new HashMap<>();
+    static final Map<String, Class<?>> forNameCache = new ConcurrentHashMap<>();
+
+    // The index of the JVM class path used for classes
+    // of the system class loader, null if disabled
+    static volatile ClasspathIndex systemClasspathIndex;
 
     // The sun.misc.Unsafe instance
     static final Unsafe UNSAFE;
@@ -95,18 +99,30 @@ public class ReflectUtil {
      * @return The class.
      */
     public static Class<?> getClass(String name, ClassLoader loader) {
-        Class<?> klass = forNameCache.get(name);
-        if (klass != null)
-            return klass;
-
+        // not cached by name, as the same name may
+        // be defined by multiple class loaders
         try {
-            forNameCache.put(name, klass = Class.forName(name, true, loader));
-            return klass;
+            return Class.forName(name, true, loader);
         } catch (Exception e) {
             throw new IllegalArgumentException("Error while finding class by name '" + name + "'", e);
         }
     }
 
+    /**
+     * Set the index of the JVM class path, see {@link ClasspathIndex#ofClassPath()},
+     * which {@link #getBytes(Class)} reads the class files of classes defined by the
+     * system class loader from.
+     *
+     * @param index The index or null to disable.
+     */
+    public static void setSystemClasspathIndex(ClasspathIndex index) {
+        systemClasspathIndex = index;
+    }
+
+    public static ClasspathIndex getSystemClasspathIndex() {
+        return systemClasspathIndex;
+    }
+
     /**
      * Get the bytes of the class file of the given loaded class.
      *
@@ -114,6 +130,13 @@ public class ReflectUtil {
      * @return The bytes.
      */
     public static byte[] getBytes(Class<?> klass) {
+        ClasspathIndex index = systemClasspathIndex;
+        if (index != null && klass.getClassLoader() == ClassLoader.getSystemClassLoader()) {
+            byte[] bytes = index.read(klass.getName().replace('.', '/'));
+            if (bytes != null)
+                return bytes;
+        }
+
         try {
             // get resource path
             String className = klass.getName();
@@ -165,8 +188,20 @@ public class ReflectUtil {
         void transform(String name, ClassReader reader, ClassWriter writer);
     }
 
+    /** Defines a class transformer which directly produces the output bytes. */
+    public interface ClassBytesTransformer {
+        byte[] transform(String name, byte[] bytes);
+    }
+
+    /** Provides the original bytes of a class by name, or null if it does not exist. */
+    public interface ClassBytesSource {
+        byte[] read(String name) throws Exception;
+    }
+
     /**
-     * Find the loaded class lowest in the chain of class loaders.
+     * Find the loaded class lowest in the chain of class loaders. An isolated
+     * transforming class loader defines the classes it transforms itself, so
+     * the search does not continue to its parents for those.
      *
      * @param loader The loader.
      * @param name The class name.
@@ -180,6 +215,10 @@ public class ReflectUtil {
                     return klass;
                 }
 
+                if (loader instanceof TransformingClassLoader tcl && tcl.isolated && tcl.namePredicate.test(name)) {
+                    return null;
+                }
+
                 loader = loader.getParent();
             }
 
@@ -207,15 +246,93 @@ public class ReflectUtil {
                                                       ClassTransformer transformer,
                                                       int writerFlags,
                                                       boolean warnLoaded) {
-        // create class loader
-        return new ClassLoader(parent) {
-            @Override
-            public Class<?> loadClass(String name) throws ClassNotFoundException {
-                if (!namePredicate.test(name)) {
-                    return super.loadClass(name);
-                }
+        return transformingClassLoader(namePredicate, parent, (name, bytes) -> {
+            ClassReader reader = new ClassReader(bytes);
+            ClassWriter writer = new ClassWriter(writerFlags);
+            transformer.transform(name, reader, writer);
+            return writer.toByteArray();
+        }, warnLoaded);
+    }
 
-                Class<?> klass = ReflectUtil.findLoadedClass(this, name);
+    public static ClassLoader transformingClassLoader(Predicate<String> namePredicate,
+                                                      ClassLoader parent,
+                                                      ClassBytesTransformer transformer,
+                                                      boolean warnLoaded) {
+        return new TransformingClassLoader(parent, namePredicate, transformer, warnLoaded, false);
+    }
+
+    public static ClassLoader transformingClassLoader(Predicate<String> namePredicate,
+                                                      ClassLoader parent,
+                                                      ClassBytesTransformer transformer,
+                                                      boolean warnLoaded,
+                                                      boolean isolated) {
+        return new TransformingClassLoader(parent, namePredicate, transformer, warnLoaded, isolated);
+    }
+
+    public static ClassLoader transformingClassLoader(Predicate<String> namePredicate,
+                                                      ClassLoader parent,
+                                                      ClassBytesSource source,
+                                                      ClassBytesTransformer transformer,
+                                                      boolean warnLoaded,
+                                                      boolean isolated) {
+        return new TransformingClassLoader(parent, namePredicate, source, transformer, warnLoaded, isolated);
+    }
+
+    /**
+     * A class loader which transforms the bytes of all classes matching
+     * the name predicate before defining them.
+     *
+     * This loader is parallel capable, classes are locked individually
+     * so different classes can be loaded and transformed concurrently.
+     */
+    public static class TransformingClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        final Predicate<String> namePredicate;     // Whether a class should be transformed by this loader
+        final ClassBytesSource source;             // The source of the original class bytes, null to read the resources of this loader
+        final ClassBytesTransformer transformer;   // The transformer for the class bytes
+        final boolean warnLoaded;                  // Whether to warn when a class was already loaded by another loader
+        final boolean isolated;                    // Whether to define matching classes even if a parent loader already loaded them
+
+        public TransformingClassLoader(ClassLoader parent,
+                                       Predicate<String> namePredicate,
+                                       ClassBytesTransformer transformer,
+                                       boolean warnLoaded) {
+            this(parent, namePredicate, transformer, warnLoaded, false);
+        }
+
+        public TransformingClassLoader(ClassLoader parent,
+                                       Predicate<String> namePredicate,
+                                       ClassBytesTransformer transformer,
+                                       boolean warnLoaded,
+                                       boolean isolated) {
+            this(parent, namePredicate, null, transformer, warnLoaded, isolated);
+        }
+
+        public TransformingClassLoader(ClassLoader parent,
+                                       Predicate<String> namePredicate,
+                                       ClassBytesSource source,
+                                       ClassBytesTransformer transformer,
+                                       boolean warnLoaded,
+                                       boolean isolated) {
+            super(parent);
+            this.namePredicate = namePredicate;
+            this.source = source;
+            this.transformer = transformer;
+            this.warnLoaded = warnLoaded;
+            this.isolated = isolated;
+        }
+
+        @Override
+        public Class<?> loadClass(String name) throws ClassNotFoundException {
+            if (!namePredicate.test(name)) {
+                return super.loadClass(name);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> klass = isolated ? findLoadedClass(name) : ReflectUtil.findLoadedClass(this, name);
                 if (klass != null) {
                     if (warnLoaded && klass.getClassLoader() != this) {
                         System.err.println("WARNING Found loaded class " + name + " in loader " + klass.getClassLoader());
@@ -225,36 +342,33 @@ public class ReflectUtil {
                 }
 
                 try {
-                    String classAsPath = name.replace('.', '/') + ".class";
-
-                    // open resource
-                    try (InputStream stream = getResourceAsStream(classAsPath)) {
-                        if (stream == null)
-                            throw new IllegalArgumentException("Could not find resource stream for " + klass);
-                        byte[] bytes = stream.readAllBytes();
-
-                        ClassReader reader = new ClassReader(bytes);
-                        ClassWriter writer = new ClassWriter(writerFlags);
-                        transformer.transform(name, reader, writer);
-                        bytes = writer.toByteArray();
-
-                        return defineClass(name, bytes, 0, bytes.length);
-                    }
+                    byte[] bytes = source != null ? source.read(name) : readResource(name);
+                    if (bytes == null)
+                        throw new IllegalArgumentException("Could not find resource stream for " + name);
+                    bytes = transformer.transform(name, bytes);
+                    return defineClass(name, bytes, 0, bytes.length);
                 } catch (Exception e) {
                     throw new RuntimeException("While loading class " + name, e);
                 }
             }
+        }
 
-            @Override
-            protected Class<?> findClass(String name) throws ClassNotFoundException {
-                Class<?> klass = this.findLoadedClass(name);
-                if (klass != null) {
-                    return klass;
-                }
+        // Read the bytes of the given class from the resources
+        private byte[] readResource(String name) throws Exception {
+            try (InputStream stream = getResourceAsStream(name.replace('.', '/') + ".class")) {
+                return stream != null ? stream.readAllBytes() : null;
+            }
+        }
 
-                return super.findClass(name);
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            Class<?> klass = this.findLoadedClass(name);
+            if (klass != null) {
+                return klass;
             }
-        };
+
+            return super.findClass(name);
+        }
     }
 
     @SuppressWarnings("unchecked")
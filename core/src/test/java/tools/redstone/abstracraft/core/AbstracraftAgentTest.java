@@ -0,0 +1,176 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.agent.AbstracraftAgent;
+import tools.redstone.abstracraft.core.analysis.AnalysisContext;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static tools.redstone.abstracraft.core.HotSwapTest.*;
+
+public class AbstracraftAgentTest {
+
+    public static class TestHook implements DependencyAnalysisHook { }
+
+    public static class TestConfigurer implements AbstracraftAgent.Configurer {
+        static volatile AbstractionManager configured;
+
+        @Override
+        public void configure(AbstractionManager manager) {
+            configured = manager;
+        }
+    }
+
+    // Defines classes from the given bytes, like the loaders the agent transforms for
+    static class DefiningLoader extends ClassLoader {
+        DefiningLoader() {
+            super(AbstracraftAgentTest.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    @Test
+    void test_CreateManager() throws Exception {
+        Path cacheDir = Files.createTempDirectory("abstracraft-agent");
+        AbstractionManager manager = AbstracraftAgent.createManager(
+                "impl=" + AbcImpl.class.getName() + "," +
+                "hook=" + TestHook.class.getName() + "," +
+                "audit=com.example., audit=" + HotSwapTest.class.getName() + "," +
+                "hookVersion=v2," +
+                "cache=" + cacheDir + "," +
+                "configurer=" + TestConfigurer.class.getName());
+
+        var audit = manager.getClassAuditPredicate();
+        Assertions.assertTrue(audit.test("com.example.Main"));
+        Assertions.assertFalse(audit.test("org.example.Main"));
+        Assertions.assertFalse(audit.test(USES_B), "excluded package audited");
+
+        Assertions.assertEquals("v2", manager.hookSetVersion);
+        Assertions.assertTrue(manager.analysisHooks.getHooks().stream().anyMatch(hook -> hook instanceof TestHook));
+        Assertions.assertEquals(AbcImpl.class, manager.implByBaseClass.get(Abc.class));
+        Assertions.assertNotNull(manager.getTransformCache());
+        Assertions.assertSame(manager, TestConfigurer.configured);
+
+        // without audit prefixes everything but the excluded packages is audited
+        audit = AbstracraftAgent.createManager(null).getClassAuditPredicate();
+        Assertions.assertTrue(audit.test("org.example.Main"));
+        Assertions.assertFalse(audit.test("java.lang.String"));
+        Assertions.assertFalse(audit.test("org.objectweb.asm.ClassReader"));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AbstracraftAgent.createManager("impl"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AbstracraftAgent.createManager("unknown=1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void test_TransformInPlace() throws Exception {
+        AbstractionManager manager = createAgentManager()
+                .setClassAuditPredicate(name -> name.equals(USES_B));
+        manager.registerImpl(AbcImpl.class);
+        var transformer = new AbstracraftAgent.Transformer(manager);
+        var loader = new DefiningLoader();
+
+        byte[] original = bytes(USES_B);
+        byte[] transformed = transformer.transform(loader, USES_B.replace('.', '/'), null, null, original);
+        Assertions.assertNotNull(transformed);
+        Assertions.assertFalse(Arrays.equals(original, transformed));
+        Assertions.assertNull(transformer.transform(loader, USES_A.replace('.', '/'), null, null, bytes(USES_A)), "class not audited");
+
+        current = new AbcImpl();
+        Class<?> klass = loader.define(USES_B, transformed);
+        Assertions.assertSame(loader, klass.getClassLoader());
+        Assertions.assertEquals("false -", ((Supplier<String>) klass.getConstructor().newInstance()).get());
+    }
+
+    static Instrumentation recordingInstrumentation(List<Class<?>> loaded, List<ClassDefinition> redefined) {
+        return (Instrumentation) Proxy.newProxyInstance(AbstracraftAgentTest.class.getClassLoader(),
+                new Class[] { Instrumentation.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "getAllLoadedClasses" -> loaded.toArray(new Class[0]);
+                    case "redefineClasses" -> redefined.addAll(Arrays.asList((ClassDefinition[]) args[0]));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    // A class loaded by the analysis of another class is defined untransformed,
+    // then transformed and redefined once the outer transformation finished
+    @Test
+    void test_ResolvedClassRedefined() throws Exception {
+        List<ClassDefinition> redefined = new ArrayList<>();
+        AbstractionManager manager = createAgentManager()
+                .setClassAuditPredicate(name -> name.equals(USES_A) || name.equals(USES_B))
+                .setInstrumentation(recordingInstrumentation(List.of(), redefined));
+        manager.registerImpl(AbcImpl.class);
+        var transformer = new AbstracraftAgent.Transformer(manager);
+
+        // the analysis of UsesB loads UsesA through the parent loader
+        Class<?> usesA = Class.forName(USES_A, false, getClass().getClassLoader());
+        manager.addAnalysisHook(new DependencyAnalysisHook() {
+            @Override
+            public void enterMethod(AnalysisContext context) {
+                manager.resolveClass(USES_A);
+            }
+        });
+
+        var loader = new DefiningLoader();
+        Assertions.assertNotNull(transformer.transform(loader, USES_B.replace('.', '/'), null, null, bytes(USES_B)));
+        Assertions.assertEquals(1, redefined.size());
+        Assertions.assertSame(usesA, redefined.get(0).getDefinitionClass());
+        Assertions.assertFalse(Arrays.equals(bytes(USES_A), redefined.get(0).getDefinitionClassFile()));
+        Assertions.assertTrue(manager.isTransformedInPlace(usesA));
+
+        // it is only redefined once
+        Assertions.assertNotNull(transformer.transform(new DefiningLoader(), USES_B.replace('.', '/'), null, null, bytes(USES_B)));
+        Assertions.assertEquals(1, redefined.size());
+    }
+
+    // A transformer registered by another agent is called again in the middle
+    // of a transformation, the class it is called with is redefined afterwards
+    @Test
+    void test_NestedClassRedefined() throws Exception {
+        List<ClassDefinition> redefined = new ArrayList<>();
+        List<Class<?>> loaded = new ArrayList<>();
+        var loader = new DefiningLoader();
+        byte[] nestedBytes = bytes(USES_A);
+        AtomicBoolean nestedTransformed = new AtomicBoolean();
+        AbstractionManager manager = createAgentManager()
+                .setClassAuditPredicate(name -> name.equals(USES_A) || name.equals(USES_B))
+                .setInstrumentation(recordingInstrumentation(loaded, redefined));
+        manager.registerImpl(AbcImpl.class);
+        var transformer = new AbstracraftAgent.Transformer(manager);
+
+        manager.addAnalysisHook(new DependencyAnalysisHook() {
+            @Override
+            public void enterMethod(AnalysisContext context) {
+                if (loaded.isEmpty()) {
+                    nestedTransformed.set(transformer.transform(loader, USES_A.replace('.', '/'), null, null, nestedBytes) != null);
+                    loaded.add(loader.define(USES_A, nestedBytes));
+                }
+            }
+        });
+
+        Assertions.assertNotNull(transformer.transform(loader, USES_B.replace('.', '/'), null, null, bytes(USES_B)));
+        Assertions.assertEquals(1, loaded.size());
+        Assertions.assertFalse(nestedTransformed.get(), "transformed in the middle of another analysis");
+        Assertions.assertEquals(1, redefined.size());
+        Assertions.assertSame(loaded.get(0), redefined.get(0).getDefinitionClass());
+        Assertions.assertFalse(Arrays.equals(nestedBytes, redefined.get(0).getDefinitionClassFile()));
+
+        // later implementation changes redefine it from the bytes it was defined from
+        Assertions.assertSame(nestedBytes, manager.originalBytes.get(USES_A));
+    }
+
+}
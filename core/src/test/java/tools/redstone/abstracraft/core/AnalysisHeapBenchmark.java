@@ -0,0 +1,53 @@
+package tools.redstone.abstracraft.core;
+
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+/**
+ * Measures the heap retained by the analysis results of a large synthetic
+ * workload, by default 20k methods, once all classes were transformed
+ * and their class trees released.
+ *
+ * The default 20k methods retain about 31MB, 1670 bytes per method, and
+ * are analyzed in 22 to 36s with the default JVM options. The analysis time
+ * grows quadratically with the workload size, as every required reference
+ * propagates through the deep shared call graph once, so 100k methods
+ * are impractical.
+ */
+public class AnalysisHeapBenchmark {
+
+    public static void main(String[] args) {
+        int classCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int methodsPerClass = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        SyntheticWorkload workload = SyntheticWorkload.generate(new SyntheticWorkload.Options()
+                .seed(1)
+                .classCount(classCount)
+                .methodsPerClass(methodsPerClass)
+                .callDepth(32)
+                .recursionRatio(0));
+
+        long before = RetainedHeapBenchmark.usedHeap();
+        long t = System.nanoTime();
+        AbstractionManager manager = load(workload);
+        long time = System.nanoTime() - t;
+        long after = RetainedHeapBenchmark.usedHeap();
+
+        int methods = classCount * methodsPerClass;
+        System.out.println(methods + " methods: " + ((after - before) / 1024 / 1024) + "MB retained, " +
+                ((after - before) / methods) + " bytes per method, analyzed in " + (time / 1_000_000) + "ms");
+        System.out.println(manager.getReferenceTable().size() + " references interned");
+    }
+
+    static AbstractionManager load(SyntheticWorkload workload) {
+        ClassLoader loader = workload.createLoader(AnalysisHeapBenchmark.class.getClassLoader());
+        AbstractionManager manager = new AbstractionManager(loader)
+                .setClassAuditPredicate(workload::isTransformedClass)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        workload.registerImpls(manager, loader);
+        for (String name : workload.getClassNames())
+            manager.transformClass(name, workload.getClassBytes().get(name));
+        return manager;
+    }
+
+}
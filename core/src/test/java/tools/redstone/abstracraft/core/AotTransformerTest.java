@@ -0,0 +1,109 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.aot.AotTransformer;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipFile;
+
+public class AotTransformerTest {
+
+    static void writeJar(Path jar, Map<String, byte[]> classBytes) throws Exception {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (var e : classBytes.entrySet()) {
+                out.putNextEntry(new JarEntry(e.getKey().replace('.', '/') + ".class"));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    // Call m0 of the given class, returning the result or the type of the exception thrown
+    static Object callM0(Class<?> klass) throws Exception {
+        try {
+            return klass.getMethod("m0", int.class).invoke(null, 2);
+        } catch (InvocationTargetException e) {
+            return e.getCause().getClass();
+        }
+    }
+
+    @Test
+    void test_RoundTrip() throws Exception {
+        SyntheticWorkload workload = SyntheticWorkload.generate(new SyntheticWorkload.Options()
+                .seed(5)
+                .classCount(20)
+                .optionalDensity(0.3)
+                .requireAtLeastOneDensity(0.1));
+        Path dir = Files.createTempDirectory("abstracraft-aot");
+        Path input = dir.resolve("input.jar");
+        Path output = dir.resolve("output.jar");
+        writeJar(input, workload.getClassBytes());
+
+        try (URLClassLoader inputLoader = new URLClassLoader(new URL[] { input.toUri().toURL() }, getClass().getClassLoader())) {
+            AbstractionManager manager = new AbstractionManager(inputLoader)
+                    .setClassAuditPredicate(workload::isTransformedClass)
+                    .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                    .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+            workload.registerImpls(manager, inputLoader);
+
+            AotTransformer.Result result;
+            try (AotTransformer transformer = new AotTransformer(manager, 4)) {
+                result = transformer.transformJar(input, output);
+            }
+
+            Assertions.assertEquals(workload.getClassNames().size(), result.classesTransformed());
+            Assertions.assertEquals(0, result.classesFailed());
+            Assertions.assertEquals(workload.getClassBytes().size() - workload.getClassNames().size(), result.entriesCopied());
+
+            // the manifest lists every transformed class
+            try (ZipFile zip = new ZipFile(output.toFile())) {
+                String manifest = new String(zip.getInputStream(zip.getEntry(AotTransformer.MANIFEST_ENTRY)).readAllBytes(), StandardCharsets.UTF_8);
+                for (String name : workload.getClassNames())
+                    Assertions.assertTrue(manifest.contains("class " + name + "\n"), name + " missing from the manifest");
+            }
+
+            // the output runs on a plain class loader like
+            // the same classes on the transforming class loader
+            int differentFromInput = 0;
+            try (URLClassLoader outputLoader = new URLClassLoader(new URL[] { output.toUri().toURL() }, getClass().getClassLoader())) {
+                for (String name : workload.getClassNames()) {
+                    Class<?> aot = Class.forName(name, true, outputLoader);
+                    Assertions.assertSame(outputLoader, aot.getClassLoader());
+                    Object expected = callM0(manager.findClass(name));
+                    Assertions.assertEquals(expected, callM0(aot), "result of " + name);
+                    if (!expected.equals(callM0(Class.forName(name, true, inputLoader))))
+                        differentFromInput++;
+                }
+            }
+
+            // the untransformed classes fail on optional dependencies
+            Assertions.assertTrue(differentFromInput > 0, "the transformation changed no results");
+        }
+    }
+
+    @Test
+    void test_FailedClassFailsTheRun() throws Exception {
+        Path dir = Files.createTempDirectory("abstracraft-aot");
+        Path input = dir.resolve("broken.jar");
+        Path out = dir.resolve("out");
+        byte[] broken = Arrays.copyOf(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE }, 64);
+        writeJar(input, Map.of("broken.Broken", broken));
+
+        Assertions.assertEquals(2, AotTransformer.run(new String[] { "--out", out.toString(), "--threads", "1", input.toString() }));
+        Assertions.assertFalse(Files.exists(out.resolve("broken.jar")), "output with untransformed classes kept");
+        Assertions.assertEquals(1, AotTransformer.run(new String[] { input.toString() }));
+    }
+
+}
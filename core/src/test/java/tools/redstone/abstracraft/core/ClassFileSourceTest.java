@@ -0,0 +1,148 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.io.InputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class ClassFileSourceTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public static class AbcImplB implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+
+        @Override
+        public String b() {
+            return "B";
+        }
+    }
+
+    public static class Subject implements Function<Abc, String> {
+        @Override
+        public String apply(Abc abc) {
+            return Helper.use(abc);
+        }
+    }
+
+    public static class Helper {
+        public static String use(Abc abc) {
+            return Usage.optionally(abc::b).orElse(abc.a());
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = ClassFileSourceTest.class.getName() + "$Subject";
+    static final String HELPER = ClassFileSourceTest.class.getName() + "$Helper";
+
+    // Counts the resource reads of each class file
+    static class CountingLoader extends ClassLoader {
+        final Map<String, Integer> reads = new ConcurrentHashMap<>();
+
+        CountingLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            reads.merge(name, 1, Integer::sum);
+            return super.getResource(name);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    static byte[] bytes(String className) throws Exception {
+        try (InputStream stream = ClassFileSourceTest.class.getClassLoader()
+                .getResourceAsStream(className.replace('.', '/') + ".class")) {
+            return stream.readAllBytes();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void test_ReadOnce() throws Exception {
+        CountingLoader loader = new CountingLoader(getClass().getClassLoader());
+        AbstractionManager manager = new AbstractionManager(loader)
+                .setClassAuditPredicate(name -> name.equals(SUBJECT) || name.equals(HELPER))
+                .setIsolatedLoading(true) // the test runner loaded the classes already
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+
+        // the helper is analyzed through the subject before it is defined
+        Function<Abc, String> subject = (Function<Abc, String>) manager.findClass(SUBJECT).getConstructor().newInstance();
+        Assertions.assertEquals("A", subject.apply(new AbcImpl()));
+
+        Assertions.assertEquals(1, (int) loader.reads.get(SUBJECT.replace('.', '/') + ".class"));
+        Assertions.assertEquals(1, (int) loader.reads.get(HELPER.replace('.', '/') + ".class"));
+        Assertions.assertNull(manager.getClassFileSource().find(SUBJECT.replace('.', '/')));
+        Assertions.assertNull(manager.getClassFileSource().find(HELPER.replace('.', '/')));
+    }
+
+    // Classes defined by their own loaders, like through the agent, are redefined
+    // from the bytes they were defined from once an implementation changes
+    @Test
+    void test_ReadOnceWhenRedefined() throws Exception {
+        List<Class<?>> loaded = new ArrayList<>();
+        List<ClassDefinition> redefined = new ArrayList<>();
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { Instrumentation.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "getAllLoadedClasses" -> loaded.toArray(new Class[0]);
+                    case "redefineClasses" -> redefined.addAll(Arrays.asList((ClassDefinition[]) args[0]));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        CountingLoader loader = new CountingLoader(getClass().getClassLoader());
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT) || name.equals(HELPER))
+                .setInstrumentation(instrumentation)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+
+        // the JVM passes the bytes of the classes being defined
+        for (String name : List.of(SUBJECT, HELPER))
+            loaded.add(loader.define(name, manager.transformClass(name, bytes(name), loader)));
+
+        manager.registerImpl(AbcImplB.class);
+        Assertions.assertEquals(Set.of(HELPER), manager.applyImplementationChanges());
+        Assertions.assertEquals(1, redefined.size());
+
+        // only the helper was read, to analyze it through the subject
+        Assertions.assertNull(loader.reads.get(SUBJECT.replace('.', '/') + ".class"));
+        Assertions.assertEquals(1, (int) loader.reads.get(HELPER.replace('.', '/') + ".class"));
+    }
+
+}
@@ -0,0 +1,138 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import tools.redstone.abstracraft.core.analysis.ClassHierarchyIndex;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.util.ReflectUtil;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ClassHierarchyIndexTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Base { }
+
+    public static class A implements Base { }
+
+    public static class B extends A implements Runnable {
+        @Override
+        public void run() { }
+    }
+
+    public static class C extends A { }
+
+    /* --------------------------------------------------- */
+
+    static final String PREFIX = ClassHierarchyIndexTest.class.getName().replace('.', '/');
+    static final String NAME_A = PREFIX + "$A";
+    static final String NAME_B = PREFIX + "$B";
+    static final String NAME_C = PREFIX + "$C";
+    static final String NAME_Base = PREFIX + "$Base";
+
+    // The test runner loads the nested classes, so the queries
+    // run on copies generated into a directory nothing loads from
+    static final String GEN_A = "hierarchy/A";
+    static final String GEN_B = "hierarchy/B";
+    static final String GEN_C = "hierarchy/C";
+    static final String GEN_Base = "hierarchy/Base";
+
+    static void writeHeader(Path dir, int access, String name, String superName, String... interfaces) throws Exception {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V17, access, name, null, superName, interfaces);
+        writer.visitEnd();
+        Path file = dir.resolve(name + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, writer.toByteArray());
+    }
+
+    static boolean isLoaded(ClassLoader loader, String internalName) {
+        return ReflectUtil.findLoadedClass(loader, internalName.replace('/', '.')) != null;
+    }
+
+    @Test
+    void test_Queries() throws Exception {
+        Path dir = Files.createTempDirectory("abstracraft-hierarchy");
+        writeHeader(dir, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, GEN_Base, "java/lang/Object");
+        writeHeader(dir, Opcodes.ACC_PUBLIC, GEN_A, "java/lang/Object", GEN_Base);
+        writeHeader(dir, Opcodes.ACC_PUBLIC, GEN_B, GEN_A, "java/lang/Runnable");
+        writeHeader(dir, Opcodes.ACC_PUBLIC, GEN_C, GEN_A);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, ClassHierarchyIndexTest.class.getClassLoader())) {
+            ClassHierarchyIndex index = new ClassHierarchyIndex(loader);
+            Assertions.assertTrue(index.isSubtypeOf(GEN_B, GEN_Base));
+            Assertions.assertTrue(index.isSubtypeOf(GEN_B, "java/lang/Runnable"));
+            Assertions.assertFalse(index.isSubtypeOf(GEN_A, GEN_B));
+            Assertions.assertFalse(index.isSubtypeOf("does/not/Exist", GEN_Base));
+            Assertions.assertEquals(GEN_A, index.getCommonSuperClass(GEN_B, GEN_C));
+            Assertions.assertEquals(GEN_A, index.getCommonSuperClass(GEN_A, GEN_C));
+            Assertions.assertEquals(GEN_Base, index.getCommonSuperClass(GEN_Base, GEN_C));
+            Assertions.assertEquals("java/lang/Object", index.getCommonSuperClass(GEN_B, "java/lang/String"));
+
+            // nothing was loaded to answer
+            for (String name : List.of(GEN_A, GEN_B, GEN_C, GEN_Base))
+                Assertions.assertFalse(isLoaded(loader, name), name + " was loaded");
+        } finally {
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void test_UnknownClasses() throws Exception {
+        // the classes can not be found through the loader, only once registered
+        ClassHierarchyIndex index = new ClassHierarchyIndex(new ClassLoader(null) { });
+        Assertions.assertFalse(index.isSubtypeOf(NAME_B, NAME_A));
+        Assertions.assertThrows(TypeNotPresentException.class, () -> index.getCommonSuperClass(NAME_B, NAME_C));
+
+        for (Class<?> klass : new Class<?>[] { Base.class, A.class, B.class, C.class }) {
+            try (var in = ClassHierarchyIndexTest.class.getClassLoader().getResourceAsStream(klass.getName().replace('.', '/') + ".class")) {
+                index.register(new ClassReader(in));
+            }
+        }
+
+        Assertions.assertTrue(index.isSubtypeOf(NAME_B, NAME_A));
+        Assertions.assertTrue(index.isSubtypeOf(NAME_B, NAME_Base));
+        Assertions.assertEquals(NAME_A, index.getCommonSuperClass(NAME_B, NAME_C));
+    }
+
+    // The classes analyzed through the references of a transformed class,
+    // and the frames computed for it, are never loaded by any loader
+    @Test
+    void test_AnalysisDoesNotLoad() {
+        SyntheticWorkload workload = SyntheticWorkload.generate(new SyntheticWorkload.Options()
+                .seed(7)
+                .classCount(20)
+                .callDepth(4)
+                .optionalDensity(0.3));
+        ClassLoader loader = workload.createLoader(ClassHierarchyIndexTest.class.getClassLoader());
+        AbstractionManager manager = new AbstractionManager(loader)
+                .setClassAuditPredicate(workload::isTransformedClass)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        workload.registerImpls(manager, loader);
+
+        String first = workload.getClassNames().get(0);
+        Assertions.assertSame(manager.getTransformingClassLoader(), manager.findClass(first).getClassLoader());
+
+        Set<String> analyzed = new HashSet<>(manager.analyzerMap.keySet());
+        analyzed.remove(first);
+        Assertions.assertFalse(analyzed.isEmpty(), "no referenced class was analyzed");
+        for (String name : analyzed)
+            Assertions.assertFalse(isLoaded(manager.getTransformingClassLoader(), name), name + " was loaded");
+    }
+
+}
@@ -0,0 +1,83 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.analysis.ClassStructureCache;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.util.function.Function;
+
+public class ClassStructureTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImplA implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public static class AbcImplB implements Abc {
+        @Override
+        public String b() {
+            return "B";
+        }
+    }
+
+    public static class Subject implements Function<Abc, String> {
+        @Override
+        public String apply(Abc abc) {
+            return Usage.optionally(abc::a).orElse("-") + Usage.requireAtLeastOne(abc::b, abc::a);
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = ClassStructureTest.class.getName() + "$Subject";
+
+    static AbstractionManager createManager(ClassStructureCache cache, Class<? extends Abc> impl) {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setIsolatedLoading(true) // the test runner loaded Subject already
+                .setStructureCache(cache)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(impl);
+        return manager;
+    }
+
+    @SuppressWarnings("unchecked")
+    static String apply(AbstractionManager manager, Abc abc) throws Exception {
+        Class<?> klass = manager.findClass(SUBJECT);
+        Assertions.assertSame(manager.getTransformingClassLoader(), klass.getClassLoader());
+        return ((Function<Abc, String>) klass.getConstructor().newInstance()).apply(abc);
+    }
+
+    @Test
+    void test_SharedBetweenManagers() throws Exception {
+        ClassStructureCache cache = new ClassStructureCache();
+
+        // the same structure is specialized differently for each manager
+        Assertions.assertEquals("AA", apply(createManager(cache, AbcImplA.class), new AbcImplA()));
+        Assertions.assertEquals(0, cache.getHitCount());
+        Assertions.assertEquals("-B", apply(createManager(cache, AbcImplB.class), new AbcImplB()));
+        Assertions.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void test_ComputeStackHook() throws Exception {
+        AbstractionManager manager = createManager(new ClassStructureCache(), AbcImplA.class)
+                .addAnalysisHook(new DependencyAnalysisHook() { });
+        Assertions.assertTrue(manager.isComputeStackRequired());
+        Assertions.assertEquals("AA", apply(manager, new AbcImplA()));
+    }
+
+}
@@ -0,0 +1,73 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.util.ClasspathIndex;
+import tools.redstone.abstracraft.core.util.ReflectUtil;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClasspathIndexTest {
+
+    static void writeJar(Path path, boolean stored, String... namesAndContents) throws Exception {
+        try (OutputStream out = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                byte[] content = namesAndContents[i + 1].getBytes();
+                ZipEntry entry = new ZipEntry(namesAndContents[i]);
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+
+                zip.putNextEntry(entry);
+                zip.write(content);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    void test_JarsAndDirectories() throws Exception {
+        Path dir = Files.createTempDirectory("classpath-index");
+        Path deflated = dir.resolve("deflated.jar");
+        Path stored = dir.resolve("stored.jar");
+        Path classes = dir.resolve("classes");
+        writeJar(deflated, false, "a/A.class", "A".repeat(1000), "a/B.class", "B1", "a/readme.txt", "-");
+        writeJar(stored, true, "a/B.class", "B2", "a/C.class", "C", "META-INF/versions/17/a/C.class", "C17");
+        Files.createDirectories(classes.resolve("a"));
+        Files.write(classes.resolve("a/D.class"), "D".getBytes());
+
+        ClasspathIndex index = ClasspathIndex.build(List.of(deflated, stored, classes));
+        Assertions.assertEquals(4, index.size());
+        Assertions.assertEquals("A".repeat(1000), new String(index.read("a/A")));
+        Assertions.assertEquals("B1", new String(index.read("a/B"))); // the first root wins
+        Assertions.assertEquals("C", new String(index.read("a/C")));
+        Assertions.assertEquals("D", new String(index.read("a/D")));
+        Assertions.assertNull(index.read("a/readme"));
+    }
+
+    @Test
+    void test_SystemClasspath() {
+        ClasspathIndex index = ClasspathIndex.ofClassPath();
+        byte[] expected = ReflectUtil.getBytes(ClasspathIndexTest.class);
+        Assertions.assertTrue(Arrays.equals(expected, index.read(ClasspathIndexTest.class.getName().replace('.', '/'))));
+
+        ReflectUtil.setSystemClasspathIndex(index);
+        try {
+            Assertions.assertTrue(Arrays.equals(expected, ReflectUtil.getBytes(ClasspathIndexTest.class)));
+        } finally {
+            ReflectUtil.setSystemClasspathIndex(null);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ConcurrentLoadTest {
+
+    static final int THREADS = 8;
+
+    static SyntheticWorkload.Options options() {
+        // few layers, so most classes share the same callees
+        return new SyntheticWorkload.Options()
+                .seed(3)
+                .classCount(40)
+                .callDepth(4)
+                .fanOut(4)
+                .recursionRatio(0)
+                .optionalDensity(0.3)
+                .requireAtLeastOneDensity(0.1);
+    }
+
+    static AbstractionManager createManager(SyntheticWorkload workload, ClassLoader loader) {
+        AbstractionManager manager = new AbstractionManager(loader)
+                .setRequiredMethodPredicate(m -> m.optionalReferenceNumber <= 0)
+                .setClassAuditPredicate(workload::isTransformedClass)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        workload.registerImpls(manager, loader);
+        return manager;
+    }
+
+    // The referenced dependencies and reference numbers of all classes of the workload,
+    // whether a dependency is optional depends on the order the classes are analyzed in
+    static Map<String, Object> results(SyntheticWorkload workload, AbstractionManager manager) {
+        Map<String, Object> results = new TreeMap<>();
+        for (String name : workload.getClassNames()) {
+            var classAnalysis = manager.analyzer(name, false).getClassAnalysis();
+            Assertions.assertTrue(classAnalysis.completed, name + " not completed");
+            Set<ReferenceInfo> dependencies = new HashSet<>();
+            for (var dependency : classAnalysis.dependencies)
+                dependencies.add(dependency.info());
+            results.put(name, dependencies);
+            for (ReferenceInfo ref : classAnalysis.analyzedMethods.keySet())
+                results.put(ref.toString(), manager.getMethodAnalysis(ref).optionalReferenceNumber);
+        }
+
+        return results;
+    }
+
+    // Load all classes of the workload on every thread of the given executor at
+    // once, each thread in another order, and check all got the same classes
+    static AbstractionManager loadConcurrently(SyntheticWorkload workload, ExecutorService executor) throws Exception {
+        ClassLoader loader = workload.createLoader(ConcurrentLoadTest.class.getClassLoader());
+        AbstractionManager manager = createManager(workload, loader);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<String, Class<?>>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            List<String> names = new ArrayList<>(workload.getClassNames());
+            Collections.shuffle(names, new Random(t));
+            futures.add(executor.submit(() -> {
+                start.await();
+                Map<String, Class<?>> classes = new HashMap<>();
+                for (String name : names)
+                    classes.put(name, manager.findClass(name));
+                return classes;
+            }));
+        }
+
+        start.countDown();
+        Map<String, Class<?>> first = null;
+        for (var future : futures) {
+            var classes = future.get(2, TimeUnit.MINUTES);
+            if (first == null)
+                first = classes;
+            for (String name : workload.getClassNames()) {
+                Assertions.assertSame(first.get(name), classes.get(name), name + " defined twice");
+                Assertions.assertSame(manager.getTransformingClassLoader(), classes.get(name).getClassLoader());
+            }
+        }
+
+        executor.shutdown();
+        return manager;
+    }
+
+    @Test
+    void test_PlatformThreads() throws Exception {
+        SyntheticWorkload workload = SyntheticWorkload.generate(options());
+        AbstractionManager sequential = createManager(workload, workload.createLoader(getClass().getClassLoader()));
+        for (String name : workload.getClassNames())
+            sequential.findClass(name);
+
+        for (int round = 0; round < 5; round++) {
+            AbstractionManager manager = loadConcurrently(workload, Executors.newFixedThreadPool(THREADS));
+            Assertions.assertEquals(results(workload, sequential), results(workload, manager), "round " + round);
+        }
+    }
+
+    @Test
+    void test_VirtualThreads() throws Exception {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            System.err.println("WARNING Virtual threads are not available on Java " + Runtime.version().feature() + ", skipping");
+            return;
+        }
+
+        SyntheticWorkload workload = SyntheticWorkload.generate(options());
+        AbstractionManager sequential = createManager(workload, workload.createLoader(getClass().getClassLoader()));
+        for (String name : workload.getClassNames())
+            sequential.findClass(name);
+
+        AbstractionManager manager = loadConcurrently(workload, executor);
+        Assertions.assertEquals(results(workload, sequential), results(workload, manager));
+    }
+
+}
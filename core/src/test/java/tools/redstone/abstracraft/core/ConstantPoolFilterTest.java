@@ -0,0 +1,110 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.io.InputStream;
+
+public class ConstantPoolFilterTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+    }
+
+    public static class Irrelevant {
+        public int add(int a, int b) {
+            return Math.addExact(a, b) + String.valueOf(b).length();
+        }
+    }
+
+    public static class Relevant {
+        public String get(Abc abc) {
+            return abc.a();
+        }
+    }
+
+    public static class Callee {
+        public static String foo(Abc abc) {
+            return abc.a();
+        }
+    }
+
+    // references no dependency candidate itself
+    public static class Caller {
+        public static String bar(Abc abc) {
+            return Callee.foo(abc);
+        }
+    }
+
+    public static class OptionalCaller {
+        public static String get() {
+            Abc abc = null;
+            return Usage.optionally(() -> Caller.bar(abc)).orElse("EMPTY");
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    // the test runner loads the nested classes too, so
+    // the transforming loader has to define its own copies
+    static AbstractionManager createManager() {
+        return new AbstractionManager()
+                .setClassAuditPredicate(name -> name.startsWith(ConstantPoolFilterTest.class.getName()))
+                .setIsolatedLoading(true)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class))
+                .addAnalysisHook(AbstractionManager.checkStaticFieldsNotNull());
+    }
+
+    static ClassReader reader(String className) throws Exception {
+        try (InputStream stream = ConstantPoolFilterTest.class.getClassLoader()
+                .getResourceAsStream(className.replace('.', '/') + ".class")) {
+            return new ClassReader(stream.readAllBytes());
+        }
+    }
+
+    @Test
+    void test_Filter() throws Exception {
+        AbstractionManager manager = createManager();
+        Assertions.assertTrue(manager.mayReferenceDependencies(reader(ConstantPoolFilterTest.class.getName() + "$Relevant")));
+        Assertions.assertTrue(manager.mayReferenceDependencies(reader(SimpleDependencyTest.class.getName() + "$TestClass")));
+        Assertions.assertFalse(manager.mayReferenceDependencies(reader(ConstantPoolFilterTest.class.getName() + "$Irrelevant")));
+        Assertions.assertFalse(manager.mayReferenceDependencies(reader("tools.redstone.abstracraft.core.util.CollectionUtil")));
+    }
+
+    @Test
+    void test_SkipsIrrelevantClasses() {
+        AbstractionManager manager = createManager();
+        Class<?> irrelevant = manager.findClass(ConstantPoolFilterTest.class.getName() + "$Irrelevant");
+        Assertions.assertSame(manager.getTransformingClassLoader(), irrelevant.getClassLoader());
+        Assertions.assertTrue(manager.getClassAnalysis(irrelevant).analyzedMethods.isEmpty());
+        Assertions.assertTrue(manager.getClassAnalysis(irrelevant).dependencies.isEmpty());
+
+        Class<?> relevant = manager.findClass(ConstantPoolFilterTest.class.getName() + "$Relevant");
+        Assertions.assertFalse(manager.getClassAnalysis(relevant).analyzedMethods.isEmpty());
+        Assertions.assertFalse(manager.getClassAnalysis(relevant).dependencies.isEmpty());
+    }
+
+    // The dependencies of methods called through a filtered class must
+    // propagate no matter whether the filtered class was loaded first
+    @Test
+    void test_FilteredClassLoadOrder() throws Exception {
+        String prefix = ConstantPoolFilterTest.class.getName();
+        for (boolean callerFirst : new boolean[] { false, true }) {
+            AbstractionManager manager = createManager();
+            if (callerFirst) {
+                manager.findClass(prefix + "$Caller");
+                Assertions.assertFalse(manager.mayReferenceDependencies(reader(prefix + "$Caller")));
+            }
+
+            Class<?> klass = manager.findClass(prefix + "$OptionalCaller");
+            Assertions.assertEquals("EMPTY", klass.getMethod("get").invoke(null));
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+
+import java.io.InputStream;
+
+public class DevirtualizationTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default int b(int x, long y) { return unimplemented(); }
+    }
+
+    public static final class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+
+        @Override
+        public int b(int x, long y) {
+            return x + (int) y;
+        }
+    }
+
+    public static class Subject {
+        public String run(Abc abc) {
+            return abc.a() + abc.b(1, 2L);
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = DevirtualizationTest.class.getName() + "$Subject";
+
+    static AbstractionManager createManager() {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setDevirtualizeCalls(true)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+        return manager;
+    }
+
+    @Test
+    void test_Dispatch() throws Exception {
+        Class<?> klass = createManager().findClass(SUBJECT);
+        Object subject = klass.getConstructor().newInstance();
+        var run = klass.getMethod("run", Abc.class);
+        Assertions.assertEquals("A3", run.invoke(subject, new AbcImpl()));
+
+        // other receivers take the interface call
+        Abc other = new Abc() {
+            @Override public String a() { return "B"; }
+            @Override public int b(int x, long y) { return 0; }
+        };
+        Assertions.assertEquals("B0", run.invoke(subject, other));
+    }
+
+    @Test
+    void test_Rewritten() throws Exception {
+        byte[] bytes;
+        try (InputStream stream = DevirtualizationTest.class.getClassLoader()
+                .getResourceAsStream(SUBJECT.replace('.', '/') + ".class")) {
+            bytes = stream.readAllBytes();
+        }
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(createManager().transformClass(SUBJECT, bytes)).accept(classNode, 0);
+        MethodNode run = classNode.methods.stream().filter(m -> m.name.equals("run")).findFirst().orElseThrow();
+        int devirtualized = 0;
+        for (var insn : run.instructions) {
+            Assertions.assertFalse(insn instanceof MethodInsnNode call && call.owner.endsWith("$Abc"), "interface call left in transformed method");
+            if (insn instanceof InvokeDynamicInsnNode indy && indy.bsm.getName().equals("devirtualize"))
+                devirtualized++;
+        }
+
+        Assertions.assertEquals(2, devirtualized);
+    }
+
+}
@@ -0,0 +1,118 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.MethodNode;
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.NotImplementedException;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+
+public class FramePreservationTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public static class Subject {
+        // untouched, keeps it's frames
+        public static int loop(int n) {
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % 3 == 0) sum += i;
+                else sum -= 1;
+            }
+
+            return sum;
+        }
+
+        // calls a, which is implemented
+        public static String callsA(Abc abc) {
+            return abc.a();
+        }
+
+        // the call to b is substituted
+        public static String optional(Abc abc, int n) {
+            String s = n > 0 ? "+" : "-";
+            return s + Usage.optionally(abc::b).orElse("none");
+        }
+
+        // a throw is inserted before the call to b
+        public static String required(Abc abc) {
+            return abc.b();
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = FramePreservationTest.class.getName() + "$Subject";
+
+    static AbstractionManager createManager() {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setIsolatedLoading(true) // the test runner loaded Subject already
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+        return manager;
+    }
+
+    @Test
+    void test_ChangedMethods() throws Exception {
+        byte[] bytes;
+        try (InputStream stream = FramePreservationTest.class.getClassLoader()
+                .getResourceAsStream(SUBJECT.replace('.', '/') + ".class")) {
+            bytes = stream.readAllBytes();
+        }
+
+        AbstractionManager manager = createManager();
+        ClassDependencyAnalyzer analyzer = new ClassDependencyAnalyzer(manager, new ClassReader(bytes));
+        analyzer.addHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true));
+        analyzer.addHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        analyzer.analyzeAndTransform();
+
+        for (MethodNode method : analyzer.getClassNode().methods) {
+            boolean expected = method.name.equals("optional") || method.name.equals("required");
+            Assertions.assertEquals(expected, analyzer.isMethodChanged(method), method.name);
+        }
+    }
+
+    // The transformed class is defined and verified, with the
+    // preserved frames as well as with all frames computed
+    @Test
+    void test_Verifies() throws Exception {
+        for (boolean preserveFrames : new boolean[] { true, false }) {
+            AbstractionManager manager = createManager().setPreserveFrames(preserveFrames);
+            Class<?> klass = manager.findClass(SUBJECT);
+            Assertions.assertSame(manager.getTransformingClassLoader(), klass.getClassLoader());
+            Assertions.assertEquals(loopResult(10), klass.getMethod("loop", int.class).invoke(null, 10));
+            Assertions.assertEquals("+none", klass.getMethod("optional", Abc.class, int.class).invoke(null, new AbcImpl(), 1));
+            Assertions.assertEquals("-none", klass.getMethod("optional", Abc.class, int.class).invoke(null, new AbcImpl(), 0));
+            Assertions.assertEquals("A", klass.getMethod("callsA", Abc.class).invoke(null, new AbcImpl()));
+            var e = Assertions.assertThrows(InvocationTargetException.class, () -> klass.getMethod("required", Abc.class).invoke(null, new AbcImpl()));
+            Assertions.assertTrue(e.getCause() instanceof NotImplementedException, "unexpected " + e.getCause());
+        }
+    }
+
+    static int loopResult(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += i % 3 == 0 ? i : -1;
+        return sum;
+    }
+
+}
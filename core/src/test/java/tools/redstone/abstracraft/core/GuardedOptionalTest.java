@@ -0,0 +1,82 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.util.function.Supplier;
+
+public class GuardedOptionalTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public static class AbcImplB implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+
+        @Override
+        public String b() {
+            return "B";
+        }
+    }
+
+    public static volatile Abc current = new AbcImpl();
+
+    public static class Subject implements Supplier<String> {
+        @Override
+        public String get() {
+            Abc abc = current;
+            StringBuilder b = new StringBuilder();
+            boolean ran = Usage.optionally(() -> { b.append(abc.b()); });
+            return Usage.isImplemented(abc::b) + " " + ran + " " + b + " " + Usage.optionally(() -> abc.a() + abc.b()).orElse("-");
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = GuardedOptionalTest.class.getName() + "$Subject";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void test_Relink() throws Exception {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setIsolatedLoading(true) // the test runner loaded Subject already
+                .setGuardedOptionalBlocks(true)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+        current = new AbcImpl();
+
+        // the same class follows the changes without being transformed again
+        Class<?> klass = manager.findClass(SUBJECT);
+        Assertions.assertSame(manager.getTransformingClassLoader(), klass.getClassLoader());
+        Supplier<String> subject = (Supplier<String>) klass.getConstructor().newInstance();
+        Assertions.assertEquals("false false  -", subject.get());
+
+        manager.registerImpl(AbcImplB.class);
+        current = new AbcImplB();
+        Assertions.assertEquals("true true B AB", subject.get());
+
+        manager.setImplemented(ReferenceInfo.forMethodInfo(Abc.class.getName(), "b", "()Ljava/lang/String;", false), false);
+        Assertions.assertEquals("false false  -", subject.get());
+        Assertions.assertEquals(0, manager.getLoaderGeneration());
+    }
+
+}
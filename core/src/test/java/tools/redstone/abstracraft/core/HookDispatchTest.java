@@ -0,0 +1,66 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.analysis.AnalysisContext;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook;
+import tools.redstone.abstracraft.core.analysis.DependencyAnalysisHook.Event;
+import tools.redstone.abstracraft.core.analysis.HookDispatch;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+public class HookDispatchTest {
+
+    public static class CandidateHook implements DependencyAnalysisHook {
+        @Override
+        public Boolean isDependencyCandidate(AnalysisContext context, ReferenceInfo ref) {
+            return true;
+        }
+    }
+
+    public static class PrefixHook implements DependencyAnalysisHook {
+        @Override
+        public Set<Event> events() {
+            return EnumSet.of(Event.IS_DEPENDENCY_CANDIDATE, Event.ENTER_METHOD);
+        }
+
+        @Override
+        public String[] ownerPrefixes() {
+            return new String[] { "com/example/api/" };
+        }
+
+        @Override
+        public boolean requiresComputeStack() {
+            return false;
+        }
+    }
+
+    @Test
+    void test_Events() {
+        Assertions.assertEquals(EnumSet.of(Event.IS_DEPENDENCY_CANDIDATE), new CandidateHook().events());
+        Assertions.assertEquals(EnumSet.noneOf(Event.class), new DependencyAnalysisHook() { }.events());
+        Assertions.assertEquals(EnumSet.of(Event.CHECK_IMPLEMENTED), AbstractionManager.checkStaticFieldsNotNull().events());
+    }
+
+    @Test
+    void test_Dispatch() {
+        CandidateHook candidateHook = new CandidateHook();
+        PrefixHook prefixHook = new PrefixHook();
+        HookDispatch dispatch = HookDispatch.compile(List.of(prefixHook)).with(candidateHook).with(prefixHook);
+
+        Assertions.assertEquals(List.of(prefixHook, candidateHook), dispatch.getHooks());
+        Assertions.assertTrue(dispatch.isComputeStackRequired());
+        Assertions.assertEquals(List.of(prefixHook, candidateHook), List.of(dispatch.get(Event.IS_DEPENDENCY_CANDIDATE, "com/example/api/Thing")));
+        Assertions.assertEquals(List.of(candidateHook), List.of(dispatch.get(Event.IS_DEPENDENCY_CANDIDATE, "com/example/impl/Thing")));
+        Assertions.assertSame(dispatch.get(Event.IS_DEPENDENCY_CANDIDATE, "com/example/impl/Thing"), dispatch.get(Event.IS_DEPENDENCY_CANDIDATE, "com/example/impl/Thing"));
+        Assertions.assertEquals(0, dispatch.get(Event.CHECK_IMPLEMENTED, "com/example/api/Thing").length);
+
+        // owner prefixes only apply to reference events
+        Assertions.assertEquals(List.of(prefixHook), List.of(dispatch.get(Event.ENTER_METHOD)));
+        Assertions.assertFalse(HookDispatch.compile(List.of(prefixHook)).isComputeStackRequired());
+    }
+
+}
@@ -0,0 +1,244 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+import tools.redstone.abstracraft.core.util.ASMUtil;
+
+import java.io.InputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+public class HotSwapTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public static class AbcImplB implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+
+        @Override
+        public String b() {
+            return "B";
+        }
+    }
+
+    public static class UsesB implements Supplier<String> {
+        @Override
+        public String get() {
+            Abc abc = current;
+            return Usage.isImplemented(() -> abc.b()) + " " + Usage.optionally(abc::b).orElse("-");
+        }
+    }
+
+    public static class UsesA implements Supplier<String> {
+        @Override
+        public String get() {
+            Abc abc = current;
+            return Usage.optionally(abc::a).orElse("-");
+        }
+    }
+
+    public static class CallsA {
+        public static String get(Abc abc) {
+            return abc.a();
+        }
+    }
+
+    public static class CallsB {
+        public static String get(Abc abc) {
+            return abc.b();
+        }
+    }
+
+    public static class UsesOneOf {
+        @SuppressWarnings("unchecked")
+        public static String get(Abc abc) {
+            return Usage.requireAtLeastOne(abc::a, abc::b);
+        }
+    }
+
+    public static volatile Abc current = new AbcImpl();
+
+    /* --------------------------------------------------- */
+
+    static final String USES_A = HotSwapTest.class.getName() + "$UsesA";
+    static final String USES_B = HotSwapTest.class.getName() + "$UsesB";
+    static final String CALLS_A = HotSwapTest.class.getName() + "$CallsA";
+    static final String CALLS_B = HotSwapTest.class.getName() + "$CallsB";
+    static final String USES_ONE_OF = HotSwapTest.class.getName() + "$UsesOneOf";
+
+    static byte[] bytes(String className) throws Exception {
+        try (InputStream stream = HotSwapTest.class.getClassLoader()
+                .getResourceAsStream(className.replace('.', '/') + ".class")) {
+            return stream.readAllBytes();
+        }
+    }
+
+    // Get the class file of the given class, renamed to another class name
+    static byte[] renamed(String className, String newName) throws Exception {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(bytes(className)).accept(new ClassVisitor(ASMUtil.ASM_V, writer) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                super.visit(version, access, newName.replace('.', '/'), signature, superName, interfaces);
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    static AbstractionManager createAgentManager() {
+        return new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(CALLS_A))
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    static String run(AbstractionManager manager, String name) throws Exception {
+        return ((Supplier<String>) manager.findClass(name).getConstructor().newInstance()).get();
+    }
+
+    @Test
+    void test_NewLoaderGeneration() throws Exception {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(USES_A) || name.equals(USES_B))
+                .setIsolatedLoading(true) // the test runner loaded the subjects already
+                .setRetainTransformedBytes(true)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+
+        Assertions.assertEquals("false -", run(manager, USES_B));
+        Assertions.assertEquals("A", run(manager, USES_A));
+        var b = ReferenceInfo.forMethodInfo(Abc.class.getName(), "b", "()Ljava/lang/String;", false);
+        Assertions.assertEquals(Set.of(USES_B), manager.getDependentClasses(b));
+
+        // only the class depending on b is affected
+        manager.registerImpl(AbcImplB.class);
+        current = new AbcImplB();
+        Assertions.assertEquals(Set.of(USES_B), manager.applyImplementationChanges());
+        Assertions.assertEquals(1, manager.getLoaderGeneration());
+        Assertions.assertEquals("true B", run(manager, USES_B));
+        Assertions.assertEquals("A", run(manager, USES_A));
+
+        // manual overrides
+        manager.setImplemented(b, false);
+        Assertions.assertEquals(Set.of(USES_B), manager.applyImplementationChanges());
+        Assertions.assertEquals("false -", run(manager, USES_B));
+        Assertions.assertEquals(Set.of(), manager.applyImplementationChanges());
+        Assertions.assertEquals(2, manager.getLoaderGeneration());
+    }
+
+    // Classes defined by other loaders are redefined in place from the bytes
+    // they were defined from, without reading their class files again
+    @Test
+    void test_RedefineInPlace() throws Exception {
+        List<ClassDefinition> redefined = new ArrayList<>();
+        List<Class<?>> loaded = new ArrayList<>();
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(HotSwapTest.class.getClassLoader(),
+                new Class[] { Instrumentation.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "getAllLoadedClasses" -> loaded.toArray(new Class[0]);
+                    case "redefineClasses" -> redefined.addAll(Arrays.asList((ClassDefinition[]) args[0]));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        AbstractionManager manager = createAgentManager()
+                .setClassAuditPredicate(name -> name.equals(USES_B))
+                .setInstrumentation(instrumentation);
+        manager.registerImpl(AbcImpl.class);
+
+        // the subject is only readable until it is defined
+        byte[] original = bytes(USES_B);
+        var loader = new ClassLoader(HotSwapTest.class.getClassLoader()) {
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                Assertions.assertFalse(name.equals(USES_B.replace('.', '/') + ".class"), "class file read again");
+                return super.getResourceAsStream(name);
+            }
+
+            Class<?> define(byte[] bytes) {
+                return defineClass(USES_B, bytes, 0, bytes.length);
+            }
+        };
+
+        byte[] first = manager.transformClass(USES_B, original, loader);
+        loaded.add(loader.define(first));
+
+        manager.registerImpl(AbcImplB.class);
+        Assertions.assertEquals(Set.of(USES_B), manager.applyImplementationChanges());
+        Assertions.assertEquals(1, redefined.size());
+        Assertions.assertSame(loaded.get(0), redefined.get(0).getDefinitionClass());
+        Assertions.assertFalse(Arrays.equals(first, redefined.get(0).getDefinitionClassFile()));
+        Assertions.assertEquals(0, manager.getLoaderGeneration());
+    }
+
+    // A class with the same name defined by another loader from other
+    // bytes is analyzed from it's own bytes, not the first loader's
+    @Test
+    void test_OtherLoaderBytes() throws Exception {
+        AbstractionManager manager = createAgentManager().setReleaseClassTrees(false);
+        ClassLoader first = new ClassLoader(HotSwapTest.class.getClassLoader()) { };
+        ClassLoader second = new ClassLoader(HotSwapTest.class.getClassLoader()) { };
+        var a = ReferenceInfo.forMethodInfo(Abc.class.getName(), "a", "()Ljava/lang/String;", false);
+        var b = ReferenceInfo.forMethodInfo(Abc.class.getName(), "b", "()Ljava/lang/String;", false);
+
+        manager.transformClass(CALLS_A, bytes(CALLS_A), first);
+        Assertions.assertEquals(Set.of(CALLS_A), manager.getDependentClasses(a));
+        manager.transformClass(CALLS_A, renamed(CALLS_B, CALLS_A), second);
+        Assertions.assertEquals(Set.of(), manager.getDependentClasses(a));
+        Assertions.assertEquals(Set.of(CALLS_A), manager.getDependentClasses(b));
+    }
+
+    // Evicting a class removes it from the dependents of all of
+    // it's dependencies, including those of oneOf switches
+    @Test
+    void test_EvictSwitchDependents() throws Exception {
+        AbstractionManager manager = createAgentManager()
+                .setClassAuditPredicate(name -> name.equals(USES_ONE_OF));
+        var b = ReferenceInfo.forMethodInfo(Abc.class.getName(), "b", "()Ljava/lang/String;", false);
+
+        manager.transformClass(USES_ONE_OF, bytes(USES_ONE_OF), new ClassLoader(HotSwapTest.class.getClassLoader()) { });
+        Assertions.assertEquals(Set.of(USES_ONE_OF), manager.getDependentClasses(b));
+        Assertions.assertTrue(manager.evictClass(USES_ONE_OF));
+        Assertions.assertEquals(Set.of(), manager.getDependentClasses(b));
+    }
+
+    // A class defined again after it's tree was released is transformed
+    // again, instead of defining the untransformed bytes
+    @Test
+    void test_SameClassTwoLoaders() throws Exception {
+        AbstractionManager manager = createAgentManager();
+        byte[] original = bytes(CALLS_A);
+        byte[] first = manager.transformClass(CALLS_A, original, new ClassLoader(HotSwapTest.class.getClassLoader()) { });
+        byte[] second = manager.transformClass(CALLS_A, original, new ClassLoader(HotSwapTest.class.getClassLoader()) { });
+        Assertions.assertFalse(Arrays.equals(original, first));
+        Assertions.assertArrayEquals(first, second);
+    }
+
+}
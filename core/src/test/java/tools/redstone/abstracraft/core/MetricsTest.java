@@ -0,0 +1,105 @@
+package tools.redstone.abstracraft.core;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.metrics.AbstractionMetrics;
+import tools.redstone.abstracraft.core.metrics.TransformEvent;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MetricsTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public static class Subject {
+        public String get() {
+            Abc abc = new AbcImpl();
+            return abc.a() + Usage.optionally(abc::b).orElse("-");
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = MetricsTest.class.getName() + "$Subject";
+
+    static AbstractionManager createManager() {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setIsolatedLoading(true) // the test runner loaded Subject already
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+        return manager;
+    }
+
+    @Test
+    void test_Metrics() throws Exception {
+        AbstractionManager manager = createManager().setMetricsEnabled(true);
+        manager.findClass(SUBJECT);
+
+        AbstractionMetrics metrics = manager.getMetrics();
+        Assertions.assertEquals(1, metrics.getTransformedClassCount());
+        var timing = metrics.getClassTiming(SUBJECT);
+        Assertions.assertEquals(AbstractionMetrics.Outcome.TRANSFORMED, timing.outcome());
+        Assertions.assertTrue(timing.analyzeNanos() > 0 && timing.writeNanos() > 0);
+        Assertions.assertTrue(metrics.getReferenceAnalysisCount() > 0);
+        Assertions.assertTrue(metrics.getHookCallCount(AbstractionMetrics.HookCall.IS_DEPENDENCY_CANDIDATE) > 0);
+
+        var b = manager.getReferenceTable().intern(Abc.class.getName().replace('.', '/'), "b", "()Ljava/lang/String;", false);
+        long misses = metrics.getImplementedCacheMisses();
+        manager.isImplemented(b);
+        manager.isImplemented(b);
+        Assertions.assertTrue(metrics.getImplementedCacheHits() > 0);
+        Assertions.assertEquals(misses, metrics.getImplementedCacheMisses());
+
+        // the same metrics through JMX
+        var name = manager.registerMetricsMBean();
+        try {
+            Assertions.assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TransformedClassCount"));
+        } finally {
+            manager.setMetricsEnabled(false);
+        }
+
+        Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        Assertions.assertNull(manager.getMetrics());
+    }
+
+    @Test
+    void test_FlightRecorderEvent() throws Exception {
+        Path file = Files.createTempFile("abstracraft", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(TransformEvent.class);
+            recording.start();
+            createManager().findClass(SUBJECT);
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            Assertions.assertTrue(events.stream().anyMatch(e -> SUBJECT.equals(e.getString("className")) &&
+                    "TRANSFORMED".equals(e.getString("outcome"))), "no transform event recorded");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package tools.redstone.abstracraft.core;
+
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Measures the time and allocations of optional blocks in a hot loop, with
+ * the lambdas inlined, with the old lambda + substitute method path and with
+ * call sites guarded by switch points. The guarded mode should match the
+ * lambda mode once the call sites are linked.
+ *
+ * Each mode runs in it's own JVM, as the subject can only be
+ * transformed once per JVM.
+ */
+public class OptionalInliningBenchmark {
+
+    public interface Abc extends Abstraction {
+        default int a() { return unimplemented(); }
+        default int b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public int a() {
+            return 1;
+        }
+    }
+
+    public interface Tick {
+        long tick(Abc abc, long i);
+    }
+
+    public static class Subject implements Tick {
+        long sum;
+
+        @Override
+        public long tick(Abc abc, long i) {
+            Optional<Integer> live = Usage.optionally(() -> abc.a() + (int) i);
+            Optional<Integer> dead = Usage.optionally(() -> abc.b() + (int) i);
+            if (Usage.optionally(() -> { sum += abc.a(); }))
+                sum++;
+            return live.orElse(0) + dead.orElse(0) + sum;
+        }
+    }
+
+    static final String SUBJECT = OptionalInliningBenchmark.class.getName() + "$Subject";
+    static final int ITERATIONS = 20_000_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            // run both modes in separate processes with the same JVM options,
+            // -XX:TieredStopAtLevel=1 shows code C2 could not optimize
+            for (String mode : new String[] { "lambda", "inline", "guarded" }) {
+                List<String> command = new ArrayList<>();
+                command.add(ProcessHandle.current().info().command().orElse("java"));
+                command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+                command.addAll(List.of("-cp", System.getProperty("java.class.path"), OptionalInliningBenchmark.class.getName(), mode));
+                new ProcessBuilder(command).inheritIO().start().waitFor();
+            }
+
+            return;
+        }
+
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setInlineOptionalBlocks(args[0].equals("inline"))
+                .setGuardedOptionalBlocks(args[0].equals("guarded"))
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+        Tick subject = (Tick) manager.findClass(SUBJECT).getConstructor().newInstance();
+        Abc abc = new AbcImpl();
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long blackhole = 0;
+        for (int round = 0; round < 5; round++) {
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long t1 = System.nanoTime();
+            for (long i = 0; i < ITERATIONS; i++)
+                blackhole += subject.tick(abc, i);
+            long t2 = System.nanoTime();
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            System.out.printf("%-7s round %d: %.2f ns/op, %.1f bytes/op%n", args[0], round,
+                    (t2 - t1) / (double) ITERATIONS, allocated / (double) ITERATIONS);
+        }
+
+        System.out.println("(" + blackhole + ")");
+    }
+
+}
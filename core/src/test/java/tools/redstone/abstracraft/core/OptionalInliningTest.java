@@ -0,0 +1,119 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class OptionalInliningTest {
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+        default int c() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+
+        @Override
+        public int c() {
+            return 3;
+        }
+    }
+
+    public static class Subject {
+        int counter = 0;
+
+        public List<Object> run(Abc abc, long offset) {
+            Optional<String> live = Usage.optionally(abc::a);
+            Optional<Long> liveBoxed = Usage.optionally(() -> abc.c() + offset);
+            Optional<String> dead = Usage.optionally(() -> abc.b() + offset);
+            boolean ran = Usage.optionally(() -> { counter += abc.c(); });
+            boolean notRan = Usage.optionally(() -> { counter += abc.b().length(); });
+            String oneOf = Usage.requireAtLeastOne(abc::b, () -> abc.a() + offset, abc::a);
+            boolean hasA = Usage.isImplemented(abc::a);
+            boolean hasB = Usage.isImplemented(() -> abc.b() + abc.a());
+            return List.of(live, liveBoxed, dead, ran, notRan, counter, oneOf, hasA, hasB);
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = OptionalInliningTest.class.getName() + "$Subject";
+
+    static AbstractionManager createManager(boolean inline) {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT))
+                .setInlineOptionalBlocks(inline)
+                .setIsolatedLoading(true) // the test runner loaded Subject already
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        manager.registerImpl(AbcImpl.class);
+        return manager;
+    }
+
+    @Test
+    void test_Results() throws Exception {
+        for (boolean inline : new boolean[] { true, false }) {
+            AbstractionManager manager = createManager(inline);
+            Class<?> klass = manager.findClass(SUBJECT);
+            Assertions.assertSame(manager.getTransformingClassLoader(), klass.getClassLoader());
+            Object result = klass.getMethod("run", Abc.class, long.class).invoke(klass.getConstructor().newInstance(), new AbcImpl(), 2L);
+            Assertions.assertEquals(List.of(Optional.of("A"), Optional.of(5L), Optional.empty(), true, false, 3, "A2", true, false), result);
+        }
+    }
+
+    static MethodNode transformRun(boolean inline) throws Exception {
+        byte[] bytes;
+        try (InputStream stream = OptionalInliningTest.class.getClassLoader()
+                .getResourceAsStream(SUBJECT.replace('.', '/') + ".class")) {
+            bytes = stream.readAllBytes();
+        }
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(createManager(inline).transformClass(SUBJECT, bytes)).accept(classNode, 0);
+        return classNode.methods.stream().filter(m -> m.name.equals("run")).findFirst().orElseThrow();
+    }
+
+    @Test
+    void test_NoLambdasLeft() throws Exception {
+        MethodNode run = transformRun(true);
+        for (var insn : run.instructions) {
+            Assertions.assertFalse(insn instanceof InvokeDynamicInsnNode, "lambda left in transformed method");
+            Assertions.assertFalse(insn instanceof TypeInsnNode typeInsn && typeInsn.desc.equals("java/util/function/Supplier"), "supplier array left in transformed method");
+            Assertions.assertFalse(insn instanceof MethodInsnNode call && call.name.equals("isImplemented"), "isImplemented call left in transformed method");
+        }
+    }
+
+    // Usage.optionally(Runnable) returns a boolean, the substitution
+    // used to look for a byte return type and dropped the call instead
+    @Test
+    void test_RunnableWithoutInlining() throws Exception {
+        MethodNode run = transformRun(false);
+        List<String> calls = new ArrayList<>();
+        for (var insn : run.instructions) {
+            if (insn instanceof MethodInsnNode call && call.desc.equals("(Ljava/lang/Runnable;)Z"))
+                calls.add(call.name);
+        }
+
+        Assertions.assertEquals(List.of("optionally", "notPresentBoolean"), calls);
+    }
+
+}
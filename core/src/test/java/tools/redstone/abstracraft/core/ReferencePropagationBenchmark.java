@@ -0,0 +1,72 @@
+package tools.redstone.abstracraft.core;
+
+import tools.redstone.abstracraft.core.analysis.AnalysisContext;
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures reference propagation on a synthetic layered call graph
+ * where every method calls a few shared methods of the next layer.
+ */
+public class ReferencePropagationBenchmark {
+
+    public static void main(String[] args) {
+        run(50, 1000, 3, 20); // 50k methods
+
+        // small graph which the old path walk can still finish
+        run(16, 16, 2, 20);
+        naive(16, 16, 2, 20);
+    }
+
+    static List<ClassDependencyAnalyzer.ReferenceAnalysis> createGraph(int layers, int width, int edges) {
+        Random random = new Random(1);
+        var nodes = ReferencePropagationTest.createNodes(layers * width);
+        for (int layer = 0; layer < layers - 1; layer++) {
+            for (int i = 0; i < width; i++) {
+                var node = nodes.get(layer * width + i);
+                for (int j = 0; j < edges; j++)
+                    node.allAnalyzedReferences.add(nodes.get((layer + 1) * width + random.nextInt(width)));
+            }
+        }
+
+        return nodes;
+    }
+
+    static void run(int layers, int width, int edges, int sources) {
+        var nodes = createGraph(layers, width, edges);
+        AnalysisContext context = new AnalysisContext(new AbstractionManager());
+
+        // warmup
+        for (int i = 0; i < sources; i++)
+            nodes.get(i % width).referenceRequired(context);
+
+        long t1 = System.nanoTime();
+        for (int i = 0; i < sources; i++)
+            nodes.get(i % width).referenceRequired(context);
+        long t2 = System.nanoTime();
+        System.out.println("propagate " + nodes.size() + " methods, " + sources + " sources: " +
+                ((t2 - t1) / sources / 1000) + "us per propagation");
+    }
+
+    static void naivePropagate(ClassDependencyAnalyzer.ReferenceAnalysis node) {
+        node.optionalReferenceNumber -= 1;
+        for (var child : node.allAnalyzedReferences)
+            naivePropagate(child);
+    }
+
+    static void naive(int layers, int width, int edges, int sources) {
+        var nodes = createGraph(layers, width, edges);
+        for (int i = 0; i < sources; i++)
+            naivePropagate(nodes.get(i % width));
+
+        long t1 = System.nanoTime();
+        for (int i = 0; i < sources; i++)
+            naivePropagate(nodes.get(i % width));
+        long t2 = System.nanoTime();
+        System.out.println("path walk " + nodes.size() + " methods, " + sources + " sources: " +
+                ((t2 - t1) / sources / 1000) + "us per propagation");
+    }
+
+}
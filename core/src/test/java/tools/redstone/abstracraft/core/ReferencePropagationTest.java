@@ -0,0 +1,145 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.analysis.AnalysisContext;
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ReferencePropagationTest {
+
+    static List<ClassDependencyAnalyzer.ReferenceAnalysis> createNodes(int count) {
+        AbstractionManager manager = new AbstractionManager();
+        ClassDependencyAnalyzer analyzer = new ClassDependencyAnalyzer(manager, null);
+        List<ClassDependencyAnalyzer.ReferenceAnalysis> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            nodes.add(new ClassDependencyAnalyzer.ReferenceAnalysis(analyzer,
+                    ReferenceInfo.forMethodInfo("test/Node", "m" + i, "()V", true)));
+        return nodes;
+    }
+
+    // The propagation as it was implemented before, by walking every path
+    static void naivePropagate(ClassDependencyAnalyzer.ReferenceAnalysis node, int[] numbers, List<ClassDependencyAnalyzer.ReferenceAnalysis> nodes, int delta) {
+        numbers[nodes.indexOf(node)] += delta;
+        for (var child : node.allAnalyzedReferences)
+            naivePropagate(child, numbers, nodes, delta);
+    }
+
+    @Test
+    void test_EquivalentToPathWalk() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int count = 2 + random.nextInt(30);
+            var nodes = createNodes(count);
+
+            // random DAG with shared callees and duplicate edges,
+            // edges only point to nodes with a higher index
+            for (int i = 0; i < count - 1; i++) {
+                int edges = random.nextInt(4);
+                for (int j = 0; j < edges; j++)
+                    nodes.get(i).allAnalyzedReferences.add(nodes.get(i + 1 + random.nextInt(Math.min(5, count - i - 1))));
+            }
+
+            int[] expected = new int[count];
+            AnalysisContext context = new AnalysisContext(new AbstractionManager());
+            for (int k = 0; k < 5; k++) {
+                var source = nodes.get(random.nextInt(count));
+                if (random.nextBoolean()) {
+                    naivePropagate(source, expected, nodes, 2);
+                    source.referenceOptional(context);
+                } else {
+                    naivePropagate(source, expected, nodes, -1);
+                    source.referenceRequired(context);
+                }
+            }
+
+            for (int i = 0; i < count; i++)
+                Assertions.assertEquals(expected[i], nodes.get(i).optionalReferenceNumber, "node " + i + " in round " + round);
+        }
+    }
+
+    @Test
+    void test_MixedPaths() {
+        // 0 and 1 reach 5 through one path each, 2 reaches 5 through
+        // 3 and 4, and through 3 twice because of a duplicate edge
+        var nodes = createNodes(6);
+        nodes.get(0).allAnalyzedReferences.add(nodes.get(5));
+        nodes.get(1).allAnalyzedReferences.add(nodes.get(3));
+        nodes.get(2).allAnalyzedReferences.add(nodes.get(3));
+        nodes.get(2).allAnalyzedReferences.add(nodes.get(3));
+        nodes.get(2).allAnalyzedReferences.add(nodes.get(4));
+        nodes.get(3).allAnalyzedReferences.add(nodes.get(5));
+        nodes.get(4).allAnalyzedReferences.add(nodes.get(5));
+
+        int[] expected = new int[6];
+        AnalysisContext context = new AnalysisContext(new AbstractionManager());
+        naivePropagate(nodes.get(0), expected, nodes, 2);
+        nodes.get(0).referenceOptional(context);
+        naivePropagate(nodes.get(1), expected, nodes, 2);
+        nodes.get(1).referenceOptional(context);
+        Assertions.assertEquals(4, nodes.get(5).optionalReferenceNumber);
+        naivePropagate(nodes.get(2), expected, nodes, -1);
+        nodes.get(2).referenceRequired(context);
+
+        // two optional paths against three required ones
+        Assertions.assertEquals(1, nodes.get(5).optionalReferenceNumber);
+        Assertions.assertEquals(0, nodes.get(3).optionalReferenceNumber);
+        for (int i = 0; i < 6; i++)
+            Assertions.assertEquals(expected[i], nodes.get(i).optionalReferenceNumber, "node " + i);
+    }
+
+    @Test
+    void test_ManyOptionalAndRequiredPaths() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            int count = 8 + random.nextInt(24);
+            var nodes = createNodes(count);
+
+            // dense DAG so the last nodes are reachable through many paths
+            for (int i = 0; i < count - 1; i++) {
+                int edges = 1 + random.nextInt(3);
+                for (int j = 0; j < edges; j++)
+                    nodes.get(i).allAnalyzedReferences.add(nodes.get(i + 1 + random.nextInt(Math.min(4, count - i - 1))));
+            }
+
+            // several optional and several required sources
+            int[] expected = new int[count];
+            AnalysisContext context = new AnalysisContext(new AbstractionManager());
+            for (int k = 0; k < 3; k++) {
+                var source = nodes.get(random.nextInt(count / 2));
+                naivePropagate(source, expected, nodes, 2);
+                source.referenceOptional(context);
+            }
+            for (int k = 0; k < 3; k++) {
+                var source = nodes.get(random.nextInt(count / 2));
+                naivePropagate(source, expected, nodes, -1);
+                source.referenceRequired(context);
+            }
+
+            for (int i = 0; i < count; i++)
+                Assertions.assertEquals(expected[i], nodes.get(i).optionalReferenceNumber, "node " + i + " in round " + round);
+        }
+    }
+
+    @Test
+    void test_Cycles() {
+        var nodes = createNodes(4);
+        nodes.get(0).allAnalyzedReferences.add(nodes.get(1));
+        nodes.get(1).allAnalyzedReferences.add(nodes.get(2));
+        nodes.get(2).allAnalyzedReferences.add(nodes.get(1));
+        nodes.get(3).allAnalyzedReferences.add(nodes.get(3));
+
+        AnalysisContext context = new AnalysisContext(new AbstractionManager());
+        nodes.get(0).referenceRequired(context);
+        nodes.get(3).referenceOptional(context);
+        Assertions.assertEquals(-1, nodes.get(0).optionalReferenceNumber);
+        Assertions.assertTrue(nodes.get(1).optionalReferenceNumber < -1000);
+        Assertions.assertTrue(nodes.get(2).optionalReferenceNumber < -1000);
+        Assertions.assertTrue(nodes.get(3).optionalReferenceNumber > 1000);
+    }
+
+}
@@ -0,0 +1,34 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+import tools.redstone.abstracraft.core.analysis.ReferenceTable;
+
+public class ReferenceTableTest {
+
+    @Test
+    void test_Intern() {
+        ReferenceTable table = new ReferenceTable();
+        for (int i = 0; i < 5000; i++) {
+            Assertions.assertEquals(i, table.intern("test/Owner" + (i % 7), "m" + i, "(I)Ljava/lang/String;", i % 2 == 0));
+        }
+
+        Assertions.assertEquals(5000, table.size());
+        for (int i = 0; i < 5000; i++) {
+            String owner = "test/Owner" + (i % 7);
+            Assertions.assertEquals(i, table.intern(owner, "m" + i, "(I)Ljava/lang/String;", i % 2 == 0));
+            Assertions.assertEquals(i, table.find(ReferenceInfo.forMethodInfo(owner, "m" + i, "(I)Ljava/lang/String;", i % 2 == 0)));
+            Assertions.assertEquals(-1, table.find(owner, "m" + i, "(I)Ljava/lang/String;", i % 2 != 0));
+        }
+
+        int method = table.intern("test/Owner", "m", "(IJ)Ljava/lang/String;", false);
+        int field = table.intern("test/Owner", "f", "J", true);
+        Assertions.assertEquals(2, table.argumentCount(method));
+        Assertions.assertEquals("Ljava/lang/String;", table.returnType(method).getDescriptor());
+        Assertions.assertEquals(-1, table.argumentCount(field));
+        Assertions.assertTrue(table.get(field).isField());
+        Assertions.assertSame(table.get(method), table.get(table.intern(ReferenceInfo.forMethodInfo("test.Owner", "m", "(IJ)Ljava/lang/String;", false))));
+    }
+
+}
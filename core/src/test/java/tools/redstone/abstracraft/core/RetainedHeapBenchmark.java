@@ -0,0 +1,60 @@
+package tools.redstone.abstracraft.core;
+
+import tools.redstone.abstracraft.core.usage.Abstraction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained by abstraction managers after loading the
+ * test classes, with and without releasing the class trees.
+ */
+public class RetainedHeapBenchmark {
+
+    static final String[] CLASSES = {
+            SimpleDependencyTest.class.getName() + "$TestClass",
+            ArgumentHookTest.class.getName() + "$TestClass",
+            TransformCacheTest.class.getName() + "$CachedSubject",
+    };
+
+    public static void main(String[] args) {
+        int managers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        measure(managers, false);
+        measure(managers, true);
+    }
+
+    static AbstractionManager load(boolean release) {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.contains("$TestClass") || name.contains("$CachedSubject"))
+                .setReleaseClassTrees(release)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class))
+                .addAnalysisHook(AbstractionManager.checkStaticFieldsNotNull());
+        manager.registerImpl(SimpleDependencyTest.AbcImpl.class);
+        for (String className : CLASSES)
+            manager.findClass(className);
+        return manager;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static void measure(int count, boolean release) {
+        load(release); // warmup
+
+        List<AbstractionManager> retained = new ArrayList<>(count);
+        long before = usedHeap();
+        for (int i = 0; i < count; i++)
+            retained.add(load(release));
+        long after = usedHeap();
+
+        System.out.println((release ? "release" : "retain ") + " class trees: " +
+                ((after - before) / count / 1024) + "KB retained per manager (" + count + " managers)");
+        retained.clear();
+    }
+
+}
@@ -0,0 +1,102 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import tools.redstone.abstracraft.core.analysis.StackSimulator;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+public class StackSimulatorTest {
+
+    public static void main(String[] args) throws Throwable {
+        TestSystem.runTests(StackSimulatorTest.class, true);
+    }
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "A";
+        }
+    }
+
+    public interface Tests {
+        String testRun(Abc abc);
+        int testBranches(int[] values, Object o);
+    }
+
+    @Disabled
+    public static class Subject implements Tests {
+        @Override
+        public String testRun(Abc abc) {
+            long l = 5L;
+            double d = 2.0;
+            Supplier<String> s = abc::b;
+            try {
+                l += abc.a().length();
+            } catch (RuntimeException e) {
+                d++;
+            }
+
+            for (int i = 0; i < 3; i++)
+                l *= 2;
+            return Usage.optionally(s).orElse("none") + l + d;
+        }
+
+        @Override
+        public int testBranches(int[] values, Object o) {
+            int sum = 0;
+            for (int v : values) {
+                switch (v) {
+                    case 1 -> sum += 3;
+                    case 7 -> sum -= v;
+                    default -> sum ^= v;
+                }
+            }
+
+            synchronized (this) {
+                long[][] arr = new long[2][sum > 0 ? 1 : 2];
+                return o instanceof String str ? str.length() + arr.length : sum;
+            }
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT = StackSimulatorTest.class.getName() + "$Subject";
+
+    @TestSystem.Test(testClass = "Subject", abstractionImpl = "AbcImpl")
+    void test_ControlFlow(Tests subject, Abc abc) {
+        Assertions.assertEquals("none482.0", subject.testRun(abc));
+        Assertions.assertEquals(4, subject.testBranches(new int[] { 1, 7, 2 }, "ab"));
+    }
+
+    @Test
+    void test_WithoutDebugInfo() throws Exception {
+        ClassNode classNode = new ClassNode();
+        try (InputStream stream = StackSimulatorTest.class.getClassLoader()
+                .getResourceAsStream(SUBJECT.replace('.', '/') + ".class")) {
+            new ClassReader(stream.readAllBytes()).accept(classNode, ClassReader.SKIP_DEBUG);
+        }
+
+        StackSimulator sim = new StackSimulator();
+        for (MethodNode method : classNode.methods) {
+            method.accept(sim.reset(method));
+            Assertions.assertEquals(0, sim.size(), method.name);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.NoneImplementedException;
+import tools.redstone.abstracraft.core.usage.NotImplementedException;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+public class SyntheticWorkloadTest {
+
+    static SyntheticWorkload.Options options() {
+        return new SyntheticWorkload.Options()
+                .seed(42)
+                .classCount(50)
+                .recursionRatio(0.2)
+                .optionalDensity(0.3)
+                .requireAtLeastOneDensity(0.1);
+    }
+
+    @Test
+    void test_Deterministic() {
+        var a = SyntheticWorkload.generate(options()).getClassBytes();
+        var b = SyntheticWorkload.generate(options()).getClassBytes();
+        Assertions.assertEquals(a.keySet(), b.keySet());
+        for (String name : a.keySet())
+            Assertions.assertTrue(Arrays.equals(a.get(name), b.get(name)), "bytes of " + name + " differ");
+    }
+
+    @Test
+    void test_TransformAll() throws Exception {
+        SyntheticWorkload workload = SyntheticWorkload.generate(options());
+        ClassLoader loader = workload.createLoader(getClass().getClassLoader());
+        AbstractionManager manager = new AbstractionManager(loader)
+                .setClassAuditPredicate(workload::isTransformedClass)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        workload.registerImpls(manager, loader);
+
+        for (String name : workload.getClassNames()) {
+            Class<?> klass = manager.findClass(name);
+            Assertions.assertSame(manager.getTransformingClassLoader(), klass.getClassLoader());
+
+            // methods either run or fail on a missing required implementation
+            try {
+                klass.getMethod("m0", int.class).invoke(null, 2);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                Assertions.assertTrue(cause instanceof NotImplementedException || cause instanceof NoneImplementedException, "unexpected " + cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package tools.redstone.abstracraft.core;
+
+import org.junit.jupiter.api.Assertions;
+import tools.redstone.abstracraft.core.analysis.ClassDependencyAnalyzer;
+import tools.redstone.abstracraft.core.analysis.ReferenceInfo;
+import tools.redstone.abstracraft.core.cache.ClassTransformCache;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.NotImplementedException;
+import tools.redstone.abstracraft.core.usage.Usage;
+import tools.redstone.abstracraft.core.workload.SyntheticWorkload;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+public class TransformCacheTest {
+
+    public static void main(String[] args) throws Throwable {
+        test_WarmStart();
+        test_WarmEqualsCold();
+        test_ChangedCallee();
+    }
+
+    /* --------------------------------------------------- */
+
+    public interface Abc extends Abstraction {
+        default String a() { return unimplemented(); }
+        default String b() { return unimplemented(); }
+    }
+
+    public static class AbcImpl implements Abc {
+        @Override
+        public String a() {
+            return "AAAAAA";
+        }
+    }
+
+    public interface Tests {
+        String testA(Abc abc);
+        String testB(Abc abc);
+    }
+
+    public static class CachedSubject implements Tests {
+        @Override
+        public String testA(Abc abc) {
+            return Usage.optionally(abc::b).orElse(abc.a());
+        }
+
+        @Override
+        public String testB(Abc abc) {
+            return abc.b();
+        }
+    }
+
+    /* --------------------------------------------------- */
+
+    static final String SUBJECT_NAME = TransformCacheTest.class.getName() + "$CachedSubject";
+
+    static AbstractionManager createManager(ClassTransformCache cache) {
+        AbstractionManager manager = new AbstractionManager()
+                .setClassAuditPredicate(name -> name.equals(SUBJECT_NAME))
+                .setRequiredMethodPredicate(method -> method.ref.name().startsWith("test"))
+                .setTransformCache(cache)
+                .setReleaseClassTrees(false) // keep the tree to tell analyzed classes apart
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class))
+                .addAnalysisHook(AbstractionManager.checkStaticFieldsNotNull());
+        manager.registerImpl(AbcImpl.class);
+        return manager;
+    }
+
+    static long countEntries(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(p -> p.toString().endsWith(".bin")).count();
+        }
+    }
+
+    static void test_WarmStart() throws Throwable {
+        Path dir = Files.createTempDirectory("abstracraft-cache");
+        ClassTransformCache cache = new ClassTransformCache(dir);
+        Abc abc = new AbcImpl();
+
+        // cold start, analyzes and stores the class
+        AbstractionManager cold = createManager(cache);
+        Tests coldTests = (Tests) cold.findClass(SUBJECT_NAME).getConstructor().newInstance();
+        Assertions.assertEquals("AAAAAA", coldTests.testA(abc));
+        Assertions.assertThrows(NotImplementedException.class, () -> coldTests.testB(abc));
+        Assertions.assertEquals(1, countEntries(dir));
+        Assertions.assertNotNull(cold.analyzer(coldTests.getClass()).getClassNode());
+
+        // warm start, should define the cached bytes without analyzing
+        AbstractionManager warm = createManager(cache);
+        Assertions.assertEquals(cold.getEnvironmentFingerprint(), warm.getEnvironmentFingerprint());
+        Tests warmTests = (Tests) warm.findClass(SUBJECT_NAME).getConstructor().newInstance();
+        Assertions.assertNull(warm.analyzer(warmTests.getClass()).getClassNode());
+        Assertions.assertEquals("AAAAAA", warmTests.testA(abc));
+        Assertions.assertThrows(NotImplementedException.class, () -> warmTests.testB(abc));
+        Assertions.assertEquals(cold.getClassAnalysis(coldTests.getClass()).dependencies,
+                warm.getClassAnalysis(warmTests.getClass()).dependencies);
+
+        // changing the environment should produce a new entry
+        AbstractionManager changed = createManager(cache);
+        changed.setImplemented(ReferenceInfo.forMethodInfo(Abc.class, "b", false, String.class), true);
+        Assertions.assertFalse(cold.getEnvironmentFingerprint().equals(changed.getEnvironmentFingerprint()));
+        changed.findClass(SUBJECT_NAME);
+        Assertions.assertEquals(2, countEntries(dir));
+
+        // as should hooks of the same class with other parameters
+        AbstractionManager otherHook = new AbstractionManager()
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, false));
+        Assertions.assertFalse(new AbstractionManager()
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .getEnvironmentFingerprint().equals(otherHook.getEnvironmentFingerprint()));
+
+        cache.clear();
+        Assertions.assertEquals(0, countEntries(dir));
+        System.out.println("TransformCacheTest passed");
+    }
+
+    static SyntheticWorkload.Options workloadOptions() {
+        return new SyntheticWorkload.Options()
+                .seed(42)
+                .classCount(40)
+                .recursionRatio(0)
+                .optionalDensity(0.3)
+                .requireAtLeastOneDensity(0.1);
+    }
+
+    static AbstractionManager createWorkloadManager(SyntheticWorkload workload, ClassLoader loader, ClassTransformCache cache) {
+        AbstractionManager manager = new AbstractionManager(loader)
+                .setClassAuditPredicate(workload::isTransformedClass)
+                .setTransformCache(cache)
+                .setMetricsEnabled(true)
+                .addAnalysisHook(AbstractionManager.checkDependenciesForInterface(Abstraction.class, true))
+                .addAnalysisHook(AbstractionManager.checkForExplicitImplementation(Abstraction.class));
+        workload.registerImpls(manager, loader);
+        return manager;
+    }
+
+    // Transform all classes of the workload, callees before their callers
+    // so they are not analyzed through a reference and can be cached
+    static Map<String, byte[]> transformAll(SyntheticWorkload workload, AbstractionManager manager) {
+        Map<String, byte[]> transformed = new HashMap<>();
+        List<String> names = new ArrayList<>(workload.getClassNames());
+        Collections.reverse(names);
+        for (String name : names)
+            transformed.put(name, manager.transformClass(name, workload.getClassBytes().get(name)));
+        return transformed;
+    }
+
+    // The reference numbers of all analyzed methods of the workload
+    static Map<ReferenceInfo, Integer> referenceNumbers(SyntheticWorkload workload, AbstractionManager manager) {
+        Map<ReferenceInfo, Integer> numbers = new HashMap<>();
+        for (String name : workload.getClassNames()) {
+            ClassDependencyAnalyzer analyzer = manager.analyzer(name, false);
+            for (ReferenceInfo ref : analyzer.getClassAnalysis().analyzedMethods.keySet())
+                numbers.put(ref, manager.getMethodAnalysis(ref).optionalReferenceNumber);
+        }
+
+        return numbers;
+    }
+
+    static void test_WarmEqualsCold() throws Throwable {
+        Path dir = Files.createTempDirectory("abstracraft-cache");
+        ClassTransformCache cache = new ClassTransformCache(dir);
+        SyntheticWorkload workload = SyntheticWorkload.generate(workloadOptions());
+        ClassLoader loader = workload.createLoader(TransformCacheTest.class.getClassLoader());
+
+        AbstractionManager cold = createWorkloadManager(workload, loader, cache);
+        Map<String, byte[]> coldBytes = transformAll(workload, cold);
+        Assertions.assertEquals(0L, cold.getMetrics().getCachedClassCount());
+
+        AbstractionManager warm = createWorkloadManager(workload, loader, cache);
+        Map<String, byte[]> warmBytes = transformAll(workload, warm);
+        Assertions.assertTrue(warm.getMetrics().getCachedClassCount() > workload.getClassNames().size() / 2,
+                "only " + warm.getMetrics().getCachedClassCount() + " classes restored");
+
+        // the restored classes propagate into the methods they call
+        // like analyzed ones, so every method ends up in the same state
+        Assertions.assertEquals(referenceNumbers(workload, cold), referenceNumbers(workload, warm));
+        for (String name : workload.getClassNames()) {
+            Assertions.assertTrue(Arrays.equals(coldBytes.get(name), warmBytes.get(name)), "bytes of " + name + " differ");
+            Assertions.assertEquals(cold.analyzer(name, false).getClassAnalysis().dependencies,
+                    warm.analyzer(name, false).getClassAnalysis().dependencies, "dependencies of " + name);
+        }
+
+        // the restored call edges propagate later events
+        for (String name : workload.getClassNames()) {
+            for (ReferenceInfo ref : cold.analyzer(name, false).getClassAnalysis().analyzedMethods.keySet()) {
+                List<ReferenceInfo> coldEdges = cold.getMethodAnalysis(ref).allAnalyzedReferences.stream().map(a -> a.ref).toList();
+                List<ReferenceInfo> warmEdges = warm.getMethodAnalysis(ref).allAnalyzedReferences.stream().map(a -> a.ref).toList();
+                Assertions.assertEquals(new HashSet<>(coldEdges), new HashSet<>(warmEdges), "edges of " + ref);
+            }
+        }
+
+        cache.clear();
+        System.out.println("TransformCacheTest.test_WarmEqualsCold passed");
+    }
+
+    static void test_ChangedCallee() throws Throwable {
+        Path dir = Files.createTempDirectory("abstracraft-cache");
+        ClassTransformCache cache = new ClassTransformCache(dir);
+        SyntheticWorkload workload = SyntheticWorkload.generate(workloadOptions());
+        ClassLoader loader = workload.createLoader(TransformCacheTest.class.getClassLoader());
+        transformAll(workload, createWorkloadManager(workload, loader, cache));
+
+        // change the class file of every class except the first, which
+        // is the only one to stay identical and calls some of the others
+        String first = workload.getClassNames().get(0);
+        Map<String, byte[]> changedBytes = new HashMap<>(workload.getClassBytes());
+        for (String name : workload.getClassNames()) {
+            if (name.equals(first))
+                continue;
+            byte[] bytes = changedBytes.get(name).clone();
+            bytes[5]++; // the minor version, which is not verified
+            changedBytes.put(name, bytes);
+        }
+
+        ClassLoader changedLoader = new ClassLoader(loader) {
+            @Override
+            public java.io.InputStream getResourceAsStream(String name) {
+                byte[] bytes = changedBytes.get(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                return bytes != null ? new java.io.ByteArrayInputStream(bytes) : super.getResourceAsStream(name);
+            }
+        };
+
+        // the entry is used while the callees are unchanged
+        AbstractionManager unchanged = createWorkloadManager(workload, loader, cache);
+        unchanged.transformClass(first, workload.getClassBytes().get(first));
+        Assertions.assertEquals(1L, unchanged.getMetrics().getCachedClassCount());
+
+        long entries = countEntries(dir);
+        AbstractionManager changed = createWorkloadManager(workload, loader, cache);
+        changed.transformClass(first, workload.getClassBytes().get(first), changedLoader);
+        Assertions.assertEquals(0L, changed.getMetrics().getCachedClassCount(), "entry of " + first + " used after its callees changed");
+        Assertions.assertEquals(entries, countEntries(dir)); // replaced under the same key
+
+        cache.clear();
+        System.out.println("TransformCacheTest.test_ChangedCallee passed");
+    }
+
+}
@@ -0,0 +1,473 @@
+package tools.redstone.abstracraft.core.workload;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import tools.redstone.abstracraft.core.AbstractionManager;
+import tools.redstone.abstracraft.core.usage.Abstraction;
+import tools.redstone.abstracraft.core.usage.Usage;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.invoke.LambdaMetafactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.*;
+
+/**
+ * Generates synthetic abstractions, implementations and classes using them,
+ * to reproduce the load of large modpacks without their jars. The same options
+ * always generate the same class bytes.
+ *
+ * Every abstraction {@code Api<i>} declares {@code int m<j>()} methods which are
+ * unimplemented by default, and has an implementation {@code Api<i>Impl} overriding
+ * a part of them. The instances are held by the static fields of {@code Instances}.
+ * Every class {@code Class<k>} declares {@code static int m<j>(int depth)} methods,
+ * which sum the results of calls to abstraction methods, optionally through
+ * {@link Usage#optionally(java.util.function.Supplier)} or
+ * {@link Usage#requireAtLeastOne(java.util.function.Supplier[])}, and to methods
+ * of classes in the next layer, or with some chance of any earlier class. The
+ * amount of layers bounds the depth of the call graph, which is otherwise
+ * independent of the class count.
+ *
+ * @author orbyfied
+ */
+public class SyntheticWorkload {
+
+    /** The parameters of a workload, the setters return this. */
+    public static class Options {
+        long seed = 0;                          // The seed of the random generator
+        String packageName = "synthetic";       // The package of the generated classes
+        int abstractionCount = 16;              // The amount of abstractions
+        int methodsPerAbstraction = 8;          // The amount of methods per abstraction
+        int classCount = 100;                   // The amount of classes using the abstractions
+        int methodsPerClass = 10;               // The amount of methods per class
+        int fanOut = 3;                         // The amount of calls per method
+        int callDepth = 16;                     // The amount of layers the classes are split into, classes only call forward into the next layer
+        double abstractionCallRatio = 0.5;      // The chance of a call being to an abstraction instead of another class
+        double recursionRatio = 0.05;           // The chance of a call to another class going backwards, which creates cycles
+        double optionalDensity = 0.1;           // The chance of an abstraction call being wrapped in Usage.optionally
+        double requireAtLeastOneDensity = 0.05; // The chance of an abstraction call being replaced by Usage.requireAtLeastOne
+        double implCoverage = 0.5;              // The chance of an abstraction method being implemented
+
+        public Options seed(long seed) { this.seed = seed; return this; }
+        public Options packageName(String packageName) { this.packageName = packageName; return this; }
+        public Options abstractionCount(int abstractionCount) { this.abstractionCount = abstractionCount; return this; }
+        public Options methodsPerAbstraction(int methodsPerAbstraction) { this.methodsPerAbstraction = methodsPerAbstraction; return this; }
+        public Options classCount(int classCount) { this.classCount = classCount; return this; }
+        public Options methodsPerClass(int methodsPerClass) { this.methodsPerClass = methodsPerClass; return this; }
+        public Options fanOut(int fanOut) { this.fanOut = fanOut; return this; }
+        public Options callDepth(int callDepth) { this.callDepth = callDepth; return this; }
+        public Options abstractionCallRatio(double abstractionCallRatio) { this.abstractionCallRatio = abstractionCallRatio; return this; }
+        public Options recursionRatio(double recursionRatio) { this.recursionRatio = recursionRatio; return this; }
+        public Options optionalDensity(double optionalDensity) { this.optionalDensity = optionalDensity; return this; }
+        public Options requireAtLeastOneDensity(double requireAtLeastOneDensity) { this.requireAtLeastOneDensity = requireAtLeastOneDensity; return this; }
+        public Options implCoverage(double implCoverage) { this.implCoverage = implCoverage; return this; }
+
+        @Override
+        public String toString() {
+            return "seed=" + seed + " abstractions=" + abstractionCount + "x" + methodsPerAbstraction +
+                    " classes=" + classCount + "x" + methodsPerClass + " fanOut=" + fanOut + " callDepth=" + callDepth +
+                    " recursion=" + recursionRatio + " optional=" + optionalDensity +
+                    " requireAtLeastOne=" + requireAtLeastOneDensity + " implCoverage=" + implCoverage;
+        }
+    }
+
+    static final String NAME_Abstraction = Type.getInternalName(Abstraction.class);
+    static final String NAME_Usage = Type.getInternalName(Usage.class);
+    static final String DESC_Supplier = "Ljava/util/function/Supplier;";
+    static final Handle H_metafactory = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(LambdaMetafactory.class), "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    static final Type TYPE_SupplierGet = Type.getMethodType("()Ljava/lang/Object;");
+
+    final Options options;
+    final Map<String, byte[]> classBytes = new LinkedHashMap<>(); // All generated classes by public name
+    final List<String> abstractionNames = new ArrayList<>();      // The public names of the abstractions
+    final List<String> implNames = new ArrayList<>();             // The public names of the implementations
+    final List<String> classNames = new ArrayList<>();            // The public names of the classes using the abstractions
+
+    SyntheticWorkload(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Generate a workload with the given options.
+     *
+     * @param options The options.
+     * @return The workload.
+     */
+    public static SyntheticWorkload generate(Options options) {
+        SyntheticWorkload workload = new SyntheticWorkload(options);
+        new Generator(workload, new Random(options.seed)).generate();
+        return workload;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    /** Get the bytes of all generated classes by public name. */
+    public Map<String, byte[]> getClassBytes() {
+        return Collections.unmodifiableMap(classBytes);
+    }
+
+    public List<String> getAbstractionNames() {
+        return Collections.unmodifiableList(abstractionNames);
+    }
+
+    public List<String> getImplNames() {
+        return Collections.unmodifiableList(implNames);
+    }
+
+    /** Get the public names of the classes using the abstractions, which should be transformed. */
+    public List<String> getClassNames() {
+        return Collections.unmodifiableList(classNames);
+    }
+
+    /** Check whether the given public name is one of the classes which should be transformed. */
+    public boolean isTransformedClass(String name) {
+        return name.startsWith(options.packageName + ".Class");
+    }
+
+    /**
+     * Create a class loader which defines the abstractions, implementations and instances,
+     * and provides the bytes of all generated classes as resources, to be used as the
+     * parent loader of a manager. The classes to transform are never defined by it,
+     * like mod classes which are only ever loaded by the transforming loader.
+     *
+     * @param parent The parent loader, which has to be able to load the core classes.
+     * @return The loader.
+     */
+    public ClassLoader createLoader(ClassLoader parent) {
+        return new WorkloadClassLoader(parent, this);
+    }
+
+    /**
+     * Register the implementations of all abstractions loaded
+     * through the given loader with the given manager.
+     *
+     * @param manager The manager.
+     * @param loader The loader created through {@link #createLoader(ClassLoader)}.
+     */
+    public void registerImpls(AbstractionManager manager, ClassLoader loader) {
+        try {
+            for (String implName : implNames) {
+                manager.registerImpl(Class.forName(implName, false, loader));
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Loader does not define the workload classes", e);
+        }
+    }
+
+    /**
+     * Defines the generated classes which are not transformed and serves the bytes of
+     * all of them as resources, which the transforming class loader reads through it's parent.
+     */
+    static class WorkloadClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        final SyntheticWorkload workload;
+        final Map<String, byte[]> classBytes;
+
+        WorkloadClassLoader(ClassLoader parent, SyntheticWorkload workload) {
+            super(parent);
+            this.workload = workload;
+            this.classBytes = workload.classBytes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classBytes.get(name);
+            if (bytes == null || workload.isTransformedClass(name))
+                throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+        @Override
+        protected URL findResource(String name) {
+            if (!name.endsWith(".class"))
+                return null;
+            byte[] bytes = classBytes.get(name.substring(0, name.length() - 6).replace('/', '.'));
+            if (bytes == null)
+                return null;
+
+            try {
+                return new URL(null, "synthetic:/" + name, new URLStreamHandler() {
+                    @Override
+                    protected URLConnection openConnection(URL url) {
+                        return new URLConnection(url) {
+                            @Override public void connect() { }
+                            @Override public InputStream getInputStream() { return new ByteArrayInputStream(bytes); }
+                        };
+                    }
+                });
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        protected Enumeration<URL> findResources(String name) {
+            URL url = findResource(name);
+            return url != null ? Collections.enumeration(List.of(url)) : Collections.emptyEnumeration();
+        }
+    }
+
+    // Generates the classes of one workload
+    static class Generator {
+        final SyntheticWorkload workload;
+        final Options options;
+        final Random random;
+        final String pkg;               // The internal package prefix
+        final String instancesName;     // The internal name of the class holding the instances
+        final boolean[][] implemented;  // Whether each abstraction method is implemented
+        final int layers;               // The amount of class layers
+
+        Generator(SyntheticWorkload workload, Random random) {
+            this.workload = workload;
+            this.options = workload.options;
+            this.random = random;
+            this.pkg = options.packageName.replace('.', '/') + "/";
+            this.instancesName = pkg + "Instances";
+            this.implemented = new boolean[options.abstractionCount][options.methodsPerAbstraction];
+            this.layers = Math.max(1, Math.min(options.callDepth, options.classCount));
+        }
+
+        int layerOf(int k) {
+            return (int) ((long) k * layers / options.classCount);
+        }
+
+        // The index of the first class in the given layer
+        int layerStart(int layer) {
+            return (int) (((long) layer * options.classCount + layers - 1) / layers);
+        }
+
+        String apiName(int i) {
+            return pkg + "Api" + i;
+        }
+
+        String className(int k) {
+            return pkg + "Class" + k;
+        }
+
+        void define(String internalName, byte[] bytes, List<String> names) {
+            String publicName = internalName.replace('/', '.');
+            workload.classBytes.put(publicName, bytes);
+            names.add(publicName);
+        }
+
+        void generate() {
+            for (int i = 0; i < options.abstractionCount; i++) {
+                for (int j = 0; j < options.methodsPerAbstraction; j++)
+                    implemented[i][j] = random.nextDouble() < options.implCoverage;
+                define(apiName(i), generateAbstraction(i), workload.abstractionNames);
+                define(apiName(i) + "Impl", generateImpl(i), workload.implNames);
+            }
+
+            define(instancesName, generateInstances(), new ArrayList<>());
+            for (int k = 0; k < options.classCount; k++)
+                define(className(k), generateClass(k), workload.classNames);
+        }
+
+        byte[] generateAbstraction(int i) {
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE, apiName(i), null,
+                    "java/lang/Object", new String[] { NAME_Abstraction });
+            for (int j = 0; j < options.methodsPerAbstraction; j++) {
+                // default int m<j>() { return unimplemented(); }
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "m" + j, "()I", null, null);
+                mv.visitCode();
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, apiName(i), "unimplemented", "()Ljava/lang/Object;", true);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Integer");
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I", false);
+                mv.visitInsn(Opcodes.IRETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+
+        byte[] generateImpl(int i) {
+            String name = apiName(i) + "Impl";
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", new String[] { apiName(i) });
+            generateConstructor(cw);
+            for (int j = 0; j < options.methodsPerAbstraction; j++) {
+                if (!implemented[i][j])
+                    continue;
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "m" + j, "()I", null, null);
+                mv.visitCode();
+                mv.visitLdcInsn(j);
+                mv.visitInsn(Opcodes.IRETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+
+        byte[] generateInstances() {
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, instancesName, null, "java/lang/Object", null);
+            MethodVisitor clinit = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+            clinit.visitCode();
+            for (int i = 0; i < options.abstractionCount; i++) {
+                cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "api" + i, "L" + apiName(i) + ";", null, null).visitEnd();
+                clinit.visitTypeInsn(Opcodes.NEW, apiName(i) + "Impl");
+                clinit.visitInsn(Opcodes.DUP);
+                clinit.visitMethodInsn(Opcodes.INVOKESPECIAL, apiName(i) + "Impl", "<init>", "()V", false);
+                clinit.visitFieldInsn(Opcodes.PUTSTATIC, instancesName, "api" + i, "L" + apiName(i) + ";");
+            }
+
+            clinit.visitInsn(Opcodes.RETURN);
+            clinit.visitMaxs(0, 0);
+            clinit.visitEnd();
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+
+        byte[] generateClass(int k) {
+            String name = className(k);
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+            cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+            generateConstructor(cw);
+
+            int[] lambdaCounter = new int[1];
+            for (int j = 0; j < options.methodsPerClass; j++) {
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m" + j, "(I)I", null, null);
+                mv.visitCode();
+
+                // if (depth <= 0) return 0;
+                Label body = new Label();
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitJumpInsn(Opcodes.IFGT, body);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitInsn(Opcodes.IRETURN);
+                mv.visitLabel(body);
+
+                // sum up the calls
+                mv.visitInsn(Opcodes.ICONST_0);
+                for (int c = 0; c < options.fanOut; c++) {
+                    generateCall(cw, mv, k, lambdaCounter);
+                    mv.visitInsn(Opcodes.IADD);
+                }
+
+                mv.visitInsn(Opcodes.IRETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+
+        // Push the int result of one call of the given class
+        void generateCall(ClassWriter cw, MethodVisitor mv, int k, int[] lambdaCounter) {
+            int layer = layerOf(k);
+            boolean hasNext = layer + 1 < layers;
+            if (!hasNext || random.nextDouble() < options.abstractionCallRatio) {
+                double kind = random.nextDouble();
+                if (kind < options.requireAtLeastOneDensity) {
+                    generateRequireAtLeastOne(cw, mv, k, lambdaCounter);
+                } else if (kind < options.requireAtLeastOneDensity + options.optionalDensity) {
+                    generateOptional(cw, mv, k, lambdaCounter);
+                } else {
+                    generateAbstractionCall(mv, random.nextInt(options.abstractionCount), random.nextInt(options.methodsPerAbstraction));
+                }
+
+                return;
+            }
+
+            // call a method of another class
+            int target = random.nextDouble() < options.recursionRatio ?
+                    random.nextInt(k + 1) :
+                    layerStart(layer + 1) + random.nextInt(layerStart(layer + 2) - layerStart(layer + 1));
+            mv.visitVarInsn(Opcodes.ILOAD, 0);
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitInsn(Opcodes.ISUB);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, className(target), "m" + random.nextInt(options.methodsPerClass), "(I)I", false);
+        }
+
+        void generateAbstractionCall(MethodVisitor mv, int i, int j) {
+            mv.visitFieldInsn(Opcodes.GETSTATIC, instancesName, "api" + i, "L" + apiName(i) + ";");
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, apiName(i), "m" + j, "()I", true);
+        }
+
+        // Generate a lambda method returning the boxed result of an abstraction
+        // call, or a constant if i is -1, and push the supplier for it
+        void generateSupplier(ClassWriter cw, MethodVisitor mv, int k, int[] lambdaCounter, int i, int j) {
+            String lambdaName = "lambda$" + lambdaCounter[0]++;
+            MethodVisitor lv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, lambdaName, "()Ljava/lang/Object;", null, null);
+            lv.visitCode();
+            if (i == -1) {
+                lv.visitInsn(Opcodes.ICONST_1);
+            } else {
+                generateAbstractionCall(lv, i, j);
+            }
+
+            lv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+            lv.visitInsn(Opcodes.ARETURN);
+            lv.visitMaxs(0, 0);
+            lv.visitEnd();
+
+            mv.visitInvokeDynamicInsn("get", "()" + DESC_Supplier, H_metafactory,
+                    TYPE_SupplierGet, new Handle(Opcodes.H_INVOKESTATIC, className(k), lambdaName, "()Ljava/lang/Object;", false), TYPE_SupplierGet);
+        }
+
+        // Usage.optionally(() -> api.m()).orElse(0)
+        void generateOptional(ClassWriter cw, MethodVisitor mv, int k, int[] lambdaCounter) {
+            generateSupplier(cw, mv, k, lambdaCounter, random.nextInt(options.abstractionCount), random.nextInt(options.methodsPerAbstraction));
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, NAME_Usage, "optionally", "(" + DESC_Supplier + ")Ljava/util/Optional;", false);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/Optional", "orElse", "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Integer");
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I", false);
+        }
+
+        // Usage.requireAtLeastOne(() -> api.m(), ..., () -> 1), the last
+        // alternative is always implemented so the call never fails
+        void generateRequireAtLeastOne(ClassWriter cw, MethodVisitor mv, int k, int[] lambdaCounter) {
+            int count = 2 + random.nextInt(2);
+            mv.visitLdcInsn(count);
+            mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/util/function/Supplier");
+            for (int n = 0; n < count; n++) {
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitLdcInsn(n);
+                if (n == count - 1) {
+                    generateSupplier(cw, mv, k, lambdaCounter, -1, -1);
+                } else {
+                    generateSupplier(cw, mv, k, lambdaCounter, random.nextInt(options.abstractionCount), random.nextInt(options.methodsPerAbstraction));
+                }
+
+                mv.visitInsn(Opcodes.AASTORE);
+            }
+
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, NAME_Usage, "requireAtLeastOne", "([" + DESC_Supplier + ")Ljava/lang/Object;", false);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Integer");
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I", false);
+        }
+
+        static void generateConstructor(ClassWriter cw) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+    }
+
+}
@@ -3,3 +3,8 @@ rootProject.name = "abstracraft"
 include("core")
 include("math")
 include("abstractions")
+
+// the JMH benchmarks are only part of the build on
+// request: ./gradlew -Pbenchmarks :benchmarks:jmh
+if (providers.gradleProperty("benchmarks").isPresent)
+    include("benchmarks")